@@ -0,0 +1,359 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** An archive of one enciphered message that can be deciphered starting
+ *  at any character.  The archive holds the settings line, the ciphertext
+ *  and, every interval() characters, a checkpoint of the positions of the
+ *  rotors before that character was enciphered.  To read from an offset,
+ *  an opened archive restores the nearest preceding checkpoint and steps
+ *  the rotors forward, so no more than interval() - 1 characters are
+ *  skipped however long the message is.
+ *
+ *  The file consists of a header (MAGIC, the interval, the number of
+ *  positions per checkpoint and the settings line), the ciphertext as
+ *  16-bit characters, the checkpoints, and a footer giving the offsets
+ *  and sizes of the ciphertext and checkpoints followed by MAGIC again.
+ *  Opened archives are memory-mapped.
+ *  @author Yuan Xie.
+ */
+public final class Archive {
+
+    /** Create or read an archive, as specified by ARGS, which is either
+     *      create [--interval=K] CONFIG INPUT ARCHIVE
+     *  to encipher the single message in INPUT, whose first line is a
+     *  settings line for the machine described by the configuration file
+     *  CONFIG, into ARCHIVE with a checkpoint every K characters, or
+     *      extract CONFIG ARCHIVE OFFSET COUNT
+     *  to print the COUNT characters of plaintext starting at character
+     *  OFFSET of the message in ARCHIVE.
+     *  Exits with code 1 after printing a message on errors. */
+    public static void main(String... args) {
+        try {
+            int interval = DEFAULT_INTERVAL;
+            int k = 0;
+            if (args.length > 1 && args[1].startsWith("--interval=")) {
+                interval = number(args[1].substring(11));
+                k = 1;
+            }
+            if (args.length == k + 4 && args[0].equals("create")) {
+                create(Config.read(args[k + 1]), args[k + 2], args[k + 3],
+                       interval);
+            } else if (args.length == 5 && args[0].equals("extract")) {
+                Archive archive = open(args[2], Config.read(args[1]));
+                System.out.println(archive.read(number(args[3]),
+                                                number(args[4])));
+            } else {
+                throw error("usage: java enigma.Archive create "
+                            + "[--interval=K] CONFIG INPUT ARCHIVE | "
+                            + "extract CONFIG ARCHIVE OFFSET COUNT");
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the non-negative integer denoted by WORD. */
+    private static int number(String word) {
+        try {
+            int result = Integer.parseInt(word);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("bad number: %s", word);
+    }
+
+    /** Encipher the message in the file named INPUT with a machine built
+     *  from CONFIG, writing an archive with a checkpoint every INTERVAL
+     *  characters to the file named NAME.  The first line of INPUT is a
+     *  settings line; the remaining lines form a single message, from
+     *  which whitespace is removed.  A message whose archive would be too
+     *  large to open (see MAX_SIZE) is refused, and no archive is left
+     *  after an error. */
+    static void create(Config config, String input, String name,
+                       int interval) {
+        if (interval <= 0) {
+            throw error("checkpoint interval must be positive");
+        }
+        Machine machine = config.newMachine();
+        int width = config.numRotors() - 1;
+        boolean done = false;
+        try (BufferedReader in = new BufferedReader(
+                 new InputStreamReader(new FileInputStream(input),
+                                       Charset.defaultCharset()));
+             DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(name),
+                                          1 << 16))) {
+            String settings = in.readLine();
+            if (settings == null || !settings.contains("*")) {
+                throw error("First line must be a settings line.");
+            }
+            settings = Settings.normalize(settings);
+            new Settings(settings, config).apply(machine);
+            out.writeInt(MAGIC);
+            out.writeInt(interval);
+            out.writeInt(width);
+            out.writeInt(settings.length());
+            out.writeChars(settings);
+            long textStart = HEADER_SIZE + 2L * settings.length();
+
+            int[] checkpoints = new int[width];
+            long length = 0;
+            char[] chars = new char[0];
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                if (line.contains("*")) {
+                    throw error("archive holds a single message");
+                }
+                if (chars.length < line.length()) {
+                    chars = new char[line.length()];
+                }
+                int n = 0;
+                for (int k = 0; k < line.length(); k += 1) {
+                    char c = line.charAt(k);
+                    if (!Character.isWhitespace(c)) {
+                        chars[n] = Character.toUpperCase(c);
+                        n += 1;
+                    }
+                }
+                for (int k = 0; k < n; ) {
+                    if (length % interval == 0) {
+                        checkpoints = checkpoint(checkpoints, length,
+                                                 interval, machine);
+                    }
+                    int end = (int) Math.min(n, k + interval
+                                             - length % interval);
+                    machine.convert(chars, k, end);
+                    for (int j = k; j < end; j += 1) {
+                        out.writeChar(chars[j]);
+                    }
+                    length += end - k;
+                    k = end;
+                    if (textStart + 2 * length
+                        + 4L * (length / interval + 1) * width
+                        + FOOTER_SIZE > MAX_SIZE) {
+                        throw error("message is too long for an archive");
+                    }
+                }
+            }
+            if (length == 0) {
+                checkpoints = checkpoint(checkpoints, 0, interval, machine);
+            }
+
+            int count = (int) ((length + interval - 1) / interval);
+            count = Math.max(count, 1);
+            long indexStart = textStart + 2 * length;
+            for (int k = 0; k < count * width; k += 1) {
+                out.writeInt(checkpoints[k]);
+            }
+            out.writeLong(textStart);
+            out.writeLong(length);
+            out.writeLong(indexStart);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+            done = true;
+        } catch (IOException excp) {
+            throw error("could not create %s", name);
+        } finally {
+            if (!done) {
+                new File(name).delete();
+            }
+        }
+    }
+
+    /** Record the positions of MACHINE's rotors as the checkpoint for
+     *  character OFFSET, a multiple of INTERVAL, in CHECKPOINTS, returning
+     *  CHECKPOINTS or a larger copy of it. */
+    private static int[] checkpoint(int[] checkpoints, long offset,
+                                    int interval, Machine machine) {
+        int[] positions = machine.positions();
+        long start = offset / interval * positions.length;
+        if (start + positions.length > Integer.MAX_VALUE) {
+            throw error("too many checkpoints");
+        }
+        if (start + positions.length > checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints,
+                (int) Math.min(Integer.MAX_VALUE,
+                               Math.max(start + positions.length,
+                                        2L * checkpoints.length)));
+        }
+        System.arraycopy(positions, 0, checkpoints, (int) start,
+                         positions.length);
+        return checkpoints;
+    }
+
+    /** Return the archive in the file named NAME, to be deciphered with a
+     *  machine built from CONFIG. */
+    static Archive open(String name, Config config) {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() > MAX_SIZE) {
+                throw error("%s is too large to map", name);
+            }
+            return new Archive(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                name, config);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** An archive read from BUF, the contents of the file NAME, to be
+     *  deciphered with a machine built from CONFIG. */
+    private Archive(ByteBuffer buf, String name, Config config) {
+        try {
+            if (buf.getInt() != MAGIC
+                || buf.getInt(buf.limit() - 4) != MAGIC) {
+                throw error("%s is not an archive", name);
+            }
+            _interval = buf.getInt();
+            _width = buf.getInt();
+            int size = buf.getInt();
+            if (size < 0 || 2L * size > buf.remaining()) {
+                throw error("%s is damaged", name);
+            }
+            char[] settings = new char[size];
+            for (int k = 0; k < settings.length; k += 1) {
+                settings[k] = buf.getChar();
+            }
+            _settings = new String(settings);
+
+            buf.position(buf.limit() - FOOTER_SIZE);
+            long textStart = buf.getLong();
+            _length = buf.getLong();
+            long indexStart = buf.getLong();
+            int count = buf.getInt();
+            if (_interval <= 0 || _width != config.numRotors() - 1
+                || textStart != HEADER_SIZE + 2 * settings.length
+                || textStart + 2 * _length != indexStart
+                || count != Math.max(1, (_length + _interval - 1)
+                                     / _interval)
+                || indexStart + 4L * count * _width + FOOTER_SIZE
+                   != buf.limit()) {
+                throw error("%s is damaged or does not match the "
+                            + "configuration", name);
+            }
+            _text = buf.position((int) textStart).slice()
+                .limit((int) (2 * _length)).asCharBuffer();
+            _index = buf.position((int) indexStart).slice()
+                .limit(4 * count * _width).asIntBuffer();
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | IndexOutOfBoundsException excp) {
+            throw error("%s is damaged", name);
+        }
+        _machine = config.newMachine();
+        new Settings(_settings, config).apply(_machine);
+    }
+
+    /** Return the settings line with which my message was enciphered. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the number of characters in my message. */
+    long length() {
+        return _length;
+    }
+
+    /** Return the number of characters between checkpoints. */
+    int interval() {
+        return _interval;
+    }
+
+    /** Return the COUNT characters of ciphertext starting at character
+     *  OFFSET. */
+    String ciphertext(long offset, int count) {
+        check(offset, count);
+        char[] result = new char[count];
+        _text.get((int) offset, result, 0, count);
+        return new String(result);
+    }
+
+    /** Return the plaintext of the COUNT characters starting at character
+     *  OFFSET, deciphered from the nearest checkpoint at or before
+     *  OFFSET. */
+    String read(long offset, int count) {
+        check(offset, count);
+        if (count == 0) {
+            return "";
+        }
+        int checkpoint = (int) (offset / _interval);
+        int[] positions = new int[_width];
+        _index.get(checkpoint * _width, positions, 0, _width);
+        _machine.setRotors(positions);
+        _machine.skip(offset - (long) checkpoint * _interval);
+        char[] result = new char[count];
+        _text.get((int) offset, result, 0, count);
+        _machine.convert(result, 0, count);
+        return new String(result);
+    }
+
+    /** Check that OFFSET and COUNT denote characters of my message. */
+    private void check(long offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > _length) {
+            throw error("characters %d to %d are outside the message of "
+                        + "length %d", offset, offset + count, _length);
+        }
+    }
+
+    /** Identifies archive files. */
+    private static final int MAGIC = 0x454e4941;
+
+    /** Size in bytes of the fixed part of the header. */
+    private static final int HEADER_SIZE = 16;
+
+    /** Size in bytes of the footer. */
+    private static final int FOOTER_SIZE = 32;
+
+    /** Largest size in bytes of an archive, which is mapped as one
+     *  buffer. */
+    private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /** Default number of characters between checkpoints. */
+    private static final int DEFAULT_INTERVAL = 4096;
+
+    /** The settings line of my message. */
+    private final String _settings;
+
+    /** Number of characters between checkpoints. */
+    private final int _interval;
+
+    /** Number of rotor positions in each checkpoint. */
+    private final int _width;
+
+    /** Length of my message. */
+    private final long _length;
+
+    /** The ciphertext. */
+    private final CharBuffer _text;
+
+    /** The checkpoints, _width positions each. */
+    private final IntBuffer _index;
+
+    /** Machine set up with my settings, for deciphering. */
+    private final Machine _machine;
+}
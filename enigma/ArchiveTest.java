@@ -0,0 +1,172 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static enigma.BatchTest.delete;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Archive class.
+ *  @author Yuan Xie.
+ */
+public class ArchiveTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings line of the archived messages. */
+    static final String SETTINGS = "* B III I II QEV ABC (AQ) (EP)";
+
+    /** Checkpoint interval of the archives. */
+    static final int INTERVAL = 100;
+
+    /** Return a message of LENGTH upper-case letters. */
+    static String message(int length) {
+        char[] result = new char[length];
+        for (int k = 0; k < length; k += 1) {
+            result[k] = (char) ('A' + (k * 7 + k / 26) % 26);
+        }
+        return new String(result);
+    }
+
+    /** Write an archive of MSG under SETTINGS, enciphered with CONFIG, to
+     *  ARCHIVE, from an input file in DIR with the message split into
+     *  lines and spaced. */
+    static void create(Config config, String msg, Path dir, Path archive)
+        throws IOException {
+        StringBuilder input = new StringBuilder(SETTINGS.toLowerCase());
+        input.append('\n');
+        for (int k = 0; k < msg.length(); k += 1) {
+            input.append(msg.charAt(k));
+            if (k % 5 == 4) {
+                input.append(k % 60 == 59 ? '\n' : ' ');
+            }
+        }
+        Path file = dir.resolve("message.inp");
+        Files.writeString(file, input, Charset.defaultCharset());
+        Archive.create(config, file.toString(), archive.toString(),
+                       INTERVAL);
+    }
+
+    /** Assert that opening ARCHIVE with CONFIG fails. */
+    static void assertDamaged(Path archive, Config config) {
+        try {
+            Archive.open(archive.toString(), config);
+            fail("damaged archive opened");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        Config config = navalConfig();
+        Path dir = Files.createTempDirectory("enigma-archive"),
+            file = dir.resolve("m.arc");
+        try {
+            String msg = message(138 * INTERVAL);
+            create(config, msg, dir, file);
+            Archive archive = Archive.open(file.toString(), config);
+            assertEquals(Settings.normalize(SETTINGS), archive.settings());
+            assertEquals(msg.length(), archive.length());
+            assertEquals(INTERVAL, archive.interval());
+            Machine machine = config.newMachine();
+            new Settings(Settings.normalize(SETTINGS), config)
+                .apply(machine);
+            assertEquals(machine.convert(msg),
+                         archive.ciphertext(0, msg.length()));
+            int[][] reads = {
+                {0, msg.length()}, {0, 1}, {INTERVAL, INTERVAL},
+                {INTERVAL - 1, 2}, {150, 1000}, {4321, 37},
+                {msg.length() - INTERVAL, INTERVAL},
+                {msg.length() - 1, 1}, {msg.length(), 0}, {0, 0},
+                {2 * INTERVAL, 0}
+            };
+            for (int[] read : reads) {
+                assertEquals(Arrays.toString(read),
+                             msg.substring(read[0], read[0] + read[1]),
+                             archive.read(read[0], read[1]));
+            }
+            try {
+                archive.read(msg.length() - 1, 2);
+                fail("read past the end");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkShortMessages() throws IOException {
+        Config config = navalConfig();
+        Path dir = Files.createTempDirectory("enigma-archive"),
+            file = dir.resolve("m.arc");
+        try {
+            for (int length : new int[] { 0, 1, INTERVAL - 1, INTERVAL,
+                                          INTERVAL + 1 }) {
+                String msg = message(length);
+                create(config, msg, dir, file);
+                Archive archive = Archive.open(file.toString(), config);
+                assertEquals(length, archive.length());
+                assertEquals(msg, archive.read(0, length));
+                assertEquals("", archive.read(length, 0));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkDamaged() throws IOException {
+        Config config = navalConfig();
+        Path dir = Files.createTempDirectory("enigma-archive"),
+            file = dir.resolve("m.arc"), copy = dir.resolve("copy.arc");
+        try {
+            create(config, message(1234), dir, file);
+            byte[] bytes = Files.readAllBytes(file);
+            for (int size : new int[] { 0, 3, 7, 40, bytes.length / 2,
+                                        bytes.length - 1 }) {
+                Files.write(copy, Arrays.copyOf(bytes, size));
+                assertDamaged(copy, config);
+            }
+            for (int k : new int[] { 4, 8, 12, bytes.length - 32,
+                                     bytes.length - 24, bytes.length - 16,
+                                     bytes.length - 8, bytes.length - 5 }) {
+                byte[] damaged = bytes.clone();
+                damaged[k] ^= 0x40;
+                Files.write(copy, damaged);
+                assertDamaged(copy, config);
+            }
+            assertDamaged(file, new Config(new ConfigLexer(
+                BatchTest.CONFIG)));
+            Files.writeString(copy, "* B I II III AAA\nHELLO\n* B I II "
+                              + "III AAA\nWORLD\n", Charset.defaultCharset());
+            try {
+                Archive.create(config, copy.toString(),
+                               dir.resolve("two.arc").toString(),
+                               INTERVAL);
+                fail("two messages archived");
+            } catch (EnigmaException excp) {
+                assertFalse(Files.exists(dir.resolve("two.arc")));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+}
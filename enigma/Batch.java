@@ -0,0 +1,269 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+
+import static enigma.EnigmaException.*;
+
+/** Applies one configuration to many input files at once.  The
+ *  configuration is read once; each worker thread of a work-stealing pool
+ *  gets its own copy of the rotors and processes files as Main would,
+ *  inflating compressed ones (see Compression), with a limit on the
+ *  number of files open at any time.  Each output is
+ *  written to a temporary file in the output directory and then moved into
+ *  place, so that no partial output file is ever visible under its final
+ *  name.  A line reporting the outcome and time of each file, and a final
+ *  summary of the total throughput, are printed on the standard output.
+ *  @author Yuan Xie.
+ */
+class Batch {
+
+    /** Process files as specified by ARGS, which are
+     *      [--jobs=N] CONFIG INPUTS OUTDIR
+     *  where CONFIG is a configuration file, INPUTS is either a directory,
+     *  all of whose files ending in .inp are processed, or a glob pattern
+     *  such as dir/msg*.inp for files in one directory, and OUTDIR is the
+     *  directory to which the output for F.inp is written as F.out.  N is
+     *  the number of worker threads, by default the number of processors.
+     *  Return true iff every file was processed without error. */
+    static boolean run(String[] args) {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        int k = 0;
+        if (args.length > 0 && args[0].startsWith("--jobs=")) {
+            try {
+                jobs = Integer.parseInt(args[0].substring(7));
+            } catch (NumberFormatException excp) {
+                jobs = 0;
+            }
+            if (jobs <= 0) {
+                throw error("bad number of jobs: %s", args[0]);
+            }
+            k = 1;
+        }
+        if (args.length != k + 3) {
+            throw error("usage: java enigma.Main --batch [--jobs=N] "
+                        + "CONFIG INPUTS OUTDIR");
+        }
+        Batch batch = new Batch(Config.read(args[k]), inputs(args[k + 1]),
+                                Paths.get(args[k + 2]));
+        return batch.process(jobs);
+    }
+
+    /** Return the input files denoted by SPEC (see run), sorted by
+     *  name. */
+    static List<Path> inputs(String spec) {
+        Path path = Paths.get(spec);
+        Path dir;
+        String glob;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            glob = "*.inp";
+        } else {
+            dir = path.getParent() == null ? Paths.get(".")
+                : path.getParent();
+            glob = path.getFileName().toString();
+        }
+        ArrayList<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir,
+                                                                     glob)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)) {
+                    result.add(file);
+                }
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("could not list %s", spec);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** A batch applying CONFIG to the files INPUTS, writing outputs to the
+     *  directory OUTDIR. */
+    Batch(Config config, List<Path> inputs, Path outDir) {
+        _config = config;
+        _inputs = inputs;
+        _outDir = outDir;
+        _configs = ThreadLocal.withInitial(_config::copy);
+    }
+
+    /** Process all my inputs on JOBS threads, reporting as described in
+     *  the class comment, and return true iff all succeeded. */
+    boolean process(int jobs) {
+        if (!Files.isDirectory(_outDir)) {
+            throw error("%s is not a directory", _outDir);
+        }
+        long start = System.nanoTime();
+        String[] reports = new String[_inputs.size()];
+        long[] sizes = new long[_inputs.size()];
+        boolean[] ok = new boolean[_inputs.size()];
+        ForkJoinPool pool = new ForkJoinPool(jobs);
+        try {
+            pool.invoke(new Split(0, _inputs.size(), reports, sizes, ok));
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        boolean result = true;
+        long total = 0;
+        for (int k = 0; k < reports.length; k += 1) {
+            System.out.println(reports[k]);
+            result &= ok[k];
+            total += sizes[k];
+        }
+        System.out.printf("%d files, %d bytes in %.3f s (%.1f MB/s)%n",
+                          reports.length, total, seconds,
+                          total / 1e6 / Math.max(seconds, 1e-9));
+        return result;
+    }
+
+    /** Processes inputs START .. END-1, splitting the range among
+     *  workers.  Results go to REPORTS, SIZES and OK. */
+    private class Split extends RecursiveAction {
+
+        /** Process inputs START .. END-1, storing a report line, the input
+         *  size and whether it succeeded for input K in REPORTS[K],
+         *  SIZES[K] and OK[K]. */
+        Split(int start, int end, String[] reports, long[] sizes,
+              boolean[] ok) {
+            _start = start;
+            _end = end;
+            _reports = reports;
+            _sizes = sizes;
+            _ok = ok;
+        }
+
+        @Override
+        protected void compute() {
+            if (_end - _start > 1) {
+                int mid = (_start + _end) >>> 1;
+                invokeAll(new Split(_start, mid, _reports, _sizes, _ok),
+                          new Split(mid, _end, _reports, _sizes, _ok));
+                return;
+            }
+            for (int k = _start; k < _end; k += 1) {
+                Path input = _inputs.get(k);
+                long start = System.nanoTime();
+                String outcome;
+                try {
+                    _open.acquireUninterruptibly();
+                    try {
+                        _sizes[k] = Files.size(input);
+                        processFile(input);
+                    } finally {
+                        _open.release();
+                    }
+                    outcome = "OK";
+                    _ok[k] = true;
+                } catch (EnigmaException excp) {
+                    outcome = "Error: " + excp.getMessage();
+                } catch (IOException excp) {
+                    outcome = "Error: could not read " + input;
+                }
+                _reports[k] = String.format("%s: %s (%.3f ms)", input,
+                                            outcome,
+                                            (System.nanoTime() - start)
+                                            / 1e6);
+            }
+        }
+
+        /** Identifies the serialized form, which is never used. */
+        private static final long serialVersionUID = 1;
+
+        /** Range of inputs to process. */
+        private final int _start, _end;
+        /** Destinations of results. */
+        private final String[] _reports;
+        /** Destination of input sizes. */
+        private final long[] _sizes;
+        /** Destination of outcomes. */
+        private final boolean[] _ok;
+    }
+
+    /** Process the file INPUT with this thread's copy of the
+     *  configuration, writing its output atomically.  As with Main, the
+     *  output for lines preceding an error is kept. */
+    private void processFile(Path input) {
+        String name = input.getFileName().toString();
+        if (name.endsWith(".inp")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        Path output = _outDir.resolve(name + ".out");
+        Path temp;
+        try {
+            temp = Files.createTempFile(_outDir, "." + name, ".tmp");
+        } catch (IOException excp) {
+            throw error("could not create output in %s", _outDir);
+        }
+        EnigmaException failure = null;
+        try (Reader in = new InputStreamReader(
+                 Compression.input(Files.newInputStream(input)),
+                 Charset.defaultCharset());
+             PrintStream out = new PrintStream(
+                 Files.newOutputStream(temp), false,
+                 Charset.defaultCharset())) {
+            try {
+                new Main(_configs.get(), in, out).process();
+            } catch (EnigmaException excp) {
+                failure = excp;
+            }
+        } catch (IOException excp) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException excp2) {
+                /* Nothing more can be done. */
+            }
+            throw error("could not process %s", input);
+        }
+        try {
+            try {
+                Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, output,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", output);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Maximum number of input and output files open at once. */
+    private static final int MAX_OPEN_FILES = 64;
+
+    /** Limits the number of files being processed to MAX_OPEN_FILES / 2,
+     *  since each has an input and an output open. */
+    private final Semaphore _open = new Semaphore(MAX_OPEN_FILES / 2);
+
+    /** The configuration read from the configuration file. */
+    private final Config _config;
+
+    /** Each worker thread's copy of _config. */
+    private final ThreadLocal<Config> _configs;
+
+    /** Files to process. */
+    private final List<Path> _inputs;
+
+    /** Directory for outputs. */
+    private final Path _outDir;
+}
@@ -0,0 +1,143 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Batch class.
+ *  @author Yuan Xie.
+ */
+public class BatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Configuration used by the tests. */
+    static final String CONFIG = "A-Z\n 5 3\n"
+        + " I MQ " + NAVALA.get("I") + "\n"
+        + " II ME " + NAVALA.get("II") + "\n"
+        + " III MV " + NAVALA.get("III") + "\n"
+        + " IV MJ " + NAVALA.get("IV") + "\n"
+        + " Beta N " + NAVALA.get("Beta") + "\n"
+        + " B R " + NAVALA.get("B") + "\n";
+
+    /** Return the output of Main for INPUT with CONFIG. */
+    static String expected(Config config, String input) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true,
+                                          Charset.defaultCharset());
+        try {
+            new Main(config, new StringReader(input), out).process();
+        } catch (EnigmaException excp) {
+            /* Output before the error is kept. */
+        }
+        return bytes.toString(Charset.defaultCharset());
+    }
+
+    /** Return the contents of FILE. */
+    static String read(Path file) throws IOException {
+        return Files.readString(file, Charset.defaultCharset());
+    }
+
+    /** Delete DIR and everything in it. */
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files
+                     .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkBatchMatchesMain() throws IOException {
+        Config config = new Config(new ConfigLexer(CONFIG));
+        Path dir = Files.createTempDirectory("enigma-batch"),
+            in = Files.createDirectory(dir.resolve("in")),
+            out = Files.createDirectory(dir.resolve("out"));
+        try {
+            String[] inputs = new String[12];
+            for (int k = 0; k < inputs.length; k += 1) {
+                inputs[k] = "* B Beta I II III A" + (char) ('A' + k) + "AA"
+                    + " (AQ)\nHELLO WORLD\n"
+                    + "* B Beta IV I II " + (char) ('A' + k) + "XYZ\n"
+                    + "THE QUICK BROWN FOX\n".repeat(k + 1);
+            }
+            inputs[5] = inputs[5] + "BAD LINE 5\n";
+            for (int k = 0; k < inputs.length; k += 1) {
+                Files.writeString(in.resolve("m" + (char) ('a' + k)
+                                             + ".inp"),
+                                  inputs[k], Charset.defaultCharset());
+            }
+            Files.writeString(in.resolve("skipped.txt"), "not an input",
+                              Charset.defaultCharset());
+            List<Path> files = Batch.inputs(in.toString());
+            assertEquals(inputs.length, files.size());
+            assertFalse(new Batch(config, files, out).process(3));
+            for (int k = 0; k < inputs.length; k += 1) {
+                assertEquals(expected(config, inputs[k]),
+                             read(out.resolve("m" + (char) ('a' + k)
+                                              + ".out")));
+            }
+            try (Stream<Path> outputs = Files.list(out)) {
+                assertEquals(inputs.length, outputs.count());
+            }
+            assertEquals(2, Batch.inputs(in.resolve("m[ab].inp")
+                                         .toString()).size());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkCompressedInputs() throws IOException {
+        Config config = new Config(new ConfigLexer(CONFIG));
+        Path dir = Files.createTempDirectory("enigma-batch"),
+            in = Files.createDirectory(dir.resolve("in")),
+            out = Files.createDirectory(dir.resolve("out"));
+        try {
+            String input = "* B Beta I II III AAAA (AQ)\n"
+                + "THE QUICK BROWN FOX\n".repeat(5000);
+            byte[] text = input.getBytes(Charset.defaultCharset());
+            try (OutputStream file =
+                 Compression.output(Files.newOutputStream(
+                     in.resolve("blocked.inp")))) {
+                file.write(text);
+            }
+            try (OutputStream file = new GZIPOutputStream(
+                     Files.newOutputStream(in.resolve("gzip.inp")))) {
+                file.write(text);
+            }
+            Files.write(in.resolve("plain.inp"), text);
+            assertTrue(new Batch(config, Batch.inputs(in.toString()), out)
+                       .process(2));
+            String expected = expected(config, input);
+            for (String name : new String[] { "blocked", "gzip", "plain" }) {
+                assertEquals(expected, read(out.resolve(name + ".out")));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.*;
+
+/** A catalog of the characteristics of a machine without plugboard, in the
+ *  sense of Rejewski: for every rotor order and start position, the cycle
+ *  lengths of the products of the permutations applied to the first and
+ *  fourth, second and fifth, and third and sixth letters of a message.
+ *  A plugboard conjugates these products and so leaves their cycle
+ *  lengths unchanged, which is what makes the catalog useful against
+ *  doubled message keys.
+ *
+ *  The catalog is built in parallel from a configuration and written to an
+ *  index file sorted by a hash of the characteristic.  An opened index is
+ *  memory-mapped and answers lookups by binary search.
+ *  @author Yuan Xie.
+ */
+public final class Catalog {
+
+    /** Build or consult a catalog, as specified by ARGS, which is either
+     *      build CONFIG INDEX
+     *  to catalog every rotor order and start position of the machine
+     *  described by the configuration file CONFIG into the file INDEX, or
+     *      lookup INDEX CHARACTERISTIC...
+     *  to print the settings with each CHARACTERISTIC, written as three
+     *  groups of cycle lengths separated by '/', such as
+     *  "13 13 / 10 10 3 3 / 12 12 1 1".
+     *  Exits with code 1 after printing a message on errors. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 3 && args[0].equals("build")) {
+                build(Config.read(args[1]), args[2]);
+            } else if (args.length >= 3 && args[0].equals("lookup")) {
+                Catalog catalog = open(args[1]);
+                for (int k = 2; k < args.length; k += 1) {
+                    for (String setting : catalog.lookup(args[k])) {
+                        System.out.println(setting);
+                    }
+                }
+            } else {
+                throw error("usage: java enigma.Catalog build CONFIG INDEX"
+                            + " | lookup INDEX CHARACTERISTIC...");
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Catalog every rotor order and start position of the machines
+     *  described by CONFIG, writing the index to the file named NAME. */
+    static void build(Config config, String name) {
+        int n = config.alphabet().size();
+        int slots = config.numRotors(), pawls = config.numPawls();
+        List<Rotor[]> orders = orders(config);
+        if (orders.isEmpty()) {
+            throw error("configuration has no complete rotor order");
+        }
+        int fixedPositions = power(n, slots - pawls - 1);
+        int movingPositions = power(n, pawls);
+        int positions = power(n, slots - 1);
+        if (positions > Integer.MAX_VALUE / orders.size()) {
+            throw error("catalog too large");
+        }
+        int count = orders.size() * positions;
+        Stepping stepping = config.stepping();
+        long[] hashes = new long[count];
+
+        IdentityHashMap<Rotor, int[][]> tables = new IdentityHashMap<>();
+        for (Rotor rotor : config.rotors()) {
+            int[][] table = new int[2][n];
+            for (int x = 0; x < n; x += 1) {
+                table[0][x] = rotor.permutation().permute(x);
+                table[1][x] = rotor.permutation().invert(x);
+            }
+            tables.put(rotor, table);
+        }
+
+        IntStream.range(0, orders.size() * fixedPositions).parallel()
+            .forEach(block -> {
+                Rotor[] order = orders.get(block / fixedPositions);
+                int[][][] slotTables = new int[slots][][];
+                for (int r = 0; r < slots; r += 1) {
+                    slotTables[r] = tables.get(order[r]);
+                }
+                Builder builder =
+                    new Builder(order, slotTables, pawls, n, stepping);
+                builder.fixCore(block % fixedPositions);
+                int base = block * movingPositions;
+                for (int m = 0; m < movingPositions; m += 1) {
+                    hashes[base + m] = builder.characteristic(m);
+                }
+            });
+
+        int[] ids = new int[count];
+        for (int k = 0; k < count; k += 1) {
+            ids[k] = k;
+        }
+        sort(hashes, ids);
+        write(name, config, orders, hashes, ids);
+    }
+
+    /** Return all assignments of rotors from CONFIG to its slots: a
+     *  reflector in slot 0, distinct non-moving rotors in the slots without
+     *  pawls, and distinct moving rotors in the slots with pawls. */
+    static List<Rotor[]> orders(Config config) {
+        ArrayList<Rotor> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor rotor : config.rotors()) {
+            if (rotor.reflecting()) {
+                reflectors.add(rotor);
+            } else if (rotor.rotates()) {
+                moving.add(rotor);
+            } else {
+                fixed.add(rotor);
+            }
+        }
+        int slots = config.numRotors(), pawls = config.numPawls();
+        ArrayList<Rotor[]> result = new ArrayList<>();
+        for (Rotor reflector : reflectors) {
+            Rotor[] order = new Rotor[slots];
+            order[0] = reflector;
+            fill(order, 1, slots - pawls, fixed, moving, result);
+        }
+        return result;
+    }
+
+    /** Add to RESULT a copy of ORDER for each way of filling slots
+     *  ORDER[K ..] with distinct rotors, taken from FIXED below slot
+     *  FIRSTPAWL and from MOVING at or above it. */
+    private static void fill(Rotor[] order, int k, int firstPawl,
+                             List<Rotor> fixed, List<Rotor> moving,
+                             List<Rotor[]> result) {
+        if (k == order.length) {
+            result.add(order.clone());
+            return;
+        }
+        for (Rotor rotor : k < firstPawl ? fixed : moving) {
+            boolean used = false;
+            for (int r = 1; r < k; r += 1) {
+                used |= order[r] == rotor;
+            }
+            if (!used) {
+                order[k] = rotor;
+                fill(order, k + 1, firstPawl, fixed, moving, result);
+            }
+        }
+    }
+
+    /** Return BASE to the power EXP, reporting overflow as an error. */
+    private static int power(int base, int exp) {
+        int result = 1;
+        for (int k = 0; k < exp; k += 1) {
+            try {
+                result = Math.multiplyExact(result, base);
+            } catch (ArithmeticException excp) {
+                throw error("catalog too large");
+            }
+        }
+        return result;
+    }
+
+    /** Computes characteristics for one rotor order, with the settings of
+     *  its non-moving rotors fixed. */
+    private static class Builder {
+
+        /** A builder for the rotors in ORDER, whose forward and inverse
+         *  tables are TABLES[r][0] and TABLES[r][1], of which the last
+         *  PAWLS have pawls, over an alphabet of size N, which step
+         *  according to STEPPING. */
+        Builder(Rotor[] order, int[][][] tables, int pawls, int n,
+                Stepping stepping) {
+            _order = order;
+            _stepping = stepping;
+            _steps = stepping.table(pawls);
+            _notch = new boolean[pawls];
+            _tables = tables;
+            _n = n;
+            _firstPawl = order.length - pawls;
+            _settings = new int[order.length];
+            _advance = new boolean[pawls];
+            _core = new int[n];
+            _perms = new int[6][n];
+            _seen = new boolean[n];
+            _lengths = new int[n];
+        }
+
+        /** Set the non-moving rotors to the positions encoded by POSN,
+         *  whose most significant base-N digit is the setting of slot 1,
+         *  and compose them with the reflector into _core. */
+        void fixCore(int posn) {
+            for (int r = _firstPawl - 1; r >= 1; r -= 1) {
+                _settings[r] = posn % _n;
+                posn /= _n;
+            }
+            for (int x = 0; x < _n; x += 1) {
+                int y = x;
+                for (int r = _firstPawl - 1; r >= 0; r -= 1) {
+                    y = hop(_tables[r][0], _settings[r], y);
+                }
+                for (int r = 1; r < _firstPawl; r += 1) {
+                    y = hop(_tables[r][1], _settings[r], y);
+                }
+                _core[x] = y;
+            }
+        }
+
+        /** Return the hash of the characteristic for the moving rotors
+         *  starting at the positions encoded by POSN, most significant
+         *  digit first. */
+        long characteristic(int posn) {
+            int slots = _order.length;
+            for (int r = slots - 1; r >= _firstPawl; r -= 1) {
+                _settings[r] = posn % _n;
+                posn /= _n;
+            }
+            for (int k = 0; k < 6; k += 1) {
+                step();
+                int[] perm = _perms[k];
+                for (int x = 0; x < _n; x += 1) {
+                    int y = x;
+                    for (int r = slots - 1; r >= _firstPawl; r -= 1) {
+                        y = hop(_tables[r][0], _settings[r], y);
+                    }
+                    y = _core[y];
+                    for (int r = _firstPawl; r < slots; r += 1) {
+                        y = hop(_tables[r][1], _settings[r], y);
+                    }
+                    perm[x] = y;
+                }
+            }
+            long hash = FNV_BASIS;
+            for (int k = 0; k < 3; k += 1) {
+                int count = cycleLengths(_perms[k], _perms[k + 3]);
+                for (int j = 0; j < count; j += 1) {
+                    hash = (hash ^ _lengths[j]) * FNV_PRIME;
+                }
+                hash = (hash ^ SEPARATOR) * FNV_PRIME;
+            }
+            return hash;
+        }
+
+        /** Advance the moving rotors as Machine.convert does. */
+        private void step() {
+            int slots = _order.length;
+            if (_steps != null) {
+                int notches = 0;
+                for (int r = _firstPawl; r < slots; r += 1) {
+                    notches = notches << 1
+                        | (_order[r].notchAt(_settings[r]) ? 1 : 0);
+                }
+                int advance = _steps[notches];
+                for (int r = slots - 1; r >= _firstPawl; r -= 1) {
+                    _advance[r - _firstPawl] = (advance & 1) != 0;
+                    advance >>>= 1;
+                }
+            } else {
+                for (int r = _firstPawl; r < slots; r += 1) {
+                    _notch[r - _firstPawl] = _order[r].notchAt(_settings[r]);
+                }
+                _stepping.advance(_notch, _advance);
+            }
+            for (int r = _firstPawl; r < slots; r += 1) {
+                if (_advance[r - _firstPawl]) {
+                    _settings[r] += 1;
+                    if (_settings[r] == _n) {
+                        _settings[r] = 0;
+                    }
+                }
+            }
+        }
+
+        /** Store in _lengths the cycle lengths of the product of FIRST
+         *  followed by SECOND, in decreasing order, and return how many
+         *  there are. */
+        private int cycleLengths(int[] first, int[] second) {
+            Arrays.fill(_seen, false);
+            int count = 0;
+            for (int x = 0; x < _n; x += 1) {
+                if (!_seen[x]) {
+                    int length = 0;
+                    for (int y = x; !_seen[y]; y = second[first[y]]) {
+                        _seen[y] = true;
+                        length += 1;
+                    }
+                    _lengths[count] = length;
+                    count += 1;
+                }
+            }
+            Arrays.sort(_lengths, 0, count);
+            for (int j = 0, k = count - 1; j < k; j += 1, k -= 1) {
+                int t = _lengths[j];
+                _lengths[j] = _lengths[k];
+                _lengths[k] = t;
+            }
+            return count;
+        }
+
+        /** Return the contact reached from X through a rotor with table
+         *  TABLE at SETTING. */
+        private int hop(int[] table, int setting, int x) {
+            int y = x + setting;
+            if (y >= _n) {
+                y -= _n;
+            }
+            y = table[y] - setting;
+            return y < 0 ? y + _n : y;
+        }
+
+        /** The rotors in each slot. */
+        private final Rotor[] _order;
+        /** Forward and inverse tables for each slot. */
+        private final int[][][] _tables;
+        /** Alphabet size. */
+        private final int _n;
+        /** Index of the first slot with a pawl. */
+        private final int _firstPawl;
+        /** Current setting of each slot. */
+        private final int[] _settings;
+        /** How the moving rotors step. */
+        private final Stepping _stepping;
+        /** _stepping compiled for my pawls, or null (see Stepping.table). */
+        private final int[] _steps;
+        /** Which slots with pawls are at notches and advance on the
+         *  current step. */
+        private final boolean[] _notch, _advance;
+        /** Composition of the non-moving rotors and the reflector. */
+        private final int[] _core;
+        /** Permutations for the first six letters. */
+        private final int[][] _perms;
+        /** Scratch space for cycleLengths. */
+        private final boolean[] _seen;
+        /** Cycle lengths computed by cycleLengths. */
+        private final int[] _lengths;
+    }
+
+    /** Return the hash of the characteristic written as in main. */
+    static long hash(String characteristic) {
+        String[] groups = characteristic.trim().split("\\s*/\\s*");
+        if (groups.length != 3) {
+            throw error("characteristic needs three groups: %s",
+                        characteristic);
+        }
+        long hash = FNV_BASIS;
+        for (String group : groups) {
+            String[] words = group.trim().split("\\s+");
+            int[] lengths = new int[words.length];
+            try {
+                for (int k = 0; k < words.length; k += 1) {
+                    lengths[k] = Integer.parseInt(words[k]);
+                }
+            } catch (NumberFormatException excp) {
+                throw error("bad characteristic: %s", characteristic);
+            }
+            Arrays.sort(lengths);
+            for (int k = lengths.length - 1; k >= 0; k -= 1) {
+                hash = (hash ^ lengths[k]) * FNV_PRIME;
+            }
+            hash = (hash ^ SEPARATOR) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** Sort KEYS into unsigned ascending order, permuting VALUES in the
+     *  same way, by least-significant-digit radix sort. */
+    private static void sort(long[] keys, int[] values) {
+        int n = keys.length;
+        long[] keys1 = new long[n];
+        int[] values1 = new int[n];
+        int[] counts = new int[RADIX + 1];
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (int k = 0; k < n; k += 1) {
+                counts[(int) (keys[k] >>> shift) & (RADIX - 1)] += 1;
+            }
+            for (int d = 0, total = 0; d < RADIX; d += 1) {
+                int c = counts[d];
+                counts[d] = total;
+                total += c;
+            }
+            for (int k = 0; k < n; k += 1) {
+                int d = (int) (keys[k] >>> shift) & (RADIX - 1);
+                keys1[counts[d]] = keys[k];
+                values1[counts[d]] = values[k];
+                counts[d] += 1;
+            }
+            System.arraycopy(keys1, 0, keys, 0, n);
+            System.arraycopy(values1, 0, values, 0, n);
+        }
+    }
+
+    /** Write an index to the file named NAME for the rotors ORDERS of
+     *  CONFIG, with sorted characteristic hashes HASHES and corresponding
+     *  setting numbers IDS. */
+    private static void write(String name, Config config,
+                              List<Rotor[]> orders, long[] hashes,
+                              int[] ids) {
+        Alphabet alphabet = config.alphabet();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(name),
+                                         1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(alphabet.size());
+            out.writeInt(config.numRotors());
+            out.writeInt(orders.size());
+            out.writeInt(hashes.length);
+            for (int x = 0; x < alphabet.size(); x += 1) {
+                out.writeChar(alphabet.toChar(x));
+            }
+            for (Rotor[] order : orders) {
+                for (Rotor rotor : order) {
+                    out.writeInt(rotor.name().length());
+                    out.writeChars(rotor.name());
+                }
+            }
+            for (long hash : hashes) {
+                out.writeLong(hash);
+            }
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Return the catalog in the index file named NAME. */
+    static Catalog open(String name) {
+        try (RandomAccessFile file = new RandomAccessFile(name, "r");
+             FileChannel channel = file.getChannel()) {
+            return new Catalog(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+                name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** A catalog read from BUF, the contents of the index file NAME. */
+    private Catalog(ByteBuffer buf, String name) {
+        try {
+            if (buf.getInt() != MAGIC) {
+                throw error("%s is not a catalog index", name);
+            }
+            int n = buf.getInt();
+            _slots = buf.getInt();
+            int orders = buf.getInt();
+            int count = buf.getInt();
+            _symbols = new char[n];
+            for (int x = 0; x < n; x += 1) {
+                _symbols[x] = buf.getChar();
+            }
+            _names = new String[orders][_slots];
+            for (int k = 0; k < orders; k += 1) {
+                for (int r = 0; r < _slots; r += 1) {
+                    char[] chars = new char[buf.getInt()];
+                    for (int j = 0; j < chars.length; j += 1) {
+                        chars[j] = buf.getChar();
+                    }
+                    _names[k][r] = new String(chars);
+                }
+            }
+            _hashes = buf.slice().asLongBuffer();
+            _hashes.limit(count);
+            buf.position(buf.position() + count * Long.BYTES);
+            _ids = buf.slice().asIntBuffer();
+            _ids.limit(count);
+            _positions = _names.length == 0 ? 0 : count / _names.length;
+        } catch (RuntimeException excp) {
+            if (excp instanceof EnigmaException) {
+                throw excp;
+            }
+            throw error("%s is not a valid catalog index", name);
+        }
+    }
+
+    /** Return the settings, in the form "REFLECTOR ROTOR... POSITIONS",
+     *  whose characteristic is CHARACTERISTIC (written as for main). */
+    List<String> lookup(String characteristic) {
+        long hash = hash(characteristic);
+        int lo = 0, hi = _hashes.limit();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(_hashes.get(mid), hash) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (; lo < _hashes.limit() && _hashes.get(lo) == hash; lo += 1) {
+            result.add(setting(_ids.get(lo)));
+        }
+        return result;
+    }
+
+    /** Return the description of the setting numbered ID. */
+    private String setting(int id) {
+        String[] names = _names[id / _positions];
+        StringBuilder result = new StringBuilder(String.join(" ", names));
+        char[] posn = new char[_slots - 1];
+        int p = id % _positions;
+        for (int r = posn.length - 1; r >= 0; r -= 1) {
+            posn[r] = _symbols[p % _symbols.length];
+            p /= _symbols.length;
+        }
+        return result.append(' ').append(posn).toString();
+    }
+
+    /** Identifies catalog index files. */
+    private static final int MAGIC = 0x524a574b;
+
+    /** Parameters of the 64-bit FNV-1a hash used for characteristics. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L,
+        FNV_PRIME = 0x100000001b3L;
+
+    /** Value hashed between the groups of a characteristic. */
+    private static final int SEPARATOR = -1;
+
+    /** Number of bits sorted per radix sort pass. */
+    private static final int RADIX_BITS = 16;
+
+    /** Number of buckets per radix sort pass. */
+    private static final int RADIX = 1 << RADIX_BITS;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Alphabet symbols, in order. */
+    private final char[] _symbols;
+
+    /** Names of the rotors in each slot of each rotor order. */
+    private final String[][] _names;
+
+    /** Number of start positions per rotor order. */
+    private final int _positions;
+
+    /** Sorted characteristic hashes. */
+    private final LongBuffer _hashes;
+
+    /** Setting numbers corresponding to _hashes. */
+    private final IntBuffer _ids;
+}
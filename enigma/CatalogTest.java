@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Catalog class.
+ *  @author Yuan Xie.
+ */
+public class CatalogTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the characteristic of SETTINGS (a settings line for
+     *  CONFIG), written as for Catalog.main, found by converting every
+     *  letter as each of the first six letters of a message. */
+    private String characteristic(Config config, String settings) {
+        Machine M = config.newMachine();
+        Settings key = new Settings(settings, config);
+        int[][] perms = new int[6][26];
+        for (int k = 0; k < 6; k += 1) {
+            for (int x = 0; x < 26; x += 1) {
+                key.apply(M);
+                for (int j = 0; j < k; j += 1) {
+                    M.convert(0);
+                }
+                perms[k][x] = M.convert(x);
+            }
+        }
+        String result = "";
+        for (int k = 0; k < 3; k += 1) {
+            boolean[] seen = new boolean[26];
+            int[] lengths = new int[26];
+            int count = 0;
+            for (int x = 0; x < 26; x += 1) {
+                for (int y = x; !seen[y]; y = perms[k + 3][perms[k][y]]) {
+                    seen[y] = true;
+                    lengths[count] += 1;
+                }
+                count += lengths[count] > 0 ? 1 : 0;
+            }
+            int[] sorted = Arrays.copyOf(lengths, count);
+            Arrays.sort(sorted);
+            result += k == 0 ? "" : " / ";
+            for (int j = count - 1; j >= 0; j -= 1) {
+                result += sorted[j] + (j == 0 ? "" : " ");
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkLookupFindsSetting() throws IOException {
+        Config config = new Config(new ConfigLexer(
+            "A-Z\n 3 2\n"
+            + " I MQ " + NAVALA.get("I") + "\n"
+            + " II ME " + NAVALA.get("II") + "\n"
+            + " III MV " + NAVALA.get("III") + "\n"
+            + " B R " + NAVALA.get("B") + "\n"));
+        assertEquals(6, Catalog.orders(config).size());
+        Path index = Files.createTempFile("enigma-catalog", ".idx");
+        try {
+            Catalog.build(config, index.toString());
+            Catalog catalog = Catalog.open(index.toString());
+            for (String setting : new String[] {
+                    "B II I AQ", "B III II DE", "B I III ZZ" }) {
+                String found = characteristic(config, "* " + setting);
+                List<String> settings = catalog.lookup(found);
+                assertTrue(found + " lists " + setting,
+                           settings.contains(setting));
+            }
+            assertEquals(List.of(), catalog.lookup("26 / 26 / 26"));
+        } finally {
+            Files.delete(index);
+        }
+    }
+}
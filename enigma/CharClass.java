@@ -0,0 +1,133 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A classification of every char for conversion with a given alphabet:
+ *  either the index in the alphabet of the symbol it stands for, or one of
+ *  SKIP (drop the character), PASS (copy it unchanged, without moving the
+ *  rotors) or INVALID (an error).  Looking a character up costs one array
+ *  access, so the bulk conversion loops consult it once per character
+ *  instead of calling Alphabet.contains and Alphabet.toInt.
+ *  @author Yuan Xie.
+ */
+final class CharClass {
+
+    /** Class of characters that are an error to convert. */
+    static final int INVALID = -1;
+
+    /** Class of characters that are dropped. */
+    static final int SKIP = -2;
+
+    /** Class of characters that are copied unchanged. */
+    static final int PASS = -3;
+
+    /** Return the classification for ALPHABET in which only its symbols
+     *  may be converted and all other characters are INVALID. */
+    static CharClass strict(Alphabet alphabet) {
+        return lookup(alphabet, false);
+    }
+
+    /** Return the classification for ALPHABET used to pass through
+     *  characters outside it.  A character not in ALPHABET whose upper-
+     *  or lower-case form is stands for that symbol.  Other control and
+     *  formatting characters, apart from tabs, are SKIPped, and everything
+     *  else, including blanks, digits and punctuation, is PASSed. */
+    static CharClass passThrough(Alphabet alphabet) {
+        return lookup(alphabet, true);
+    }
+
+    /** Return the classification for ALPHABET, passing through characters
+     *  outside it iff PASSTHROUGH, from RECENT if an alphabet with the
+     *  same symbols was classified recently. */
+    private static CharClass lookup(Alphabet alphabet, boolean passThrough) {
+        char[] symbols = new char[alphabet.size() + 1];
+        for (int x = 0; x < alphabet.size(); x += 1) {
+            symbols[x] = alphabet.toChar(x);
+        }
+        symbols[alphabet.size()] = passThrough ? '+' : '-';
+        String key = new String(symbols);
+        synchronized (RECENT) {
+            CharClass result = RECENT.get(key);
+            if (result == null) {
+                result = new CharClass(alphabet, passThrough);
+                RECENT.put(key, result);
+            }
+            return result;
+        }
+    }
+
+    /** The classification for ALPHABET, passing through characters outside
+     *  it iff PASSTHROUGH. */
+    private CharClass(Alphabet alphabet, boolean passThrough) {
+        _classes = new int[Character.MAX_VALUE + 1];
+        _symbols = new char[alphabet.size()];
+        for (int x = 0; x < _symbols.length; x += 1) {
+            _symbols[x] = alphabet.toChar(x);
+        }
+        for (int c = 0; c <= Character.MAX_VALUE; c += 1) {
+            char ch = (char) c;
+            char upper = Character.toUpperCase(ch),
+                lower = Character.toLowerCase(ch);
+            if (alphabet.contains(ch)) {
+                _classes[c] = alphabet.toInt(ch);
+            } else if (!passThrough) {
+                _classes[c] = INVALID;
+            } else if (alphabet.contains(upper)) {
+                _classes[c] = alphabet.toInt(upper);
+            } else if (alphabet.contains(lower)) {
+                _classes[c] = alphabet.toInt(lower);
+            } else if (ch != '\t' && (Character.isISOControl(ch)
+                           || Character.getType(ch) == Character.FORMAT)) {
+                _classes[c] = SKIP;
+            } else {
+                _classes[c] = PASS;
+            }
+        }
+    }
+
+    /** Return the class of CH: an index in my alphabet, SKIP, PASS or
+     *  INVALID. */
+    int of(char ch) {
+        return _classes[ch];
+    }
+
+    /** Return the symbol of my alphabet with index X. */
+    char toChar(int x) {
+        return _symbols[x];
+    }
+
+    /** Return the table of classes indexed by character, for loops that
+     *  classify many characters.  It must not be modified. */
+    int[] classes() {
+        return _classes;
+    }
+
+    /** Return the table of symbols indexed by alphabet index, for loops
+     *  that produce many characters.  It must not be modified. */
+    char[] symbols() {
+        return _symbols;
+    }
+
+    /** Maximum number of classifications kept in RECENT.  Each takes
+     *  256 KB. */
+    private static final int RECENT_SIZE = 8;
+
+    /** Recently used classifications, keyed by the symbols of their
+     *  alphabets followed by '+' if they pass characters through and '-'
+     *  otherwise, in least-recently-used order. */
+    private static final LinkedHashMap<String, CharClass> RECENT =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                CharClass> eldest) {
+                return size() > RECENT_SIZE;
+            }
+        };
+
+    /** _classes[c] is the class of the character C. */
+    private final int[] _classes;
+
+    /** _symbols[x] is the symbol of my alphabet with index X. */
+    private final char[] _symbols;
+}
@@ -44,6 +44,18 @@ class CharacterRange extends Alphabet {
         return ch - _first;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CharacterRange
+            && ((CharacterRange) obj)._first == _first
+            && ((CharacterRange) obj)._last == _last;
+    }
+
+    @Override
+    public int hashCode() {
+        return _first * 65536 + _last;
+    }
+
     /** Range of characters in this Alphabet. */
     private char _first, _last;
 
@@ -0,0 +1,145 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static enigma.EnigmaException.*;
+
+/** A way of converting runs of characters with a machine.  Each time a
+ *  machine is set up, its engine compiles a Converter specialized to the
+ *  setup, through which Machine.convert(char[], ...) then goes.  Which
+ *  engine is fastest depends on the shape of the machine (see Tuner), but
+ *  all must give the same results as REFERENCE.  Engines other than the
+ *  built-in ones may be added with register.
+ *  @author Yuan Xie.
+ */
+interface CipherEngine {
+
+    /** Return my identifier, by which I am chosen and recorded. */
+    String id();
+
+    /** Return a converter for the current setup of M, which leaves the
+     *  rotors of M as converting one character at a time would, or null
+     *  if I cannot handle M as it is set up. */
+    Converter compile(Machine M);
+
+    /** Converts runs of characters for one setup of a machine. */
+    interface Converter {
+        /** Convert MSG[FROM .. TO-1] in place as classified by CLASSES (see
+         *  Machine.convert(char[], int, int, CharClass)), advancing the
+         *  rotors accordingly, and return the end of the result. */
+        int convert(char[] msg, int from, int to, CharClass classes);
+    }
+
+    /** The engines supplied with the simulator. */
+    enum Builtin implements CipherEngine {
+        /** One character at a time through the Rotor objects: the
+         *  definition of the results, and the fallback for setups other
+         *  engines cannot handle. */
+        REFERENCE {
+            @Override
+            public Converter compile(Machine M) {
+                return M::convertEach;
+            }
+        },
+        /** Unrolled kernel for three moving slots, otherwise segmented:
+         *  a good choice without measurement. */
+        KERNEL {
+            @Override
+            public Converter compile(Machine M) {
+                return Kernel.of(M);
+            }
+        },
+        /** Kernel caching the composition of all but the rightmost moving
+         *  slot between turnovers, which pays for deep machines. */
+        SEGMENTED {
+            @Override
+            public Converter compile(Machine M) {
+                return Kernel.segmented(M);
+            }
+        },
+        /** Kernel going through every moving slot for each character,
+         *  which pays when turnovers are frequent. */
+        DIRECT {
+            @Override
+            public Converter compile(Machine M) {
+                return Kernel.direct(M);
+            }
+        },
+        /** Kernel for exactly three moving slots with the rotor chain
+         *  unrolled. */
+        UNROLLED {
+            @Override
+            public Converter compile(Machine M) {
+                return Kernel.unrolled(M);
+            }
+        },
+        /** Lookup of the permutation for each state in the machine's
+         *  bounded StateCache, which pays when the same states recur, as
+         *  in many messages from the same settings, on machines too large
+         *  for the kernels' tables. */
+        CACHED {
+            @Override
+            public Converter compile(Machine M) {
+                return M.stateCache().converter(M);
+            }
+        };
+
+        @Override
+        public String id() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** Return all available engines, the built-in ones first. */
+    static List<CipherEngine> engines() {
+        ArrayList<CipherEngine> result = new ArrayList<>();
+        for (CipherEngine engine : Builtin.values()) {
+            result.add(engine);
+        }
+        result.addAll(Registry.ADDED);
+        return result;
+    }
+
+    /** Make ENGINE available in addition to the built-in engines.  Its
+     *  identifier must differ from theirs. */
+    static void register(CipherEngine engine) {
+        if (find(engine.id()) != null) {
+            throw error("duplicate engine %s", engine.id());
+        }
+        Registry.ADDED.add(engine);
+    }
+
+    /** Return the available engine whose identifier is NAME, raising an
+     *  error if there is none. */
+    static CipherEngine named(String name) {
+        CipherEngine result = find(name);
+        if (result == null) {
+            throw error("unknown engine %s", name);
+        }
+        return result;
+    }
+
+    /** Return the available engine whose identifier is NAME, or null if
+     *  there is none. */
+    private static CipherEngine find(String name) {
+        for (CipherEngine engine : engines()) {
+            if (engine.id().equals(name)) {
+                return engine;
+            }
+        }
+        return null;
+    }
+
+    /** Holds the engines added by register. */
+    final class Registry {
+        /** Engines added by register, in order. */
+        private static final List<CipherEngine> ADDED =
+            new CopyOnWriteArrayList<>();
+
+        /** Not instantiable. */
+        private Registry() {
+        }
+    }
+}
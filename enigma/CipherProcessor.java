@@ -0,0 +1,285 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A Flow.Processor enciphering a stream of message text with one
+ *  machine, for use in non-blocking pipelines.  Buffers of text from
+ *  upstream are queued, and whatever is queued when there is demand
+ *  downstream is converted in one call to Machine.convert and emitted as
+ *  one buffer of at most BATCH characters, so that many small buffers
+ *  cost few conversions.  No more than PREFETCH buffers are requested
+ *  from upstream ahead of their conversion, and nothing is emitted
+ *  without demand.  The work is done by tasks on an Executor, at most
+ *  one at a time per processor, so many streams share its threads.
+ *  Each processor has its own machine, set up before the stream starts,
+ *  and a single subscriber.
+ *  @author Yuan Xie.
+ */
+class CipherProcessor
+    implements Flow.Processor<CharBuffer, CharBuffer> {
+
+    /** A processor converting with M, as set up, classifying characters
+     *  with CLASSES (see Machine.convert(char[], int, int, CharClass)),
+     *  and working on EXECUTOR. */
+    CipherProcessor(Machine M, CharClass classes, Executor executor) {
+        _machine = M;
+        _classes = classes;
+        _executor = executor;
+    }
+
+    /** Return a processor for one stream, with a machine of its own built
+     *  from CONFIG and set up by the settings line SETTINGS, converting
+     *  only characters in the alphabet of CONFIG.  It works on the common
+     *  fork-join pool. */
+    static CipherProcessor of(Config config, String settings) {
+        Config copy = config.copy();
+        Machine M = copy.newMachine();
+        new Settings(Settings.normalize(settings), copy).apply(M);
+        return new CipherProcessor(M, CharClass.strict(copy.alphabet()),
+                                   ForkJoinPool.commonPool());
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CharBuffer> subscriber) {
+        synchronized (this) {
+            if (_subscribed) {
+                subscriber.onSubscribe(CANCELLED);
+                subscriber.onError(new IllegalStateException(
+                    "processor already has a subscriber"));
+                return;
+            }
+            _subscribed = true;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    _failure = new IllegalArgumentException(
+                        "non-positive request: " + n);
+                    _cancelled = true;
+                } else {
+                    _demand.getAndAccumulate(n, (d, k) ->
+                        d + k < 0 ? Long.MAX_VALUE : d + k);
+                }
+                schedule();
+            }
+
+            @Override
+            public void cancel() {
+                _cancelled = true;
+                schedule();
+            }
+        });
+        _downstream = subscriber;
+        schedule();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        schedule();
+    }
+
+    @Override
+    public void onNext(CharBuffer text) {
+        _queue.add(text);
+        schedule();
+    }
+
+    @Override
+    public void onError(Throwable failure) {
+        _failure = failure;
+        _upstreamDone = true;
+        schedule();
+    }
+
+    @Override
+    public void onComplete() {
+        _upstreamDone = true;
+        schedule();
+    }
+
+    /** Arrange for drain to run, unless it is running, in which case it
+     *  goes round again. */
+    private void schedule() {
+        if (_work.getAndIncrement() == 0) {
+            _executor.execute(this::drain);
+        }
+    }
+
+    /** Do what is possible now: request input, convert and emit queued
+     *  text while there is demand, and pass on the end of the stream.
+     *  Runs on one thread at a time, until no more work has been
+     *  scheduled. */
+    private void drain() {
+        int missed = 1;
+        do {
+            step();
+            missed = _work.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /** One round of drain. */
+    private void step() {
+        if (_finished || _downstream == null || _upstream == null) {
+            return;
+        }
+        if (_cancelled) {
+            _finished = true;
+            _upstream.cancel();
+            _queue.clear();
+            if (_failure != null) {
+                _downstream.onError(_failure);
+            }
+            return;
+        }
+        if (!_started) {
+            _started = true;
+            _upstream.request(PREFETCH);
+        }
+        if (_failure != null) {
+            _finished = true;
+            _queue.clear();
+            _downstream.onError(_failure);
+            return;
+        }
+        while (_demand.get() > 0 && (_current != null || !_queue.isEmpty())) {
+            if (!emit()) {
+                return;
+            }
+        }
+        if (_upstreamDone && _current == null && _queue.isEmpty()) {
+            _finished = true;
+            _downstream.onComplete();
+        }
+    }
+
+    /** Convert and emit up to BATCH characters of queued text, requesting
+     *  as many buffers from upstream as were used up.  The emitted buffer
+     *  is the subscriber's to keep, so each batch is a new array, sized to
+     *  the text queued.  Return false if the text could not be converted,
+     *  in which case the stream has been ended with the error. */
+    private boolean emit() {
+        int size = _current == null ? 0 : _current.remaining();
+        for (CharBuffer text : _queue) {
+            if (size >= BATCH) {
+                break;
+            }
+            size += Math.min(text.remaining(), BATCH);
+        }
+        char[] batch = new char[Math.min(size, BATCH)];
+        int n = 0, used = 0;
+        while (true) {
+            if (_current == null) {
+                _current = _queue.poll();
+                if (_current == null) {
+                    break;
+                }
+            }
+            int k = Math.min(batch.length - n, _current.remaining());
+            _current.get(batch, n, k);
+            n += k;
+            if (_current.hasRemaining()) {
+                break;
+            }
+            _current = null;
+            used += 1;
+        }
+        int end;
+        try {
+            end = _machine.convert(batch, 0, n, _classes);
+        } catch (EnigmaException excp) {
+            _finished = true;
+            _upstream.cancel();
+            _queue.clear();
+            _downstream.onError(excp);
+            return false;
+        }
+        if (used > 0) {
+            _upstream.request(used);
+        }
+        if (end > 0) {
+            _demand.decrementAndGet();
+            _downstream.onNext(CharBuffer.wrap(batch, 0, end));
+        }
+        return true;
+    }
+
+    /** A subscription that does nothing, for rejected subscribers. */
+    private static final Flow.Subscription CANCELLED =
+        new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+
+    /** Largest number of characters converted and emitted at once. */
+    static final int BATCH = 1 << 14;
+
+    /** Number of buffers requested from upstream ahead of conversion. */
+    static final int PREFETCH = 32;
+
+    /** Machine converting the stream. */
+    private final Machine _machine;
+
+    /** Classification of the characters of the stream. */
+    private final CharClass _classes;
+
+    /** Runs drain. */
+    private final Executor _executor;
+
+    /** Buffers received and not yet used up, in order. */
+    private final ConcurrentLinkedQueue<CharBuffer> _queue =
+        new ConcurrentLinkedQueue<>();
+
+    /** Number of times drain has been scheduled and not yet run. */
+    private final AtomicInteger _work = new AtomicInteger();
+
+    /** Number of buffers the subscriber has requested and not received. */
+    private final AtomicLong _demand = new AtomicLong();
+
+    /** The source of the text. */
+    private volatile Flow.Subscription _upstream;
+
+    /** True iff a subscriber has been accepted.  Used only while
+     *  synchronized on this. */
+    private boolean _subscribed;
+
+    /** The subscriber, once its onSubscribe has returned: nothing is sent
+     *  to it before then, even if it requests text in onSubscribe. */
+    private volatile Flow.Subscriber<? super CharBuffer> _downstream;
+
+    /** True iff the source has ended. */
+    private volatile boolean _upstreamDone;
+
+    /** True iff the subscriber has cancelled or made a bad request. */
+    private volatile boolean _cancelled;
+
+    /** Error ending the stream, if any. */
+    private volatile Throwable _failure;
+
+    /** Buffer partly used by the last batch, if any.  Used only in
+     *  drain, as are the fields that follow. */
+    private CharBuffer _current;
+
+    /** True iff the first buffers have been requested from upstream. */
+    private boolean _started;
+
+    /** True iff the subscriber has been sent onComplete or onError, or
+     *  has cancelled. */
+    private boolean _finished;
+}
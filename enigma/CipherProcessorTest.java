@@ -0,0 +1,136 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CipherProcessor class.
+ *  @author Yuan Xie.
+ */
+public class CipherProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkProcessor() {
+        Config config = navalConfig();
+        Machine machine = config.newMachine();
+        new Settings("* B I II III QEV", config).apply(machine);
+        CipherProcessor processor =
+            new CipherProcessor(machine, CharClass.strict(UPPER),
+                                Runnable::run);
+        StringBuilder output = new StringBuilder();
+        boolean[] complete = new boolean[1];
+        processor.subscribe(new Flow.Subscriber<CharBuffer>() {
+            private Flow.Subscription _subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                _subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(CharBuffer text) {
+                assertEquals(text.remaining(), text.capacity());
+                output.append(text);
+                _subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable failure) {
+                fail(failure.toString());
+            }
+
+            @Override
+            public void onComplete() {
+                complete[0] = true;
+            }
+        });
+        String input = "";
+        try (SubmissionPublisher<CharBuffer> publisher =
+             new SubmissionPublisher<>(Runnable::run, 4)) {
+            publisher.subscribe(processor);
+            for (int k = 0; k < 200; k += 1) {
+                String text = "HELLOWORLD".substring(k % 10);
+                input += text;
+                publisher.submit(CharBuffer.wrap(text));
+            }
+        }
+        assertTrue(complete[0]);
+        new Settings("* B I II III QEV", config).apply(machine);
+        assertEquals(machine.convert(input), output.toString());
+    }
+
+    @Test
+    public void checkProcessorDemand() {
+        Config config = navalConfig();
+        Machine machine = config.newMachine();
+        new Settings("* B I II III QEV", config).apply(machine);
+        CipherProcessor processor =
+            new CipherProcessor(machine, CharClass.strict(UPPER),
+                                Runnable::run);
+        int[] requested = new int[1];
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requested[0] += n;
+            }
+
+            @Override
+            public void cancel() {
+                fail("processor cancelled");
+            }
+        });
+        processor.onNext(CharBuffer.wrap("HELLOWORLD"));
+        processor.onNext(CharBuffer.wrap("GOODBYE"));
+        StringBuilder output = new StringBuilder();
+        boolean[] subscribing = new boolean[1];
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        processor.subscribe(new Flow.Subscriber<CharBuffer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscribing[0] = true;
+                subscription[0] = s;
+                s.request(1);
+                subscribing[0] = false;
+            }
+
+            @Override
+            public void onNext(CharBuffer text) {
+                assertFalse(subscribing[0]);
+                assertEquals(text.remaining(), text.capacity());
+                output.append(text);
+            }
+
+            @Override
+            public void onError(Throwable failure) {
+                fail(failure.toString());
+            }
+
+            @Override
+            public void onComplete() {
+                fail("completed early");
+            }
+        });
+        assertEquals(CipherProcessor.PREFETCH + 2, requested[0]);
+        new Settings("* B I II III QEV", config).apply(machine);
+        String expected = machine.convert("HELLOWORLDGOODBYE");
+        assertEquals(expected, output.toString());
+        processor.onNext(CharBuffer.wrap("AGAIN"));
+        assertEquals(expected, output.toString());
+        subscription[0].request(1);
+        assertEquals(expected.length() + 5, output.length());
+    }
+}
@@ -0,0 +1,462 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/** Reading and writing compressed message files.  Inputs are recognized
+ *  by their first bytes as gzip, zlib or plain text, the beginning of a
+ *  supposed zlib stream being inflated to make sure.  Gzip files made of
+ *  independent blocks that record their own sizes, as in the BGZF format
+ *  (a gzip member per block, with a "BC" extra field holding the size of
+ *  the member), are inflated several blocks at a time on other threads,
+ *  ahead of the reader; other gzip files are inflated as one stream.
+ *  Output is compressed in that blocked form, so that it is both a valid
+ *  gzip file and can be read back in parallel.
+ *  @author Yuan Xie.
+ */
+final class Compression {
+
+    /** Not instantiable. */
+    private Compression() {
+    }
+
+    /** Return a stream of the contents of IN, inflated if they are in gzip
+     *  or zlib format. */
+    static InputStream input(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER);
+        buffered.mark(HEADER + BC_LENGTH);
+        byte[] head = new byte[HEADER + BC_LENGTH];
+        int n = buffered.readNBytes(head, 0, head.length);
+        buffered.reset();
+        if (n >= 2 && (head[0] & 0xff) == ID1 && (head[1] & 0xff) == ID2) {
+            if (n == head.length && blocked(head)) {
+                return new Blocks(buffered);
+            }
+            return new GZIPInputStream(buffered, BUFFER);
+        } else if (n >= 2 && zlib(head[0] & 0xff, head[1] & 0xff)
+                   && inflates(buffered)) {
+            return new InflaterInputStream(buffered, new Inflater(), BUFFER);
+        }
+        return buffered;
+    }
+
+    /** Return a stream compressing what is written to it into OUT in
+     *  blocked gzip format.  Closing it finishes the compressed data and
+     *  closes OUT; finish() finishes it without closing OUT. */
+    static Output output(OutputStream out) {
+        return new Output(out);
+    }
+
+    /** Return true iff the gzip member header HEAD begins a block
+     *  that records its size. */
+    private static boolean blocked(byte[] head) {
+        return (head[FLG] & FEXTRA) != 0
+            && (head[HEADER - 2] & 0xff) == BC_LENGTH
+            && head[HEADER - 1] == 0
+            && head[HEADER] == 'B' && head[HEADER + 1] == 'C'
+            && head[HEADER + 2] == 2 && head[HEADER + 3] == 0;
+    }
+
+    /** Return true iff CMF and FLG, the first two bytes of a stream,
+     *  form a zlib header for deflated data. */
+    private static boolean zlib(int cmf, int flg) {
+        return (cmf & 0x0f) == Deflater.DEFLATED && (cmf >>> 4) <= 7
+            && (flg & FDICT) == 0 && (cmf << 8 | flg) % 31 == 0;
+    }
+
+    /** Return true iff the first PROBE bytes of IN, which is left where
+     *  it was, inflate as a zlib stream without error, and to its end if
+     *  IN is shorter than that.  Plain text can begin with a valid zlib
+     *  header, as in "XG" or "x^", but almost never inflates. */
+    private static boolean inflates(BufferedInputStream in)
+        throws IOException {
+        in.mark(PROBE);
+        byte[] probe = in.readNBytes(PROBE);
+        in.reset();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(probe);
+            byte[] scratch = new byte[PROBE];
+            while (!inflater.finished() && !inflater.needsInput()) {
+                inflater.inflate(scratch);
+            }
+            return inflater.finished() || probe.length == PROBE;
+        } catch (DataFormatException excp) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Return the threads that inflate and deflate blocks. */
+    private static synchronized ExecutorService workers() {
+        if (_workers == null) {
+            _workers = Executors.newFixedThreadPool(THREADS, r -> {
+                Thread thread = new Thread(r, "compression");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return _workers;
+    }
+
+    /** The contents of a blocked gzip stream, whose blocks are inflated
+     *  on the workers up to AHEAD blocks ahead of the reader. */
+    private static class Blocks extends InputStream {
+
+        /** The contents of the blocked gzip stream IN. */
+        Blocks(InputStream in) {
+            _in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            int result = _block[_pos] & 0xff;
+            _pos += 1;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, _block.length - _pos);
+            System.arraycopy(_block, _pos, buf, off, n);
+            _pos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Future<byte[]> pending : _pending) {
+                pending.cancel(true);
+            }
+            _pending.clear();
+            _in.close();
+        }
+
+        /** Make the current block one with unread bytes, if there are
+         *  any more, and return true iff there are. */
+        private boolean fill() throws IOException {
+            while (_pos == _block.length) {
+                while (!_atEnd && _pending.size() < AHEAD) {
+                    byte[] member = nextMember();
+                    if (member == null) {
+                        _atEnd = true;
+                    } else {
+                        _pending.add(workers().submit(() ->
+                                                      inflate(member)));
+                    }
+                }
+                if (_pending.isEmpty()) {
+                    return false;
+                }
+                try {
+                    _block = _pending.remove().get();
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                } catch (ExecutionException excp) {
+                    throw new IOException(excp.getCause());
+                }
+                _pos = 0;
+            }
+            return true;
+        }
+
+        /** Return the next whole gzip member of _in, or null at the end of
+         *  _in. */
+        private byte[] nextMember() throws IOException {
+            byte[] head = _in.readNBytes(HEADER + BC_LENGTH);
+            if (head.length == 0) {
+                return null;
+            } else if (head.length < HEADER + BC_LENGTH || head[0] != ID1B
+                       || head[1] != ID2B || !blocked(head)) {
+                throw new IOException("bad compressed block");
+            }
+            int size = ((head[HEADER + 4] & 0xff)
+                        | (head[HEADER + 5] & 0xff) << 8) + 1;
+            if (size < head.length + TRAILER) {
+                throw new IOException("bad compressed block");
+            }
+            byte[] result = new byte[size];
+            System.arraycopy(head, 0, result, 0, head.length);
+            if (_in.readNBytes(result, head.length, size - head.length)
+                != size - head.length) {
+                throw new EOFException("truncated compressed block");
+            }
+            return result;
+        }
+
+        /** Source of the compressed blocks. */
+        private final InputStream _in;
+
+        /** Blocks being inflated, in order. */
+        private final ArrayDeque<Future<byte[]>> _pending =
+            new ArrayDeque<>();
+
+        /** Contents of the current block. */
+        private byte[] _block = new byte[0];
+
+        /** Index of the next byte to be read from _block. */
+        private int _pos;
+
+        /** True iff all of _in has been read. */
+        private boolean _atEnd;
+    }
+
+    /** Return the contents of the blocked gzip member MEMBER, checking
+     *  them against its trailer. */
+    private static byte[] inflate(byte[] member) throws IOException {
+        int start = HEADER + BC_LENGTH,
+            end = member.length - TRAILER;
+        int size = trailer(member, end + 4);
+        if (size < 0 || size > MAX_BLOCK) {
+            throw new IOException("bad compressed block size");
+        }
+        byte[] result = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, start, end - start);
+            int n = inflater.inflate(result);
+            if (n != size || !inflater.finished()) {
+                throw new IOException("bad compressed block");
+            }
+        } catch (DataFormatException excp) {
+            throw new IOException("bad compressed block");
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(result);
+        if ((int) crc.getValue() != trailer(member, end)) {
+            throw new IOException("bad compressed block checksum");
+        }
+        return result;
+    }
+
+    /** Return the little-endian int at BUF[K .. K+3]. */
+    private static int trailer(byte[] buf, int k) {
+        return (buf[k] & 0xff) | (buf[k + 1] & 0xff) << 8
+            | (buf[k + 2] & 0xff) << 16 | (buf[k + 3] & 0xff) << 24;
+    }
+
+    /** A stream compressing its contents into blocked gzip format, whose
+     *  blocks are deflated on the workers. */
+    static class Output extends FilterOutputStream {
+
+        /** A stream compressing into OUT. */
+        Output(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_used == _data.length) {
+                submit();
+            }
+            _data[_used] = (byte) b;
+            _used += 1;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            while (len > 0) {
+                if (_used == _data.length) {
+                    submit();
+                }
+                int n = Math.min(len, _data.length - _used);
+                System.arraycopy(buf, off, _data, _used, n);
+                _used += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /** Write out the blocks that have been deflated, without waiting
+         *  for the others or deflating the partial one. */
+        @Override
+        public void flush() throws IOException {
+            while (!_pending.isEmpty() && _pending.peek().isDone()) {
+                drain(_pending.size() - 1);
+            }
+            out.flush();
+        }
+
+        /** Write out everything written to me, followed by the empty
+         *  block that marks the end of blocked data, without closing the
+         *  underlying stream.  Nothing more may be written. */
+        void finish() throws IOException {
+            if (_finished) {
+                return;
+            }
+            if (_used > 0) {
+                submit();
+            }
+            drain(0);
+            out.write(deflate(new byte[0], 0));
+            out.flush();
+            _finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+
+        /** Start deflating the data buffered, writing out finished blocks
+         *  so that at most AHEAD are pending. */
+        private void submit() throws IOException {
+            byte[] data = _data;
+            int used = _used;
+            _pending.add(workers().submit(() -> deflate(data, used)));
+            _data = new byte[BLOCK_DATA];
+            _used = 0;
+            drain(AHEAD - 1);
+        }
+
+        /** Write out blocks in order until at most LEFT are pending. */
+        private void drain(int left) throws IOException {
+            while (_pending.size() > left) {
+                try {
+                    out.write(_pending.remove().get());
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted");
+                } catch (ExecutionException excp) {
+                    throw new IOException(excp.getCause());
+                }
+            }
+        }
+
+        /** Blocks being deflated, in order. */
+        private final ArrayDeque<Future<byte[]>> _pending =
+            new ArrayDeque<>();
+
+        /** Data of the block being filled. */
+        private byte[] _data = new byte[BLOCK_DATA];
+
+        /** Number of bytes in _data. */
+        private int _used;
+
+        /** True iff finish has been called. */
+        private boolean _finished;
+    }
+
+    /** Return the blocked gzip member holding DATA[0 .. LENGTH-1]. */
+    private static byte[] deflate(byte[] data, int length) {
+        byte[] result = new byte[MAX_BLOCK];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        int n;
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            n = HEADER + BC_LENGTH;
+            while (!deflater.finished()) {
+                n += deflater.deflate(result, n, result.length - TRAILER - n);
+            }
+        } finally {
+            deflater.end();
+        }
+        System.arraycopy(BLOCK_HEADER, 0, result, 0, BLOCK_HEADER.length);
+        int size = n + TRAILER;
+        result[HEADER + 4] = (byte) (size - 1);
+        result[HEADER + 5] = (byte) ((size - 1) >>> 8);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        putTrailer(result, n, (int) crc.getValue());
+        putTrailer(result, n + 4, length);
+        return Arrays.copyOf(result, size);
+    }
+
+    /** Store V little-endian at BUF[K .. K+3]. */
+    private static void putTrailer(byte[] buf, int k, int v) {
+        for (int j = 0; j < 4; j += 1) {
+            buf[k + j] = (byte) (v >>> (8 * j));
+        }
+    }
+
+    /** The gzip magic bytes. */
+    private static final int ID1 = 0x1f, ID2 = 0x8b;
+
+    /** The gzip magic bytes as bytes. */
+    private static final byte ID1B = (byte) ID1, ID2B = (byte) ID2;
+
+    /** Index of the flag byte in a gzip header. */
+    private static final int FLG = 3;
+
+    /** Flag marking a gzip header with an extra field. */
+    private static final int FEXTRA = 4;
+
+    /** Flag marking a zlib stream that needs a preset dictionary. */
+    private static final int FDICT = 0x20;
+
+    /** Length of a gzip header up to and including the length of its
+     *  extra field. */
+    private static final int HEADER = 12;
+
+    /** Length of the extra field of a blocked member, which holds just
+     *  the "BC" subfield with the member's size less 1. */
+    private static final int BC_LENGTH = 6;
+
+    /** Length of a gzip trailer: CRC-32 and size of the data. */
+    private static final int TRAILER = 8;
+
+    /** Header of a blocked member, without its size. */
+    private static final byte[] BLOCK_HEADER = {
+        ID1B, ID2B, Deflater.DEFLATED, FEXTRA, 0, 0, 0, 0, 0, (byte) 0xff,
+        BC_LENGTH, 0, 'B', 'C', 2, 0, 0, 0
+    };
+
+    /** Largest size of a blocked member. */
+    private static final int MAX_BLOCK = 1 << 16;
+
+    /** Amount of data deflated into one block, small enough that the
+     *  member fits in MAX_BLOCK even if the data do not compress. */
+    private static final int BLOCK_DATA = MAX_BLOCK - 1024;
+
+    /** Number of threads inflating and deflating blocks. */
+    private static final int THREADS =
+        Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** Number of blocks inflated or deflated ahead of their use. */
+    private static final int AHEAD = 2 * THREADS;
+
+    /** Number of bytes of an input with a zlib header that are inflated
+     *  to confirm that it is one. */
+    private static final int PROBE = 1 << 12;
+
+    /** Size of the buffer for streams inflated as a whole. */
+    private static final int BUFFER = 1 << 16;
+
+    /** Threads inflating and deflating blocks, created when first
+     *  needed. */
+    private static ExecutorService _workers;
+}
@@ -0,0 +1,120 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** The suite of all JUnit tests for the Compression class.
+ *  @author Yuan Xie.
+ */
+public class CompressionTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return LENGTH bytes of message-like text, with a stretch of random
+     *  bytes that do not compress, generated from SEED. */
+    static byte[] data(int length, long seed) {
+        Random random = new Random(seed);
+        byte[] result = new byte[length];
+        for (int k = 0; k < length; k += 1) {
+            result[k] = (byte) (k % 7 == 6 ? ' ' : 'A' + random.nextInt(26));
+        }
+        for (int k = length / 3; k < length / 2; k += 1) {
+            result[k] = (byte) random.nextInt();
+        }
+        return result;
+    }
+
+    /** Return DATA compressed by Compression.output. */
+    static byte[] blocked(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = Compression.output(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the contents of COMPRESSED as read by Compression.input. */
+    static byte[] input(byte[] compressed) throws IOException {
+        return Compression.input(new ByteArrayInputStream(compressed))
+            .readAllBytes();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkBlockedRoundTrip() throws IOException {
+        for (int length : new int[] { 0, 1, 1000, 1 << 16, 600000 }) {
+            byte[] data = data(length, length);
+            byte[] compressed = blocked(data);
+            assertArrayEquals(data, input(compressed));
+            assertArrayEquals(data, new GZIPInputStream(
+                new ByteArrayInputStream(compressed)).readAllBytes());
+        }
+    }
+
+    @Test
+    public void checkStreams() throws IOException {
+        byte[] data = data(200000, 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        assertArrayEquals(data, input(bytes.toByteArray()));
+        bytes.reset();
+        try (OutputStream out = new DeflaterOutputStream(bytes)) {
+            out.write(data);
+        }
+        assertArrayEquals(data, input(bytes.toByteArray()));
+        bytes.reset();
+        try (OutputStream out = new DeflaterOutputStream(bytes)) {
+            out.write(data, 0, 10);
+        }
+        assertArrayEquals(new byte[] { data[0], data[1], data[2], data[3],
+                                       data[4], data[5], data[6], data[7],
+                                       data[8], data[9] },
+                          input(bytes.toByteArray()));
+    }
+
+    @Test
+    public void checkPlainText() throws IOException {
+        String[] texts = { "XG", "HK", "8O", "x^", "XG\n",
+                           "HKBSE TKRMQ\n", "x^ABC DEF GHI\n",
+                           "8OAAA\n".repeat(2000) };
+        for (String text : texts) {
+            byte[] data = text.getBytes(StandardCharsets.US_ASCII);
+            assertArrayEquals(text, data, input(data));
+        }
+    }
+
+    @Test
+    public void checkBadBlockSize() throws IOException {
+        byte[] compressed = blocked(data(1000, 2));
+        int size = ((compressed[16] & 0xff) | (compressed[17] & 0xff) << 8)
+            + 1;
+        for (int k = size - 4; k < size; k += 1) {
+            compressed[k] = (byte) 0x7f;
+        }
+        try {
+            input(compressed);
+            fail("bad block size accepted");
+        } catch (IOException excp) {
+            assertTrue(excp.getMessage().contains("size"));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** A parsed machine configuration: an alphabet, the numbers of rotor slots
+ *  and pawls, and the catalog of available rotors.
+ *  @author Yuan Xie.
+ */
+class Config {
+
+    /** The configuration described by the contents of the file named
+     *  NAME. */
+    static Config read(String name) {
+        return new Config(ConfigLexer.open(name));
+    }
+
+    /** The configuration whose description is read from INPUT. */
+    Config(ConfigLexer input) {
+        _input = input;
+        String characterRange = _input.restOfLine();
+        if (characterRange.equals("ABCDEFGHIJKLMNOPQRSTUVWXYZ")) {
+            _alphabet = new CharacterRange('A', 'Z');
+        } else if (characterRange.contains(("-"))) {
+            if (characterRange.length() < 3) {
+                throw error("configuration file truncated");
+            }
+            char first = characterRange.charAt(0);
+            char last = characterRange.charAt(2);
+            _alphabet = new CharacterRange(first, last);
+        } else {
+            _alphabet = new GeneralAlphabet(characterRange);
+        }
+        if (_input.next() != ConfigLexer.NUMBER) {
+            throw EnigmaException.error("Number of rotors not specified.");
+        }
+        _numRotors = _input.intValue();
+        if (_input.next() != ConfigLexer.NUMBER) {
+            throw EnigmaException.error("Number of pawls not specified.");
+        }
+        _numPawls = _input.intValue();
+        int line = _input.line();
+        Stepping stepping = null;
+        if (_input.peek() == ConfigLexer.WORD && _input.line() == line) {
+            stepping = Stepping.find(_input.text());
+            if (stepping != null) {
+                _input.next();
+            }
+        }
+        _stepping = stepping == null ? Stepping.ENIGMA : stepping;
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        while (_input.peek() != ConfigLexer.EOF) {
+            Rotor rotor = readRotor();
+            rotors.add(rotor);
+            _byName.put(rotor.name(), rotor);
+        }
+        _rotors = Collections.unmodifiableList(rotors);
+        _input = null;
+    }
+
+    /** A copy of CONFIG with its own rotors, which share their
+     *  permutations with those of CONFIG, so that machines built from
+     *  the two may be used independently. */
+    private Config(Config config) {
+        _alphabet = config._alphabet;
+        _numRotors = config._numRotors;
+        _numPawls = config._numPawls;
+        _stepping = config._stepping;
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (Rotor rotor : config._rotors) {
+            Rotor copy = rotor.copy();
+            rotors.add(copy);
+            _byName.put(copy.name(), copy);
+        }
+        _rotors = Collections.unmodifiableList(rotors);
+    }
+
+    /** Return a copy of me whose rotors are distinct from mine, for use
+     *  on another thread.  No descriptions are parsed again. */
+    Config copy() {
+        return new Config(this);
+    }
+
+    /** Return a rotor, reading its description from _input.  The name
+     *  may be any token other than a cycle, including one of digits. */
+    private Rotor readRotor() {
+        int kind = _input.next();
+        if (kind != ConfigLexer.WORD && kind != ConfigLexer.NUMBER) {
+            throw error("bad rotor description on line %d", _input.line());
+        }
+        String name = _input.text();
+        if (_input.next() != ConfigLexer.WORD) {
+            throw error("bad rotor description on line %d", _input.line());
+        }
+        char type = _input.charAt(0);
+        String notches = type == 'M' ? _input.text().substring(1) : null;
+        int start = _input.end(), end = start;
+        while (_input.peek() == ConfigLexer.CYCLE) {
+            _input.next();
+            end = _input.end();
+        }
+        Permutation permutation = WiringCache.permutation(_input.buffer(),
+                                                          start, end,
+                                                          _alphabet);
+        if (type == 'R') {
+            if (!permutation.derangement()) {
+                throw EnigmaException.error("Reflector's permutation "
+                        + "must be a derangement.");
+            }
+            return new Reflector(name, permutation);
+        } else if (type == 'N') {
+            return new FixedRotor(name, permutation);
+        } else if (type == 'M') {
+            return new MovingRotor(name, permutation, notches);
+        } else {
+            throw error("bad rotor type '%c' on line %d", type,
+                        _input.line());
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls. */
+    int numPawls() {
+        return _numPawls;
+    }
+
+    /** Return the stepping model, which may follow the numbers of slots
+     *  and pawls on the same line, and is ENIGMA by default.  Any other
+     *  word there begins the first rotor description. */
+    Stepping stepping() {
+        return _stepping;
+    }
+
+    /** Return the available rotors, in the order described. */
+    List<Rotor> rotors() {
+        return _rotors;
+    }
+
+    /** Return the rotor named NAME, or null if there is none.  If several
+     *  rotors have the same name, the last one described is used. */
+    Rotor rotor(String name) {
+        return _byName.get(name);
+    }
+
+    /** Return the rotor named NAME with ring setting RING, or null if
+     *  there is none.  At ring setting 0 this is rotor(NAME); otherwise
+     *  it is a rotor derived from it with the ring folded into its
+     *  wiring (see Rotor.withRing), built once and reused thereafter, so
+     *  that machines set up repeatedly with the same rings keep using the
+     *  same rotors and their compiled tables. */
+    Rotor rotor(String name, int ring) {
+        Rotor rotor = rotor(name);
+        if (rotor == null || ring == 0) {
+            return rotor;
+        }
+        Rotor[] rings = _rings.get(name);
+        if (rings == null) {
+            rings = new Rotor[_alphabet.size()];
+            _rings.put(name, rings);
+        }
+        if (rings[ring] == null) {
+            rings[ring] = rotor.withRing(ring);
+        }
+        return rings[ring];
+    }
+
+    /** Return a new machine with my alphabet, slots, pawls and stepping
+     *  model, whose available rotors are mine. */
+    Machine newMachine() {
+        return new Machine(_alphabet, _numRotors, _numPawls, _rotors,
+                           _stepping);
+    }
+
+    /** Source of the description while it is being read. */
+    private ConfigLexer _input;
+
+    /** Alphabet of all rotors. */
+    private final Alphabet _alphabet;
+
+    /** Numbers of rotor slots and pawls. */
+    private final int _numRotors, _numPawls;
+
+    /** How the rotors step. */
+    private final Stepping _stepping;
+
+    /** Available rotors. */
+    private final List<Rotor> _rotors;
+
+    /** Available rotors, indexed by name. */
+    private final HashMap<String, Rotor> _byName = new HashMap<>();
+
+    /** _rings.get(NAME)[R] is the rotor named NAME at ring setting R, if
+     *  it has been needed (see rotor(String, int)). */
+    private final HashMap<String, Rotor[]> _rings = new HashMap<>();
+}
@@ -0,0 +1,212 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.*;
+
+/** A tokenizer for machine configuration files.  The whole file is held
+ *  in one character buffer and tokens are reported as ranges of that
+ *  buffer, so that scanning allocates nothing per token; callers convert
+ *  a token to a String only when they need to keep it.  Letters are
+ *  upper-cased as the buffer is loaded.
+ *  @author Yuan Xie.
+ */
+class ConfigLexer {
+
+    /** Kind of token: end of input. */
+    static final int EOF = 0;
+    /** Kind of token: a decimal integer. */
+    static final int NUMBER = 1;
+    /** Kind of token: a whitespace-delimited word (rotor name, type and
+     *  notches, etc.). */
+    static final int WORD = 2;
+    /** Kind of token: a single parenthesized cycle, "(" ... ")". */
+    static final int CYCLE = 3;
+
+    /** A lexer reading the characters BUF[0 .. LENGTH-1].  BUF is
+     *  upper-cased in place. */
+    ConfigLexer(char[] buf, int length) {
+        _buf = buf;
+        _limit = length;
+        for (int k = 0; k < length; k += 1) {
+            buf[k] = Character.toUpperCase(buf[k]);
+        }
+        _line = 1;
+    }
+
+    /** A lexer reading the contents of TEXT. */
+    ConfigLexer(String text) {
+        this(text.toCharArray(), text.length());
+    }
+
+    /** Return a lexer for the contents of the file named NAME, which is
+     *  mapped into memory and decoded in one step. */
+    static ConfigLexer open(String name) {
+        try (RandomAccessFile file = new RandomAccessFile(new File(name), "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer bytes =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CharBuffer chars = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT)
+                .decode(bytes);
+            return new ConfigLexer(chars.array(), chars.limit());
+        } catch (CharacterCodingException excp) {
+            throw error("%s is not a text file", name);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the remainder of the current line (without its terminator)
+     *  and advance to the start of the next line. */
+    String restOfLine() {
+        int start = _pos;
+        while (_pos < _limit && _buf[_pos] != '\n' && _buf[_pos] != '\r') {
+            _pos += 1;
+        }
+        String result = new String(_buf, start, _pos - start);
+        if (_pos < _limit && _buf[_pos] == '\r') {
+            _pos += 1;
+        }
+        if (_pos < _limit && _buf[_pos] == '\n') {
+            _pos += 1;
+        }
+        _line += 1;
+        return result;
+    }
+
+    /** Return the kind of the next token without consuming it. */
+    int peek() {
+        if (_kind < 0) {
+            scan();
+        }
+        return _kind;
+    }
+
+    /** Consume the next token and return its kind. Its extent is then
+     *  given by start() and end(). */
+    int next() {
+        int kind = peek();
+        _kind = -1;
+        return kind;
+    }
+
+    /** Return the index in buffer() of the first character of the last
+     *  token consumed or peeked at. */
+    int start() {
+        return _start;
+    }
+
+    /** Return the index in buffer() just past the last token consumed or
+     *  peeked at. */
+    int end() {
+        return _end;
+    }
+
+    /** Return the line on which the last token consumed or peeked at
+     *  starts. */
+    int line() {
+        return _tokenLine;
+    }
+
+    /** Return the text of the last token consumed or peeked at. */
+    String text() {
+        return new String(_buf, _start, _end - _start);
+    }
+
+    /** Return character K of the last token consumed or peeked at. */
+    char charAt(int k) {
+        return _buf[_start + k];
+    }
+
+    /** Return the length of the last token consumed or peeked at. */
+    int length() {
+        return _end - _start;
+    }
+
+    /** Return the value of the last token, which must be a NUMBER. */
+    int intValue() {
+        int value = 0;
+        for (int k = _start; k < _end; k += 1) {
+            int digit = _buf[k] - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw error("number too large on line %d", _tokenLine);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /** Return a view of the whole input, against which start() and end()
+     *  are measured. */
+    CharSequence buffer() {
+        return CharBuffer.wrap(_buf, 0, _limit);
+    }
+
+    /** Scan the next token, setting _kind, _start, _end and _tokenLine. */
+    private void scan() {
+        while (_pos < _limit && Character.isWhitespace(_buf[_pos])) {
+            if (_buf[_pos] == '\n') {
+                _line += 1;
+            }
+            _pos += 1;
+        }
+        _start = _pos;
+        _tokenLine = _line;
+        if (_pos == _limit) {
+            _kind = EOF;
+        } else if (_buf[_pos] == '(') {
+            _pos += 1;
+            while (_pos < _limit && _buf[_pos] != ')') {
+                if (Character.isWhitespace(_buf[_pos])) {
+                    throw error("Space inside cycle on line %d.", _line);
+                }
+                _pos += 1;
+            }
+            if (_pos == _limit) {
+                throw error("Missing ) on line %d.", _line);
+            }
+            _pos += 1;
+            _kind = CYCLE;
+        } else {
+            boolean digits = true;
+            while (_pos < _limit && !Character.isWhitespace(_buf[_pos])) {
+                digits &= _buf[_pos] >= '0' && _buf[_pos] <= '9';
+                _pos += 1;
+            }
+            _kind = digits ? NUMBER : WORD;
+        }
+        _end = _pos;
+    }
+
+    /** The input text. */
+    private final char[] _buf;
+
+    /** Number of valid characters in _buf. */
+    private final int _limit;
+
+    /** Index of the next unscanned character of _buf. */
+    private int _pos;
+
+    /** Current line number (1-based) at _pos. */
+    private int _line;
+
+    /** Kind of the pending token, or -1 if none has been scanned. */
+    private int _kind = -1;
+
+    /** Extent of the last token scanned. */
+    private int _start, _end;
+
+    /** Line on which the last token scanned starts. */
+    private int _tokenLine;
+}
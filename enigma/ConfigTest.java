@@ -0,0 +1,138 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the ConfigLexer and Config classes.
+ *  @author Yuan Xie.
+ */
+public class ConfigTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkLexerTokens() {
+        ConfigLexer lexer =
+            new ConfigLexer("a-z\n 5 3\n i mq (aB) (c)\n\n  12 n\n");
+        assertEquals("A-Z", lexer.restOfLine());
+        assertEquals(ConfigLexer.NUMBER, lexer.next());
+        assertEquals(5, lexer.intValue());
+        assertEquals(2, lexer.line());
+        assertEquals(ConfigLexer.NUMBER, lexer.next());
+        assertEquals(3, lexer.intValue());
+        assertEquals(ConfigLexer.WORD, lexer.peek());
+        assertEquals(3, lexer.line());
+        assertEquals(ConfigLexer.WORD, lexer.next());
+        assertEquals("I", lexer.text());
+        assertEquals(ConfigLexer.WORD, lexer.next());
+        assertEquals("MQ", lexer.text());
+        assertEquals(ConfigLexer.CYCLE, lexer.next());
+        assertEquals("(AB)", lexer.text());
+        assertEquals(ConfigLexer.CYCLE, lexer.next());
+        assertEquals(ConfigLexer.NUMBER, lexer.next());
+        assertEquals("12", lexer.text());
+        assertEquals(5, lexer.line());
+        assertEquals(ConfigLexer.WORD, lexer.next());
+        assertEquals(ConfigLexer.EOF, lexer.next());
+        assertEquals(ConfigLexer.EOF, lexer.peek());
+    }
+
+    @Test
+    public void checkLexerErrors() {
+        for (String text : new String[] { "(AB C)", "(AB", "99999999999" }) {
+            ConfigLexer lexer = new ConfigLexer(text);
+            try {
+                lexer.next();
+                lexer.intValue();
+                fail("no error for " + text);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test
+    public void checkNumericRotorNames() {
+        String wiring = " MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+            + " %s N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+            + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+            + "     (RX) (SZ) (TV)\n";
+        Config numbered = new Config(new ConfigLexer(
+            "A-Z\n 3 1\n 1" + String.format(wiring, "2"))),
+            named = new Config(new ConfigLexer(
+                "A-Z\n 3 1\n I" + String.format(wiring, "Beta")));
+        assertEquals(3, numbered.rotors().size());
+        assertEquals("1", numbered.rotors().get(0).name());
+        assertTrue(numbered.rotors().get(0).rotates());
+        assertEquals("2", numbered.rotors().get(1).name());
+        Machine M1 = numbered.newMachine(), M2 = named.newMachine();
+        new Settings("* B 2 1 AQ", numbered).apply(M1);
+        new Settings("* B BETA I AQ", named).apply(M2);
+        String msg = "HELLOWORLDTHISISATEST";
+        assertEquals(M2.convert(msg), M1.convert(msg));
+    }
+
+    @Test
+    public void checkGeneratedConfigRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-gen");
+        String conf = dir.resolve("gen.conf").toString(),
+            inp = dir.resolve("gen.inp").toString(),
+            out = dir.resolve("gen.out").toString();
+        try {
+            for (int n : new int[] { 26, 40, 60 }) {
+                new Generator(new String[] {
+                    "--alphabet=" + n, "--sections=3", conf, inp
+                }).generate();
+                Config config = Config.read(conf);
+                assertEquals(n, config.alphabet().size());
+                assertEquals(5, config.numRotors());
+                new Main(new String[] { conf, inp, out }).process();
+                assertTrue(Files.size(dir.resolve("gen.out")) > 0);
+            }
+        } finally {
+            for (String name : new String[] { conf, inp, out }) {
+                Files.deleteIfExists(Path.of(name));
+            }
+            Files.delete(dir);
+        }
+        for (char c : Generator.symbols(60, StandardCharsets.US_ASCII)) {
+            assertTrue(c < 128);
+        }
+        try {
+            Generator.symbols(100, StandardCharsets.US_ASCII);
+            fail("no error for 100 ASCII symbols");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void checkSteppingOnPawlLine() {
+        String rotors = " MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+            + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+            + "     (RX) (SZ) (TV)\n";
+        Config sameLine = new Config(new ConfigLexer("A-Z\n 2 1 I" + rotors));
+        assertEquals(Stepping.ENIGMA, sameLine.stepping());
+        assertEquals(2, sameLine.rotors().size());
+        assertEquals("I", sameLine.rotors().get(0).name());
+        Config odometer = new Config(new ConfigLexer(
+            "A-Z\n 2 1 odometer\n I" + rotors));
+        assertEquals(Stepping.ODOMETER, odometer.stepping());
+        assertEquals(2, odometer.rotors().size());
+        Config nextLine = new Config(new ConfigLexer(
+            "A-Z\n 2 1\n odometer" + rotors));
+        assertEquals(Stepping.ENIGMA, nextLine.stepping());
+        assertEquals("ODOMETER", nextLine.rotors().get(0).name());
+    }
+}
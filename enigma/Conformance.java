@@ -0,0 +1,397 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static enigma.EnigmaException.*;
+
+/** Runs the testing corpus inside one JVM, checking each case as the
+ *  test-correct and test-error scripts do and measuring the speed of the
+ *  correct ones.  A case is an input file F.inp, run with F.conf if it
+ *  exists and otherwise with default.conf in the same directory.  If
+ *  F.out exists, the output must match it, ignoring differences in
+ *  amounts of blank space (as diff -b does); otherwise, the case must
+ *  end in an error.  Each run has a time limit.  Once all cases have been
+ *  checked, which also warms up the JVM, each correct case is timed and
+ *  its rate in input characters per second compared with a recorded
+ *  baseline, a rate below the baseline by more than a threshold being
+ *  reported as a regression.  Baselines are kept by the name of the case
+ *  within its directory, so they do not depend on how the directory was
+ *  named on the command line.  A run that exceeds its time limit cannot
+ *  be stopped and would slow the rest, so then nothing is timed.
+ *  @author Yuan Xie.
+ */
+public final class Conformance {
+
+    /** Check and time the cases in the directories given by ARGS, which
+     *  have the form
+     *      [ --NAME=VALUE ... ] DIR ...
+     *  where the options are
+     *      --timeout=SECONDS   time limit for each run (default 5)
+     *      --baseline=FILE     file of baseline rates, by case
+     *      --record            store the rates measured in the baseline
+     *                          file instead of comparing with it
+     *      --threshold=PERCENT slowdown beyond which a case has regressed
+     *                          (default 10)
+     *  Reports on each case on the standard output, and exits with code
+     *  1 if any case fails or regresses, or on other errors. */
+    public static void main(String... args) {
+        try {
+            if (new Conformance(args).run(System.out)) {
+                return;
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A runner configured according to ARGS (see main). */
+    Conformance(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            option(args[k]);
+        }
+        if (k == args.length) {
+            throw error("usage: java enigma.Conformance [--NAME=VALUE ...] "
+                        + "DIR ...");
+        }
+        if (_record && _baseline == null) {
+            throw error("--record needs --baseline");
+        }
+        for (; k < args.length; k += 1) {
+            Path dir = Paths.get(args[k]);
+            for (Path inp : Batch.inputs(dir.resolve("*.inp").toString())) {
+                String name = dir.relativize(inp).toString()
+                    .replace(File.separatorChar, '/');
+                if (_names.contains(name)) {
+                    throw error("two cases named %s", name);
+                }
+                _cases.add(inp);
+                _names.add(name);
+            }
+        }
+    }
+
+    /** Set up according to the option OPT, of the form --NAME[=VALUE]. */
+    private void option(String opt) {
+        if (opt.equals("--record")) {
+            _record = true;
+            return;
+        }
+        int eq = opt.indexOf('=');
+        if (eq < 0) {
+            throw error("option %s needs a value", opt);
+        }
+        String name = opt.substring(2, eq), value = opt.substring(eq + 1);
+        switch (name) {
+        case "timeout":
+            _timeout = number(name, value);
+            break;
+        case "baseline":
+            _baseline = Paths.get(value);
+            break;
+        case "threshold":
+            _threshold = number(name, value);
+            break;
+        default:
+            throw error("unknown option --%s", name);
+        }
+    }
+
+    /** Return VALUE, the value of option NAME, as a positive number. */
+    private static long number(String name, String value) {
+        try {
+            long result = Long.parseLong(value);
+            if (result <= 0) {
+                throw error("--%s must be positive", name);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("bad value for --%s: %s", name, value);
+        }
+    }
+
+    /** Check and time all cases, reporting on each on OUT, and return
+     *  true iff all pass without regressing. */
+    boolean run(PrintStream out) {
+        Properties baseline = loadBaseline();
+        boolean[] ok = new boolean[_cases.size()];
+        String[] reports = new String[_cases.size()];
+        boolean result = true;
+        for (int k = 0; k < _cases.size(); k += 1) {
+            reports[k] = check(_cases.get(k));
+            ok[k] = reports[k].equals("OK");
+            result &= ok[k];
+        }
+        double[] rates = new double[_cases.size()];
+        for (int r = 0; r < ROUNDS && !_timedOut; r += 1) {
+            for (int k = 0; k < _cases.size(); k += 1) {
+                if (ok[k] && Files.exists(expected(_cases.get(k)))) {
+                    rates[k] = Math.max(rates[k], rate(_cases.get(k)));
+                }
+            }
+        }
+        for (int k = 0; k < _cases.size(); k += 1) {
+            String name = _names.get(k);
+            if (rates[k] > 0) {
+                double rate = rates[k];
+                reports[k] += String.format("  %.2f Mchar/s", rate / 1e6);
+                String recorded = baseline.getProperty(name);
+                if (_record) {
+                    baseline.setProperty(name, Double.toString(rate));
+                } else if (recorded != null) {
+                    double base = Double.parseDouble(recorded),
+                        change = 100 * (rate - base) / base;
+                    reports[k] += String.format("  (%+.1f%%)", change);
+                    if (-change > _threshold) {
+                        reports[k] += "  REGRESSION";
+                        result = false;
+                    }
+                }
+            }
+            out.printf("%s: %s%n", _cases.get(k), reports[k]);
+        }
+        if (_timedOut) {
+            out.println("Rates not measured: a run exceeded its time "
+                        + "limit and may still be running.");
+        } else if (_record) {
+            storeBaseline(baseline);
+        }
+        _runner.shutdownNow();
+        return result;
+    }
+
+    /** Return "OK" if the case INP passes, and otherwise a description of
+     *  the failure.  The thread of a run that exceeds the time limit
+     *  cannot be stopped, so later runs go to a new one. */
+    private String check(Path inp) {
+        Future<Outcome> run = _runner.submit(() -> runCase(inp));
+        Outcome outcome;
+        try {
+            outcome = run.get(_timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException excp) {
+            _timedOut = true;
+            run.cancel(true);
+            _runner.shutdownNow();
+            _runner = newRunner();
+            return "ERROR (time limit exceeded)";
+        } catch (ExecutionException excp) {
+            return "ERROR (uncaught exception: " + excp.getCause() + ")";
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        Path out = expected(inp);
+        if (outcome._overflowed) {
+            return "ERROR (too much output)";
+        } else if (!Files.exists(out)) {
+            return outcome._failed ? "OK" : "ERROR (did not report error)";
+        } else if (outcome._failed) {
+            return "ERROR (bad exit code)";
+        } else if (!blanks(outcome._output).equals(blanks(read(out)))) {
+            return "ERROR (output)";
+        }
+        return "OK";
+    }
+
+    /** Return the outcome of running the case INP as Main would. */
+    private Outcome runCase(Path inp) {
+        Limited output = new Limited();
+        PrintStream printer = new PrintStream(output, false,
+                                              Charset.defaultCharset());
+        boolean failed = false;
+        try {
+            Config config = Config.read(config(inp).toString());
+            new Main(config, new StringReader(read(inp)), printer)
+                .process();
+        } catch (EnigmaException excp) {
+            failed = true;
+        }
+        printer.flush();
+        return new Outcome(output.toString(Charset.defaultCharset()),
+                           failed, output.overflowed());
+    }
+
+    /** Return the rate of the correct case INP in input characters per
+     *  second over runs taking at least ROUND_TIME in all.  The rate of a
+     *  case is the best of ROUNDS such measurements, taken in turn with
+     *  those of the other cases, so that drift in the speed of the
+     *  machine affects all cases alike. */
+    private double rate(Path inp) {
+        Config config = Config.read(config(inp).toString());
+        String input = read(inp);
+        long count = 0, start = System.nanoTime(), time;
+        do {
+            PrintStream sink =
+                new PrintStream(OutputStream.nullOutputStream());
+            new Main(config, new StringReader(input), sink).process();
+            count += input.length();
+            time = System.nanoTime() - start;
+        } while (time < ROUND_TIME);
+        return count * 1e9 / time;
+    }
+
+    /** Return the configuration file for the case INP. */
+    private static Path config(Path inp) {
+        Path own = sibling(inp, ".conf");
+        return Files.exists(own) ? own : inp.resolveSibling("default.conf");
+    }
+
+    /** Return the expected output file for the case INP. */
+    private static Path expected(Path inp) {
+        return sibling(inp, ".out");
+    }
+
+    /** Return the file named as INP, but with SUFFIX in place of
+     *  .inp. */
+    private static Path sibling(Path inp, String suffix) {
+        String name = inp.getFileName().toString();
+        return inp.resolveSibling(name.substring(0, name.length() - 4)
+                                  + suffix);
+    }
+
+    /** Return the contents of FILE. */
+    private static String read(Path file) {
+        try {
+            return Files.readString(file, Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Return TEXT with blanks at the ends of lines removed and other
+     *  runs of blanks replaced by one space, as compared by diff -b. */
+    static String blanks(String text) {
+        StringBuilder result = new StringBuilder();
+        for (String line : text.split("\r?\n", -1)) {
+            result.append(line.replaceAll("[ \t\f\r]+", " ").stripTrailing())
+                .append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return the baseline rates, which are empty if there are none. */
+    private Properties loadBaseline() {
+        Properties result = new Properties();
+        if (_baseline != null && Files.exists(_baseline)) {
+            try (InputStream in = Files.newInputStream(_baseline)) {
+                result.load(in);
+            } catch (IOException | IllegalArgumentException excp) {
+                throw error("could not read %s", _baseline);
+            }
+        }
+        return result;
+    }
+
+    /** Store RATES in the baseline file. */
+    private void storeBaseline(Properties rates) {
+        try (OutputStream out = Files.newOutputStream(_baseline)) {
+            rates.store(out, "enigma conformance rates, chars/s");
+        } catch (IOException excp) {
+            throw error("could not write %s", _baseline);
+        }
+    }
+
+    /** Return a thread on which to run cases. */
+    private static ExecutorService newRunner() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "conformance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** The result of running a case. */
+    private static final class Outcome {
+        /** The result of a case that wrote OUTPUT, ended in an error iff
+         *  FAILED, and exceeded the output limit iff OVERFLOWED. */
+        Outcome(String output, boolean failed, boolean overflowed) {
+            _output = output;
+            _failed = failed;
+            _overflowed = overflowed;
+        }
+
+        /** Output of the case. */
+        private final String _output;
+        /** True iff the case ended in an error. */
+        private final boolean _failed;
+        /** True iff the case exceeded the output limit. */
+        private final boolean _overflowed;
+    }
+
+    /** Output kept up to MAX_OUTPUT bytes, the rest being dropped. */
+    private static class Limited extends ByteArrayOutputStream {
+        @Override
+        public synchronized void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] buf, int off, int len) {
+            int n = Math.min(len, MAX_OUTPUT - size());
+            super.write(buf, off, n);
+            _overflowed |= n < len;
+        }
+
+        /** Return true iff output has been dropped. */
+        synchronized boolean overflowed() {
+            return _overflowed;
+        }
+
+        /** True iff output has been dropped. */
+        private boolean _overflowed;
+    }
+
+    /** Largest output of a case, in bytes, as limited by the scripts. */
+    private static final int MAX_OUTPUT = 100 * 1024;
+
+    /** Number of timed rounds per case. */
+    private static final int ROUNDS = 5;
+
+    /** Minimum duration of a round, in nanoseconds. */
+    private static final long ROUND_TIME = 50_000_000L;
+
+    /** The input files of the cases, in order. */
+    private final List<Path> _cases = new ArrayList<>();
+
+    /** The names of the cases within their directories, which key their
+     *  baseline rates, in the same order. */
+    private final List<String> _names = new ArrayList<>();
+
+    /** Time limit of a run, in seconds. */
+    private long _timeout = 5;
+
+    /** File of baseline rates, or null if none. */
+    private Path _baseline;
+
+    /** True iff rates are recorded rather than compared. */
+    private boolean _record;
+
+    /** Slowdown in percent beyond which a case has regressed. */
+    private long _threshold = 10;
+
+    /** Runs cases. */
+    private ExecutorService _runner = newRunner();
+
+    /** True iff a run has exceeded its time limit. */
+    private boolean _timedOut;
+}
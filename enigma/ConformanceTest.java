@@ -0,0 +1,168 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Properties;
+
+import static enigma.BatchTest.CONFIG;
+import static enigma.BatchTest.delete;
+import static enigma.BatchTest.expected;
+
+/** The suite of all JUnit tests for the Conformance class.
+ *  @author Yuan Xie.
+ */
+public class ConformanceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Input of a correct case. */
+    static final String GOOD =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n"
+        + "FROM his shoulder Hiawatha\n"
+        + "Took the camera of rosewood\n";
+
+    /** Write the case NAME into DIR, with input INPUT and, if OUTPUT is
+     *  not null, expected output OUTPUT. */
+    static void write(Path dir, String name, String input, String output)
+        throws IOException {
+        Files.writeString(dir.resolve(name + ".inp"), input,
+                          Charset.defaultCharset());
+        if (output != null) {
+            Files.writeString(dir.resolve(name + ".out"), output,
+                              Charset.defaultCharset());
+        }
+    }
+
+    /** Return a directory in PARENT named NAME holding default.conf. */
+    static Path cases(Path parent, String name) throws IOException {
+        Path dir = Files.createDirectory(parent.resolve(name));
+        Files.writeString(dir.resolve("default.conf"), CONFIG,
+                          Charset.defaultCharset());
+        return dir;
+    }
+
+    /** Run a Conformance with ARGS, returning its reports by case, with
+     *  its result under the key "result". */
+    static HashMap<String, String> run(String... args) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true,
+                                          Charset.defaultCharset());
+        boolean ok = new Conformance(args).run(out);
+        HashMap<String, String> result = new HashMap<>();
+        for (String line : bytes.toString(Charset.defaultCharset())
+                 .split("\n")) {
+            int colon = line.indexOf(": ");
+            String name = line.substring(0, colon);
+            result.put(name.substring(name.lastIndexOf('/') + 1),
+                       line.substring(colon + 2));
+        }
+        result.put("result", Boolean.toString(ok));
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkBlanks() {
+        assertEquals("A B\nC\n", Conformance.blanks("A  B \t\nC"));
+        assertEquals(Conformance.blanks("A B\nC\n"),
+                     Conformance.blanks("A \f B\r\nC  \r\n"));
+        assertEquals(Conformance.blanks(" A"), Conformance.blanks("\tA"));
+        assertNotEquals(Conformance.blanks("AB\n"),
+                        Conformance.blanks("A B\n"));
+        assertNotEquals(Conformance.blanks("A\n\nB\n"),
+                        Conformance.blanks("A\nB\n"));
+    }
+
+    @Test
+    public void checkCases() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-conformance");
+        try {
+            Path cases = cases(dir, "cases");
+            Config config = new Config(new ConfigLexer(CONFIG));
+            String output = expected(config, GOOD);
+            write(cases, "good", GOOD, output);
+            write(cases, "spaced", GOOD, output.replace(" ", "  \t")
+                  .replace("\n", " \n"));
+            write(cases, "wrong", GOOD, "X" + output);
+            write(cases, "bad", "HELLO\n", null);
+            write(cases, "quiet", GOOD, null);
+            write(cases, "failing", "HELLO\n", "HELLO\n");
+            HashMap<String, String> reports = run(cases.toString());
+            assertTrue(reports.get("good.inp").startsWith("OK  "));
+            assertTrue(reports.get("good.inp").endsWith(" Mchar/s"));
+            assertTrue(reports.get("spaced.inp").startsWith("OK  "));
+            assertEquals("ERROR (output)", reports.get("wrong.inp"));
+            assertEquals("OK", reports.get("bad.inp"));
+            assertEquals("ERROR (did not report error)",
+                         reports.get("quiet.inp"));
+            assertEquals("ERROR (bad exit code)",
+                         reports.get("failing.inp"));
+            assertEquals("false", reports.get("result"));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkBaseline() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-conformance");
+        try {
+            Path cases = cases(dir, "cases"), baseline = dir.resolve("base");
+            Config config = new Config(new ConfigLexer(CONFIG));
+            write(cases, "good", GOOD, expected(config, GOOD));
+            HashMap<String, String> reports =
+                run("--record", "--baseline=" + baseline,
+                    cases.toAbsolutePath().toString());
+            assertEquals("true", reports.get("result"));
+            Properties rates = new Properties();
+            try (Reader in = Files.newBufferedReader(baseline)) {
+                rates.load(in);
+            }
+            assertEquals("[good.inp]", rates.stringPropertyNames()
+                         .toString());
+
+            String other = dir.resolve("cases").resolve("..")
+                .resolve("cases").toString();
+            reports = run("--baseline=" + baseline, "--threshold=99",
+                          other);
+            assertTrue(reports.get("good.inp").endsWith("%)"));
+            assertEquals("true", reports.get("result"));
+
+            rates.setProperty("good.inp", "1e15");
+            try (Writer out = Files.newBufferedWriter(baseline)) {
+                rates.store(out, null);
+            }
+            reports = run("--baseline=" + baseline, other);
+            assertTrue(reports.get("good.inp").endsWith("  REGRESSION"));
+            assertEquals("false", reports.get("result"));
+
+            Path more = cases(dir, "more");
+            write(more, "good", GOOD, expected(config, GOOD));
+            try {
+                run(cases.toString(), more.toString());
+                fail("two cases with one baseline name");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+}
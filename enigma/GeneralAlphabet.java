@@ -12,8 +12,20 @@ class GeneralAlphabet extends Alphabet {
         if (alphabet.contains(")") || alphabet.contains("(")
                 || alphabet.contains("-") || alphabet.contains("*")) {
             throw error("empty range of characters");
-        } else {
-            _string = alphabet;
+        }
+        _string = alphabet;
+        char lo = Character.MAX_VALUE, hi = Character.MIN_VALUE;
+        for (int r = 0; r < alphabet.length(); r += 1) {
+            lo = (char) Math.min(lo, alphabet.charAt(r));
+            hi = (char) Math.max(hi, alphabet.charAt(r));
+        }
+        _low = lo;
+        _index = new int[alphabet.isEmpty() ? 0 : hi - lo + 1];
+        for (int r = 0; r < alphabet.length(); r += 1) {
+            int k = alphabet.charAt(r) - _low;
+            if (_index[k] == 0) {
+                _index[k] = r + 1;
+            }
         }
     }
 
@@ -24,7 +36,8 @@ class GeneralAlphabet extends Alphabet {
 
     @Override
     boolean contains(char ch) {
-        return _string.contains(Character.toString(ch));
+        int k = ch - _low;
+        return k >= 0 && k < _index.length && _index[k] != 0;
     }
 
     @Override
@@ -37,13 +50,31 @@ class GeneralAlphabet extends Alphabet {
 
     @Override
     int toInt(char ch) {
-        if (!_string.contains(Character.toString(ch))) {
+        if (!contains(ch)) {
             throw error("character out of range");
         }
-        return _string.indexOf(Character.toString(ch));
+        return _index[ch - _low] - 1;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof GeneralAlphabet
+            && ((GeneralAlphabet) obj)._string.equals(_string);
+    }
+
+    @Override
+    public int hashCode() {
+        return _string.hashCode();
     }
 
     /** Range of characters in this Alphabet. */
     private String _string;
 
+    /** Smallest character code in _string. */
+    private char _low;
+
+    /** _index[C - _low] is one more than the index of character C in
+     *  _string, or 0 if C is not in this Alphabet. */
+    private int[] _index;
+
 }
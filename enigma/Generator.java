@@ -0,0 +1,411 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** Generator of synthetic configurations and input files for load and
+ *  scale testing of Main and Machine.  The same options and seed always
+ *  produce the same files.  Both files are written in a single streaming
+ *  pass, so inputs may be far larger than memory.
+ *  @author Yuan Xie.
+ */
+public final class Generator {
+
+    /** Write a configuration file and an input file as specified by ARGS,
+     *  which have the form
+     *      [ --NAME=VALUE ... ] CONFIG INPUT
+     *  where the options are
+     *      --seed=N          seed for all random choices (default 1)
+     *      --alphabet=N      alphabet size, even (default 26)
+     *      --rotors=N        number of moving rotors in the catalog
+     *                        (default 8)
+     *      --slots=N         number of rotor slots (default 5)
+     *      --pawls=N         number of pawls (default 3)
+     *      --sections=N      number of settings lines (default 10)
+     *      --lengths=DIST    message length per section, in characters,
+     *                        where DIST is fixed:N, uniform:MIN:MAX or
+     *                        geometric:MEAN (default uniform:1:1000)
+     *      --plugs=N         plugboard pairs per settings line (default 10)
+     *      --line=N          message characters per input line
+     *                        (default 60)
+     *  Exits with code 1 after printing a message on errors. */
+    public static void main(String... args) {
+        try {
+            new Generator(args).generate();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A generator configured according to ARGS (see main). */
+    Generator(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            option(args[k]);
+        }
+        if (args.length - k != 2) {
+            throw error("usage: java enigma.Generator [--NAME=VALUE ...] "
+                        + "CONFIG INPUT");
+        }
+        _configName = args[k];
+        _inputName = args[k + 1];
+        if (_alphabetSize < 2 || _alphabetSize % 2 != 0) {
+            throw error("alphabet size must be even and at least 2");
+        }
+        if (_slots < 2 || _pawls < 0 || _pawls >= _slots) {
+            throw error("need 1 < slots and 0 <= pawls < slots");
+        }
+        if (_rotors < _pawls) {
+            throw error("need at least as many rotors as pawls");
+        }
+        if (2 * _plugs > _alphabetSize) {
+            throw error("too many plugboard pairs for alphabet");
+        }
+        _fixed = _slots - _pawls;
+    }
+
+    /** Set the option described by OPT, which has the form --NAME=VALUE. */
+    private void option(String opt) {
+        int eq = opt.indexOf('=');
+        if (eq < 0) {
+            throw error("option %s needs a value", opt);
+        }
+        String name = opt.substring(2, eq), value = opt.substring(eq + 1);
+        switch (name) {
+        case "seed":
+            _seed = number(name, value);
+            break;
+        case "alphabet":
+            _alphabetSize = (int) number(name, value);
+            break;
+        case "rotors":
+            _rotors = (int) number(name, value);
+            break;
+        case "slots":
+            _slots = (int) number(name, value);
+            break;
+        case "pawls":
+            _pawls = (int) number(name, value);
+            break;
+        case "sections":
+            _sections = number(name, value);
+            break;
+        case "lengths":
+            lengths(value);
+            break;
+        case "plugs":
+            _plugs = (int) number(name, value);
+            break;
+        case "line":
+            _lineLength = (int) number(name, value);
+            if (_lineLength < 1) {
+                throw error("line length must be positive");
+            }
+            break;
+        default:
+            throw error("unknown option --%s", name);
+        }
+    }
+
+    /** Return VALUE, the value of option NAME, as a non-negative number. */
+    private static long number(String name, String value) {
+        try {
+            long result = Long.parseLong(value);
+            if (result < 0) {
+                throw error("--%s must not be negative", name);
+            }
+            return result;
+        } catch (NumberFormatException excp) {
+            throw error("bad value for --%s: %s", name, value);
+        }
+    }
+
+    /** Set the message length distribution from DIST (see main). */
+    private void lengths(String dist) {
+        String[] parts = dist.split(":");
+        _lengthKind = parts[0];
+        if (parts[0].equals("fixed") && parts.length == 2) {
+            _minLength = _maxLength = number("lengths", parts[1]);
+        } else if (parts[0].equals("uniform") && parts.length == 3) {
+            _minLength = number("lengths", parts[1]);
+            _maxLength = number("lengths", parts[2]);
+            if (_minLength > _maxLength) {
+                throw error("empty message length range");
+            }
+        } else if (parts[0].equals("geometric") && parts.length == 2) {
+            _minLength = _maxLength = number("lengths", parts[1]);
+        } else {
+            throw error("bad length distribution: %s", dist);
+        }
+    }
+
+    /** Write the configuration and input files. */
+    void generate() {
+        Random random = new Random(_seed);
+        _symbols = symbols(_alphabetSize, Charset.defaultCharset());
+        try (Writer config = open(_configName)) {
+            writeConfig(config, random);
+        } catch (IOException excp) {
+            throw error("could not write %s", _configName);
+        }
+        try (Writer input = open(_inputName)) {
+            writeInput(input, random);
+        } catch (IOException excp) {
+            throw error("could not write %s", _inputName);
+        }
+    }
+
+    /** Return a buffered writer on the file named NAME, using the default
+     *  character set, as Main does for reading.  Characters the set cannot
+     *  encode are reported rather than replaced. */
+    private static Writer open(String name) throws IOException {
+        CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        return new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(name), encoder), 1 << 16);
+    }
+
+    /** Return an array of N distinct characters that Main accepts as
+     *  alphabet symbols and that CHARSET can encode.  Up to 26, these are
+     *  upper-case letters from A. */
+    static char[] symbols(int n, Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder();
+        char[] result = new char[n];
+        int k = 0;
+        if (n <= 26) {
+            for (; k < n; k += 1) {
+                result[k] = (char) ('A' + k);
+            }
+            return result;
+        }
+        for (int c = '!'; c <= Character.MAX_VALUE && k < n; c += 1) {
+            if (usable((char) c) && encoder.canEncode((char) c)) {
+                result[k] = (char) c;
+                k += 1;
+            }
+        }
+        if (k < n) {
+            throw error("alphabet size %d is too large for %s", n,
+                        charset.name());
+        }
+        return result;
+    }
+
+    /** Return true iff C may be used as an alphabet symbol in generated
+     *  files: it must survive upper-casing unchanged, and must not be
+     *  whitespace, a line terminator or a character with special meaning
+     *  in configuration or input files. */
+    private static boolean usable(char c) {
+        return Character.isDefined(c) && !Character.isISOControl(c)
+            && !Character.isWhitespace(c) && !Character.isSurrogate(c)
+            && Character.getType(c) != Character.UNASSIGNED
+            && Character.getType(c) != Character.PRIVATE_USE
+            && Character.getType(c) != Character.FORMAT
+            && "()-*".indexOf(c) < 0
+            && String.valueOf(c).toUpperCase().equals(String.valueOf(c))
+            && Character.toUpperCase(c) == c;
+    }
+
+    /** Write the configuration file to OUT, drawing from RANDOM. */
+    private void writeConfig(Writer out, Random random) throws IOException {
+        if (_alphabetSize <= 26) {
+            out.write("A-" + _symbols[_alphabetSize - 1]);
+        } else {
+            out.write(_symbols);
+        }
+        out.write(String.format("%n %d %d%n", _slots, _pawls));
+        for (int r = 0; r < _rotors; r += 1) {
+            out.write(" M" + r + " M");
+            int notches = 1 + random.nextInt(3);
+            for (int k = 0; k < notches; k += 1) {
+                out.write(_symbols[random.nextInt(_alphabetSize)]);
+            }
+            out.write(' ');
+            writeCycles(out, shuffle(random));
+            out.write(System.lineSeparator());
+        }
+        for (int r = 0; r < _fixed; r += 1) {
+            out.write(" N" + r + " N ");
+            writeCycles(out, shuffle(random));
+            out.write(System.lineSeparator());
+        }
+        for (int r = 0; r < REFLECTORS; r += 1) {
+            out.write(" R" + r + " R ");
+            int[] order = shuffle(random);
+            for (int k = 0; k < order.length; k += 2) {
+                out.write('(');
+                out.write(_symbols[order[k]]);
+                out.write(_symbols[order[k + 1]]);
+                out.write(") ");
+            }
+            out.write(System.lineSeparator());
+        }
+    }
+
+    /** Write the permutation taking index I to P[I] to OUT in cycle
+     *  notation. */
+    private void writeCycles(Writer out, int[] p) throws IOException {
+        boolean[] done = new boolean[p.length];
+        for (int start = 0; start < p.length; start += 1) {
+            if (!done[start] && p[start] != start) {
+                out.write('(');
+                for (int x = start; !done[x]; x = p[x]) {
+                    done[x] = true;
+                    out.write(_symbols[x]);
+                }
+                out.write(") ");
+            }
+        }
+    }
+
+    /** Return a uniformly random permutation of 0 .. alphabet size - 1,
+     *  drawing from RANDOM. */
+    private int[] shuffle(Random random) {
+        int[] result = new int[_alphabetSize];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = k;
+        }
+        for (int k = result.length - 1; k > 0; k -= 1) {
+            int j = random.nextInt(k + 1);
+            int t = result[k];
+            result[k] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Write the input file to OUT, drawing from RANDOM. */
+    private void writeInput(Writer out, Random random) throws IOException {
+        for (long s = 0; s < _sections; s += 1) {
+            writeSettings(out, random);
+            long length = messageLength(random);
+            int column = 0;
+            for (long k = 0; k < length; k += 1) {
+                out.write(_symbols[random.nextInt(_alphabetSize)]);
+                column += 1;
+                if (column == _lineLength) {
+                    out.write(System.lineSeparator());
+                    column = 0;
+                }
+            }
+            if (column > 0 || length == 0) {
+                out.write(System.lineSeparator());
+            }
+        }
+    }
+
+    /** Write a random settings line to OUT, drawing from RANDOM. */
+    private void writeSettings(Writer out, Random random) throws IOException {
+        out.write("* R" + random.nextInt(REFLECTORS));
+        int[] fixed = shuffle(random, _fixed);
+        for (int r = 0; r < _slots - _pawls - 1; r += 1) {
+            out.write(" N" + fixed[r]);
+        }
+        int[] moving = shuffle(random, _rotors);
+        for (int r = 0; r < _pawls; r += 1) {
+            out.write(" M" + moving[r]);
+        }
+        out.write(' ');
+        for (int r = 1; r < _slots; r += 1) {
+            out.write(_symbols[random.nextInt(_alphabetSize)]);
+        }
+        int[] plugs = shuffle(random);
+        for (int k = 0; k < 2 * _plugs; k += 2) {
+            out.write(" (");
+            out.write(_symbols[plugs[k]]);
+            out.write(_symbols[plugs[k + 1]]);
+            out.write(')');
+        }
+        out.write(System.lineSeparator());
+    }
+
+    /** Return a random permutation of 0 .. N-1, drawing from RANDOM. */
+    private static int[] shuffle(Random random, int n) {
+        int[] result = new int[n];
+        for (int k = 0; k < n; k += 1) {
+            result[k] = k;
+        }
+        for (int k = n - 1; k > 0; k -= 1) {
+            int j = random.nextInt(k + 1);
+            int t = result[k];
+            result[k] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Return a message length drawn from RANDOM according to the
+     *  configured distribution. */
+    private long messageLength(Random random) {
+        switch (_lengthKind) {
+        case "uniform":
+            return _minLength
+                + (long) (random.nextDouble() * (_maxLength - _minLength + 1));
+        case "geometric":
+            if (_minLength == 0) {
+                return 0;
+            }
+            double p = 1.0 / (_minLength + 1);
+            return (long) (Math.log(1.0 - random.nextDouble())
+                           / Math.log(1.0 - p));
+        default:
+            return _minLength;
+        }
+    }
+
+    /** Number of reflectors in a generated catalog. */
+    private static final int REFLECTORS = 2;
+
+    /** Names of the files to generate. */
+    private String _configName, _inputName;
+
+    /** Random seed. */
+    private long _seed = 1;
+
+    /** Alphabet size. */
+    private int _alphabetSize = 26;
+
+    /** Symbols of the alphabet, in order. */
+    private char[] _symbols;
+
+    /** Number of moving rotors in the catalog. */
+    private int _rotors = 8;
+
+    /** Number of non-moving, non-reflecting rotors in the catalog. */
+    private int _fixed;
+
+    /** Number of rotor slots. */
+    private int _slots = 5;
+
+    /** Number of pawls. */
+    private int _pawls = 3;
+
+    /** Number of sections (settings lines). */
+    private long _sections = 10;
+
+    /** Message length distribution: "fixed", "uniform" or "geometric". */
+    private String _lengthKind = "uniform";
+
+    /** Parameters of the message length distribution: the bounds for
+     *  "uniform", otherwise the length or mean length. */
+    private long _minLength = 1, _maxLength = 1000;
+
+    /** Number of plugboard pairs per settings line. */
+    private int _plugs = 10;
+
+    /** Message characters per input line. */
+    private int _lineLength = 60;
+}
@@ -0,0 +1,525 @@
+package enigma;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A cipher loop specialized to one setup of a machine.  Once a settings
+ *  line has been applied, the rotors in each slot, their notches, the
+ *  stepping model, the composed core and the plugboard stay fixed until
+ *  the next one, so a kernel copies them into flat tables and converts
+ *  whole runs of characters without going through Rotor objects: no
+ *  virtual calls, no modular arithmetic, stepping by one table lookup.
+ *  There are three variants, each offered by a CipherEngine: one that
+ *  converts a segment at a time between turnovers (see run), one that
+ *  goes through every rotor for every character, and, for the usual three
+ *  moving rotors, one with the rotor chain unrolled and each table held
+ *  in its own final field.
+ *
+ *  The tables that depend only on the rotors in the moving slots and the
+ *  stepping model form a Shape, which is shared by all kernels for
+ *  machines with the same rotors in those slots.
+ *  @author Yuan Xie.
+ */
+class Kernel implements CipherEngine.Converter {
+
+    /** Return a kernel for the current setup of M: unrolled if M has
+     *  exactly three moving slots, and otherwise converting a segment at a
+     *  time.  Returns null if M is not fully set up or has too many pawls
+     *  for a stepping table. */
+    static Kernel of(Machine M) {
+        Shape shape = shape(M);
+        if (shape == null) {
+            return null;
+        } else if (shape._fwd.length == 3) {
+            return new Three(shape, M);
+        }
+        return new Kernel(shape, M);
+    }
+
+    /** Return a kernel for the current setup of M that converts a segment
+     *  at a time (see run), or null as for of. */
+    static Kernel segmented(Machine M) {
+        Shape shape = shape(M);
+        return shape == null ? null : new Kernel(shape, M);
+    }
+
+    /** Return a kernel for the current setup of M that goes through every
+     *  moving slot for every character, or null as for of. */
+    static Kernel direct(Machine M) {
+        Shape shape = shape(M);
+        return shape == null ? null : new Direct(shape, M);
+    }
+
+    /** Return an unrolled kernel for the current setup of M, or null if
+     *  M does not have exactly three moving slots or as for of. */
+    static Kernel unrolled(Machine M) {
+        Shape shape = shape(M);
+        return shape == null || shape._fwd.length != 3 ? null
+            : new Three(shape, M);
+    }
+
+    /** Return the shape for the moving slots of M, or null if M is not
+     *  fully set up or has too many pawls for a stepping table. */
+    private static Shape shape(Machine M) {
+        Rotor[] rotors = M.myRotors();
+        int coreEnd = M.coreEnd(), pawls = M.numPawls();
+        if (coreEnd == 0) {
+            return null;
+        }
+        purge();
+        Shape shape = SHAPES.get(new ShapeKey(rotors, coreEnd, pawls,
+                                              M.stepping(), null));
+        if (shape == null) {
+            int[] steps = M.stepping().table(pawls);
+            if (steps == null) {
+                return null;
+            }
+            if (SHAPES.size() >= MAX_SHAPES) {
+                SHAPES.clear();
+            }
+            shape = new Shape(rotors, coreEnd, steps);
+            SHAPES.putIfAbsent(new ShapeKey(rotors, coreEnd, pawls,
+                                            M.stepping(), QUEUE), shape);
+        }
+        return shape;
+    }
+
+    /** Remove the shapes of rotors that have been reclaimed. */
+    private static void purge() {
+        Object ref;
+        while ((ref = QUEUE.poll()) != null) {
+            SHAPES.remove(((RotorRef) ref)._key);
+        }
+    }
+
+    /** A kernel with the tables of SHAPE for the current composed core,
+     *  plugboard and rotors of M. */
+    Kernel(Shape shape, Machine M) {
+        _shape = shape;
+        _core = M.core();
+        _rotors = M.myRotors();
+        int n = _core.length;
+        _plug = M.plug();
+        _unplug = M.unplug();
+        _posn = new int[shape._fwd.length];
+        _segment = new int[n];
+        _stamp = new int[n];
+    }
+
+    /** Convert MSG[FROM .. TO-1] in place as classified by CLASSES (see
+     *  run), starting with my machine's moving rotors at their current
+     *  settings and leaving them at their final settings.  Return the end
+     *  of the converted characters. */
+    @Override
+    public int convert(char[] msg, int from, int to, CharClass classes) {
+        Rotor[] rotors = _rotors;
+        int first = rotors.length - _posn.length;
+        for (int k = 0; k < _posn.length; k += 1) {
+            _posn[k] = rotors[first + k].setting();
+        }
+        try {
+            return run(msg, from, to, classes);
+        } finally {
+            for (int k = 0; k < _posn.length; k += 1) {
+                rotors[first + k].set(_posn[k]);
+            }
+        }
+    }
+
+    /** Convert MSG[FROM .. TO-1], starting from and updating the
+     *  positions in _posn, and return the end of the result.  Characters
+     *  whose class in CLASSES is a symbol are converted, PASS characters
+     *  are copied without moving the rotors, and SKIP characters are
+     *  dropped, moving the rest down.  Between turnovers only the
+     *  rightmost slot moves, so everything between its two hops is a
+     *  fixed permutation for the whole segment: _segment caches it,
+     *  entry by entry as symbols first reach it, and a turnover
+     *  invalidates it by starting a new epoch.  Likewise only the
+     *  rightmost slot's notch needs checking within a segment. */
+    int run(char[] msg, int from, int to, CharClass classes) {
+        int[][] fwd = _shape._fwd, bwd = _shape._bwd;
+        boolean[][] notch = _shape._notch;
+        int[] steps = _shape._steps, posn = _posn;
+        int[] segment = _segment, stamp = _stamp;
+        int[] table = classes.classes();
+        char[] symbols = classes.symbols();
+        int m = posn.length, n = _core.length, rotating = _shape._rotating;
+        int last = m - 1;
+        int w = from;
+        if (m == 0) {
+            for (int r = from; r < to; r += 1) {
+                int x = table[msg[r]];
+                if (x >= 0) {
+                    msg[w] = symbols[_unplug[_core[_plug[x]]]];
+                    w += 1;
+                } else {
+                    w = other(msg, r, w, x);
+                }
+            }
+            return w;
+        }
+        int epoch = newEpoch();
+        int held = heldNotches(notch, posn);
+        for (int r = from; r < to; r += 1) {
+            int x = table[msg[r]];
+            if (x < 0) {
+                w = other(msg, r, w, x);
+                continue;
+            }
+            int advance = rotating
+                & steps[held | (notch[last][posn[last]] ? 1 : 0)];
+            if ((advance & 1) != 0) {
+                posn[last] = posn[last] + 1 == n ? 0 : posn[last] + 1;
+            }
+            advance >>>= 1;
+            if (advance != 0) {
+                for (int k = last - 1; advance != 0;
+                     k -= 1, advance >>>= 1) {
+                    if ((advance & 1) != 0) {
+                        posn[k] = posn[k] + 1 == n ? 0 : posn[k] + 1;
+                    }
+                }
+                epoch = newEpoch();
+                held = heldNotches(notch, posn);
+            }
+            int y = hop(fwd[last], posn[last], _plug[x], n);
+            if (stamp[y] != epoch) {
+                int z = y;
+                for (int k = last - 1; k >= 0; k -= 1) {
+                    z = hop(fwd[k], posn[k], z, n);
+                }
+                z = _core[z];
+                for (int k = 0; k < last; k += 1) {
+                    z = hop(bwd[k], posn[k], z, n);
+                }
+                segment[y] = z;
+                stamp[y] = epoch;
+            }
+            y = hop(bwd[last], posn[last], segment[y], n);
+            msg[w] = symbols[_unplug[y]];
+            w += 1;
+        }
+        return w;
+    }
+
+    /** Handle MSG[R], whose class X is not a symbol, with converted
+     *  characters to be stored from MSG[W] on, and return the new W. */
+    static int other(char[] msg, int r, int w, int x) {
+        if (x == CharClass.PASS) {
+            msg[w] = msg[r];
+            return w + 1;
+        } else if (x == CharClass.SKIP) {
+            return w;
+        }
+        throw EnigmaException.error("character out of range");
+    }
+
+    /** Return the notch mask (see Stepping.table) of the slots other than
+     *  the rightmost, whose notch tables are NOTCH and positions POSN.
+     *  It changes only at a turnover. */
+    private static int heldNotches(boolean[][] notch, int[] posn) {
+        int result = 0;
+        for (int k = 0; k < posn.length - 1; k += 1) {
+            result = (result | (notch[k][posn[k]] ? 1 : 0)) << 1;
+        }
+        return result;
+    }
+
+    /** Invalidate all entries of _segment and return the epoch with
+     *  which entries valid from now on are stamped. */
+    private int newEpoch() {
+        if (_epoch == Integer.MAX_VALUE) {
+            Arrays.fill(_stamp, 0);
+            _epoch = 0;
+        }
+        _epoch += 1;
+        return _epoch;
+    }
+
+    /** Return the contact reached from X through a rotor with table
+     *  TABLE at setting POSN, for an alphabet of size N. */
+    static int hop(int[] table, int posn, int x, int n) {
+        int y = x + posn;
+        if (y >= n) {
+            y -= n;
+        }
+        y = table[y] - posn;
+        return y < 0 ? y + n : y;
+    }
+
+    /** A kernel that takes each character through every moving slot and
+     *  checks every notch, keeping no segment table, which pays when
+     *  turnovers are frequent enough to keep segments short. */
+    private static class Direct extends Kernel {
+
+        /** A kernel for SHAPE and the current setup of M. */
+        Direct(Shape shape, Machine M) {
+            super(shape, M);
+        }
+
+        @Override
+        int run(char[] msg, int from, int to, CharClass classes) {
+            int[][] fwd = _shape._fwd, bwd = _shape._bwd;
+            boolean[][] notch = _shape._notch;
+            int[] steps = _shape._steps, posn = _posn, core = _core;
+            int[] plug = _plug, unplug = _unplug;
+            int[] table = classes.classes();
+            char[] symbols = classes.symbols();
+            int m = posn.length, n = core.length, rotating = _shape._rotating;
+            int w = from;
+            for (int r = from; r < to; r += 1) {
+                int x = table[msg[r]];
+                if (x < 0) {
+                    w = other(msg, r, w, x);
+                    continue;
+                }
+                int notches = 0;
+                for (int k = 0; k < m; k += 1) {
+                    notches = notches << 1 | (notch[k][posn[k]] ? 1 : 0);
+                }
+                int advance = rotating & steps[notches];
+                for (int k = m - 1; advance != 0; k -= 1, advance >>>= 1) {
+                    if ((advance & 1) != 0) {
+                        posn[k] = posn[k] + 1 == n ? 0 : posn[k] + 1;
+                    }
+                }
+                int y = plug[x];
+                for (int k = m - 1; k >= 0; k -= 1) {
+                    y = hop(fwd[k], posn[k], y, n);
+                }
+                y = core[y];
+                for (int k = 0; k < m; k += 1) {
+                    y = hop(bwd[k], posn[k], y, n);
+                }
+                msg[w] = symbols[unplug[y]];
+                w += 1;
+            }
+            return w;
+        }
+    }
+
+    /** A kernel for exactly three moving slots, with the rotor chain
+     *  unrolled. */
+    private static class Three extends Kernel {
+
+        /** A kernel for SHAPE, which has three moving slots, and the
+         *  current setup of M. */
+        Three(Shape shape, Machine M) {
+            super(shape, M);
+            _f0 = shape._fwd[0];
+            _f1 = shape._fwd[1];
+            _f2 = shape._fwd[2];
+            _b0 = shape._bwd[0];
+            _b1 = shape._bwd[1];
+            _b2 = shape._bwd[2];
+            _n0 = shape._notch[0];
+            _n1 = shape._notch[1];
+            _n2 = shape._notch[2];
+        }
+
+        @Override
+        int run(char[] msg, int from, int to, CharClass classes) {
+            int[] steps = _shape._steps, core = _core;
+            int[] plug = _plug, unplug = _unplug;
+            int[] table = classes.classes();
+            char[] symbols = classes.symbols();
+            int rotating = _shape._rotating, n = core.length;
+            int p0 = _posn[0], p1 = _posn[1], p2 = _posn[2];
+            int w = from;
+            try {
+                for (int r = from; r < to; r += 1) {
+                    int x = table[msg[r]];
+                    if (x < 0) {
+                        w = other(msg, r, w, x);
+                        continue;
+                    }
+                    int advance = rotating & steps[(_n0[p0] ? 4 : 0)
+                                                   | (_n1[p1] ? 2 : 0)
+                                                   | (_n2[p2] ? 1 : 0)];
+                    if ((advance & 1) != 0) {
+                        p2 = p2 + 1 == n ? 0 : p2 + 1;
+                    }
+                    if ((advance & 2) != 0) {
+                        p1 = p1 + 1 == n ? 0 : p1 + 1;
+                    }
+                    if ((advance & 4) != 0) {
+                        p0 = p0 + 1 == n ? 0 : p0 + 1;
+                    }
+                    int y = plug[x];
+                    y = hop(_f2, p2, y, n);
+                    y = hop(_f1, p1, y, n);
+                    y = hop(_f0, p0, y, n);
+                    y = core[y];
+                    y = hop(_b0, p0, y, n);
+                    y = hop(_b1, p1, y, n);
+                    y = hop(_b2, p2, y, n);
+                    msg[w] = symbols[unplug[y]];
+                    w += 1;
+                }
+                return w;
+            } finally {
+                _posn[0] = p0;
+                _posn[1] = p1;
+                _posn[2] = p2;
+            }
+        }
+
+        /** Forward tables of the three slots, left to right. */
+        private final int[] _f0, _f1, _f2;
+        /** Inverse tables of the three slots, left to right. */
+        private final int[] _b0, _b1, _b2;
+        /** Notch tables of the three slots, left to right. */
+        private final boolean[] _n0, _n1, _n2;
+    }
+
+    /** The tables for the moving slots of a machine that depend only on
+     *  their rotors and the stepping model. */
+    static final class Shape {
+
+        /** The tables for the rotors in slots COREEND and up of ROTORS,
+         *  stepping according to the table STEPS. */
+        Shape(Rotor[] rotors, int coreEnd, int[] steps) {
+            int m = rotors.length - coreEnd;
+            _fwd = new int[m][];
+            _bwd = new int[m][];
+            _notch = new boolean[m][];
+            _steps = steps;
+            for (int k = 0; k < m; k += 1) {
+                Rotor rotor = rotors[coreEnd + k];
+                Permutation perm = rotor.permutation();
+                int n = perm.size();
+                _fwd[k] = new int[n];
+                _bwd[k] = new int[n];
+                _notch[k] = new boolean[n];
+                for (int x = 0; x < n; x += 1) {
+                    _fwd[k][x] = perm.permute(x);
+                    _bwd[k][x] = perm.invert(x);
+                    _notch[k][x] = rotor.notchAt(x);
+                }
+                if (rotor.rotates()) {
+                    _rotating |= 1 << (m - 1 - k);
+                }
+            }
+        }
+
+        /** Forward and inverse tables of each slot, left to right. */
+        private final int[][] _fwd, _bwd;
+        /** _notch[k][p] is true iff slot K has a notch at position P. */
+        private final boolean[][] _notch;
+        /** Stepping table (see Stepping.table). */
+        private final int[] _steps;
+        /** Mask of the slots, numbered as in _steps, whose rotors can
+         *  advance. */
+        private int _rotating;
+    }
+
+    /** Identifies a Shape: the rotors in the moving slots, the numbers of
+     *  slots and pawls, and the stepping model.  The rotors are held
+     *  weakly, so that cached shapes do not keep rotors and their wirings
+     *  (see WiringCache) alive; a key whose rotors have been reclaimed
+     *  equals no other key and is removed by purge. */
+    private static final class ShapeKey {
+
+        /** The key for the rotors in slots COREEND and up of ROTORS, with
+         *  PAWLS pawls stepping according to STEPPING, whose references
+         *  to the rotors are queued on QUEUE, if not null, once
+         *  cleared. */
+        ShapeKey(Rotor[] rotors, int coreEnd, int pawls, Stepping stepping,
+                 ReferenceQueue<Rotor> queue) {
+            _rotors = new ArrayList<>(rotors.length - coreEnd);
+            int hash = pawls * 31 + stepping.hashCode();
+            for (int r = coreEnd; r < rotors.length; r += 1) {
+                _rotors.add(new RotorRef(rotors[r], this, queue));
+                hash = hash * 31 + System.identityHashCode(rotors[r]);
+            }
+            _pawls = pawls;
+            _stepping = stepping;
+            _hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ShapeKey)) {
+                return false;
+            }
+            ShapeKey other = (ShapeKey) obj;
+            if (_pawls != other._pawls || _stepping != other._stepping
+                || _rotors.size() != other._rotors.size()) {
+                return false;
+            }
+            for (int k = 0; k < _rotors.size(); k += 1) {
+                Rotor rotor = _rotors.get(k).get();
+                if (rotor == null || rotor != other._rotors.get(k).get()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Rotors in the moving slots, compared by identity. */
+        private final List<RotorRef> _rotors;
+        /** Number of pawls. */
+        private final int _pawls;
+        /** Stepping model. */
+        private final Stepping _stepping;
+        /** Hash of the rotors, pawls and stepping model. */
+        private final int _hash;
+    }
+
+    /** A weak reference to a rotor in a ShapeKey, which it remembers so
+     *  that the key can be removed once the reference is cleared. */
+    private static final class RotorRef extends WeakReference<Rotor> {
+        /** A reference to ROTOR in KEY, queued on QUEUE if not null. */
+        RotorRef(Rotor rotor, ShapeKey key, ReferenceQueue<Rotor> queue) {
+            super(rotor, queue);
+            _key = key;
+        }
+
+        /** The key holding me. */
+        private final ShapeKey _key;
+    }
+
+    /** Shapes built so far. */
+    private static final ConcurrentHashMap<ShapeKey, Shape> SHAPES =
+        new ConcurrentHashMap<>();
+
+    /** Queue on which cleared references to the rotors of keys in SHAPES
+     *  appear. */
+    private static final ReferenceQueue<Rotor> QUEUE =
+        new ReferenceQueue<>();
+
+    /** Number of shapes kept before the cache is cleared. */
+    private static final int MAX_SHAPES = 256;
+
+    /** My shape. */
+    protected final Shape _shape;
+
+    /** Composition of the slots left of the moving ones. */
+    protected final int[] _core;
+
+    /** The rotors of my machine, by slot. */
+    private final Rotor[] _rotors;
+
+    /** Plugboard and its inverse. */
+    protected final int[] _plug, _unplug;
+
+    /** Positions of the moving slots, left to right. */
+    protected final int[] _posn;
+
+    /** Composition of every slot left of the rightmost with the core,
+     *  for the current segment; _segment[x] is valid iff _stamp[x] is
+     *  _epoch. */
+    private final int[] _segment, _stamp;
+
+    /** Number of the current segment. */
+    private int _epoch;
+}
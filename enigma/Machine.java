@@ -1,6 +1,7 @@
 package enigma;
 
 import java.util.Collection;
+import java.util.HashMap;
 
 /** Class that represents a complete enigma machine.
  *  @author Yuan Xie.
@@ -9,15 +10,31 @@ class Machine {
 
     /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      *  and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
-     *  available rotors. */
+     *  available rotors.  The rotors step as in the service Enigma. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, allRotors, Stepping.ENIGMA);
+    }
+
+    /** A new machine as for Machine(ALPHA, NUMROTORS, PAWLS, ALLROTORS),
+     *  whose rotors step according to STEPPING. */
+    Machine(Alphabet alpha, int numRotors, int pawls,
+            Collection<Rotor> allRotors, Stepping stepping) {
+        _stepping = stepping;
+        _steps = stepping.table(pawls);
+        _notch = new boolean[pawls];
+        _advance = new boolean[pawls];
         _alphabet = alpha;
+        _strict = CharClass.strict(alpha);
         _numRotors = numRotors;
         _pawls = pawls;
         _myRotors = new Rotor[_numRotors];
-        _allRotors = allRotors.toArray();
-        _plugboardPerm = new Permutation("", _alphabet);
+        _allRotors = new HashMap<>();
+        for (Rotor rotor : allRotors) {
+            _allRotors.put(rotor.name(), rotor);
+        }
+        setPlugboard(new Permutation("", _alphabet));
+        _core = new int[_alphabet.size()];
     }
 
     /** Return the number of rotor slots I have. */
@@ -30,6 +47,28 @@ class Machine {
         return _pawls;
     }
 
+    /** Return my stepping model. */
+    Stepping stepping() {
+        return _stepping;
+    }
+
+    /** Return the number of leftmost slots, starting with the reflector,
+     *  composed into core(), or 0 if I am not fully set up. */
+    int coreEnd() {
+        return _coreEnd;
+    }
+
+    /** Return the composition of the rotors in my first coreEnd() slots
+     *  (see composeCore).  It must not be modified. */
+    int[] core() {
+        return _core;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
     /** Return my rotors represented as an array. */
     Rotor[] myRotors() {
         return _myRotors;
@@ -40,12 +79,19 @@ class Machine {
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
         for (int r = 0; r < rotors.length; r += 1) {
-            for (int s = 0; s < _allRotors.length; s += 1) {
-                if (((Rotor) _allRotors[s]).name().equals(rotors[r])) {
-                    _myRotors[r] = (Rotor) _allRotors[s];
-                }
+            Rotor rotor = _allRotors.get(rotors[r]);
+            if (rotor != null) {
+                _myRotors[r] = rotor;
             }
         }
+        composeCore();
+    }
+
+    /** Set my rotor slots to ROTORS, which must be among my available
+     *  rotors (ROTORS[0] is the reflector). */
+    void insertRotors(Rotor[] rotors) {
+        System.arraycopy(rotors, 0, _myRotors, 0, rotors.length);
+        composeCore();
     }
 
     /** Set my rotors according to SETTING, which must be a string of
@@ -55,60 +101,346 @@ class Machine {
         for (int r = 0; r < setting.length(); r += 1) {
             _myRotors[r + 1].set(setting.charAt(r));
         }
+        restartTrace();
+        composeCore();
+    }
+
+    /** Set my rotors to SETTINGS, the positions of the rotors in slots
+     *  1 and up, as for setRotors(String). */
+    void setRotors(int[] settings) {
+        for (int r = 0; r < settings.length; r += 1) {
+            _myRotors[r + 1].set(settings[r]);
+        }
+        restartTrace();
+        composeCore();
+    }
+
+    /** Record the characters I convert from now on in TRACE, or stop
+     *  recording them if TRACE is null.  While tracing, characters are
+     *  converted one at a time (as by REFERENCE) whatever my engine. */
+    void setTrace(Trace trace) {
+        _trace = trace;
+        _epoch += 1;
+        _converter = null;
+    }
+
+    /** Return my trace, or null if I have none. */
+    Trace trace() {
+        return _trace;
+    }
+
+    /** Start a new message in my trace, if any. */
+    private void restartTrace() {
+        if (_trace != null) {
+            _trace.restart();
+        }
+    }
+
+    /** Return the current positions of the rotors in slots 1 and up, in
+     *  the form accepted by setRotors(int[]). */
+    int[] positions() {
+        int[] result = new int[_myRotors.length - 1];
+        for (int r = 1; r < _myRotors.length; r += 1) {
+            result[r - 1] = _myRotors[r].setting();
+        }
+        return result;
+    }
+
+    /** Advance the rotors as if COUNT characters had been converted,
+     *  without converting any. */
+    void skip(long count) {
+        for (long k = 0; k < count; k += 1) {
+            step();
+        }
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
         _plugboardPerm = plugboard;
+        int n = _alphabet.size();
+        _plug = new int[n];
+        _unplug = new int[n];
+        for (int x = 0; x < n; x += 1) {
+            _plug[x] = plugboard.permute(x);
+            _unplug[x] = plugboard.invert(x);
+        }
+        _setup = null;
+        _converter = null;
+    }
+
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboardPerm;
+    }
+
+    /** Return the table of my plugboard: entry X is its image of X.  It
+     *  must not be modified. */
+    int[] plug() {
+        return _plug;
+    }
+
+    /** Return the table of the inverse of my plugboard.  It must not be
+     *  modified. */
+    int[] unplug() {
+        return _unplug;
+    }
+
+    /** Return a record of my current setup: the composition of my fixed
+     *  slots and the tables of my plugboard, and, once compiled, my
+     *  converter (see setUp). */
+    Setup setup() {
+        _setup = new Setup(_core, _coreEnd, _plug, _unplug);
+        return _setup;
+    }
+
+    /** Set me up as insertRotors(ROTORS), setRotors(POSITIONS) and
+     *  setPlugboard(PLUGBOARD) would, except that the composition of my
+     *  fixed slots and the plugboard tables are taken from SETUP, which
+     *  must have been returned by setup() on a machine of my
+     *  configuration set up in that way.  The converter recorded in SETUP
+     *  is reused if it was compiled for me with my current engine. */
+    void setUp(Rotor[] rotors, int[] positions, Permutation plugboard,
+               Setup setup) {
+        System.arraycopy(rotors, 0, _myRotors, 0, rotors.length);
+        for (int r = 0; r < positions.length; r += 1) {
+            _myRotors[r + 1].set(positions[r]);
+        }
+        restartTrace();
+        _core = setup._core;
+        _coreEnd = setup._coreEnd;
+        _plugboardPerm = plugboard;
+        _plug = setup._plug;
+        _unplug = setup._unplug;
+        _setup = setup;
+        Compiled compiled = setup._compiled;
+        _converter = compiled != null && compiled._machine == this
+            && compiled._epoch == _epoch ? compiled._converter : null;
+    }
+
+    /** Return my cipher engine. */
+    CipherEngine engine() {
+        return _engine;
+    }
+
+    /** Use ENGINE for converting runs of characters from now on. */
+    void setEngine(CipherEngine engine) {
+        _engine = engine;
+        _epoch += 1;
+        _converter = null;
+    }
+
+    /** Return the cache of permutations used by the CACHED engine,
+     *  creating one of DEFAULT_STATE_CACHE bytes if I have none. */
+    StateCache stateCache() {
+        if (_stateCache == null) {
+            _stateCache = new StateCache(_alphabet.size(),
+                                         DEFAULT_STATE_CACHE);
+        }
+        return _stateCache;
+    }
+
+    /** Use CACHE as my cache of permutations, which may be shared with
+     *  other machines of the same configuration. */
+    void setStateCache(StateCache cache) {
+        _stateCache = cache;
+        _epoch += 1;
+        _converter = null;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        Boolean[] advance = new Boolean[_myRotors.length];
-        for (int r = 0; r < advance.length; r += 1) {
-            advance[r] = false;
-        }
-        for (int r = _myRotors.length - numPawls() + 1;
-             r < _myRotors.length; r += 1) {
-            if (_myRotors[r].atNotch()) {
-                advance[r] = true;
-                advance[r - 1] = true;
-            }
-        }
-        advance[_myRotors.length - 1] = true;
-        for (int r = 0; r < _myRotors.length; r += 1) {
-            if (advance[r]) {
-                _myRotors[r].advance();
-            }
-        }
+        int advanced = step();
         int result = _plugboardPerm.permute(c);
-        for (int r = _myRotors.length - 1; r >= 0; r -= 1) {
+        for (int r = _myRotors.length - 1; r >= _coreEnd; r -= 1) {
             result = _myRotors[r].convertForward(result);
         }
-
-        for (int r = 1; r < _myRotors.length; r += 1) {
+        result = _core[result];
+        for (int r = _coreEnd; r < _myRotors.length; r += 1) {
             result = _myRotors[r].convertBackward(result);
         }
-        return _plugboardPerm.invert(result);
+        result = _plugboardPerm.invert(result);
+        if (_trace != null) {
+            _trace.record(c, result, advanced, _myRotors);
+        }
+        return result;
+    }
+
+    /** Advance the rotors in the slots with pawls according to my
+     *  stepping model, by table lookup if it has been compiled into one.
+     *  Return the slots advanced as bits, bit 0 standing for the rightmost
+     *  slot; slots beyond the 32 rightmost are left out. */
+    private int step() {
+        int len = _myRotors.length, first = len - _pawls;
+        if (_steps != null) {
+            int notches = 0;
+            for (int r = first; r < len; r += 1) {
+                notches = notches << 1 | (_myRotors[r].atNotch() ? 1 : 0);
+            }
+            int advance = _steps[notches], result = advance;
+            for (int r = len - 1; advance != 0; r -= 1, advance >>>= 1) {
+                if ((advance & 1) != 0) {
+                    _myRotors[r].advance();
+                }
+            }
+            return result;
+        } else {
+            for (int r = first; r < len; r += 1) {
+                _notch[r - first] = _myRotors[r].atNotch();
+            }
+            _stepping.advance(_notch, _advance);
+            int result = 0;
+            for (int r = first; r < len; r += 1) {
+                if (_advance[r - first]) {
+                    _myRotors[r].advance();
+                    if (len - 1 - r < Integer.SIZE) {
+                        result |= 1 << (len - 1 - r);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /** Set _coreEnd to the number of leftmost rotor slots (starting with
+     *  the reflector) whose rotors cannot move while a message is being
+     *  converted, and set _core to the composition of those rotors: in
+     *  forward through each of them from right to left, off the reflector
+     *  and back out.  Rotors in slots without pawls, and non-rotating rotors
+     *  anywhere, keep their settings until the next call to setRotors or
+     *  insertRotors, which are therefore the only places where the settings
+     *  of these rotors may change. */
+    private void composeCore() {
+        _setup = null;
+        _converter = null;
+        int firstPawl = _myRotors.length - numPawls();
+        int end;
+        for (end = 0; end < _myRotors.length; end += 1) {
+            if (_myRotors[end] == null) {
+                _coreEnd = 0;
+                return;
+            }
+            if (end >= firstPawl && _myRotors[end].rotates()) {
+                break;
+            }
+        }
+        int size = _alphabet.size();
+        _core = new int[size];
+        for (int x = 0; x < size; x += 1) {
+            int y = x;
+            for (int r = end - 1; r >= 0; r -= 1) {
+                y = _myRotors[r].convertForward(y);
+            }
+            for (int r = 1; r < end; r += 1) {
+                y = _myRotors[r].convertBackward(y);
+            }
+            _core[x] = y;
+        }
+        _coreEnd = end;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        msg = msg.toUpperCase();
-        String result = "";
-        for (int r = 0; r < msg.length(); r += 1) {
-            result += Character.toString(_alphabet.toChar(convert(
-                    _alphabet.toInt(msg.charAt(r)))));
+        char[] result = msg.toUpperCase().toCharArray();
+        convert(result, 0, result.length);
+        return new String(result);
+    }
+
+    /** Replace the characters MSG[FROM .. TO-1], which must be in my
+     *  alphabet, by their encodings/decodings, updating the state of the
+     *  rotors accordingly. */
+    void convert(char[] msg, int from, int to) {
+        convert(msg, from, to, _strict);
+    }
+
+    /** Convert the characters MSG[FROM .. TO-1] in place, treating each
+     *  according to its class in CLASSES: symbols are encoded/decoded,
+     *  updating the state of the rotors, PASS characters are copied
+     *  unchanged and SKIP characters are dropped, moving the rest down.
+     *  Return the end of the result in MSG.  Uses a converter compiled by
+     *  my engine for the current rotors and plugboard, or
+     *  convertEach if my engine cannot handle them or I am tracing. */
+    int convert(char[] msg, int from, int to, CharClass classes) {
+        if (_converter == null) {
+            _converter = _trace != null ? null : _engine.compile(this);
+            if (_converter == null) {
+                _converter = CipherEngine.Builtin.REFERENCE.compile(this);
+            }
+            if (_setup != null) {
+                _setup._compiled = new Compiled(this, _epoch, _converter);
+            }
         }
-        return result;
+        return _converter.convert(msg, from, to, classes);
+    }
+
+    /** Convert MSG[FROM .. TO-1] as for convert(char[], int, int,
+     *  CharClass), one character at a time through my rotors. */
+    int convertEach(char[] msg, int from, int to, CharClass classes) {
+        int w = from;
+        for (int r = from; r < to; r += 1) {
+            int x = classes.of(msg[r]);
+            if (x >= 0) {
+                msg[w] = classes.toChar(convert(x));
+                w += 1;
+            } else {
+                w = Kernel.other(msg, r, w, x);
+            }
+        }
+        return w;
+    }
+
+    /** What stays fixed while a machine converts with one settings line,
+     *  computed once so that the line can be applied again without
+     *  composing the fixed slots or compiling a converter (see setUp). */
+    static final class Setup {
+
+        /** A setup with composed fixed slots CORE, of which there are
+         *  COREEND, and plugboard tables PLUG and UNPLUG. */
+        private Setup(int[] core, int coreEnd, int[] plug, int[] unplug) {
+            _core = core;
+            _coreEnd = coreEnd;
+            _plug = plug;
+            _unplug = unplug;
+        }
+
+        /** Composition of the fixed slots. */
+        private final int[] _core;
+        /** Number of fixed slots. */
+        private final int _coreEnd;
+        /** Plugboard tables. */
+        private final int[] _plug, _unplug;
+        /** The converter compiled for this setup, if any. */
+        private volatile Compiled _compiled;
+    }
+
+    /** A converter compiled for a Setup, with the machine and engine
+     *  epoch (see _epoch) for which it was compiled. */
+    private static final class Compiled {
+
+        /** CONVERTER, compiled for MACHINE in engine epoch EPOCH. */
+        Compiled(Machine machine, int epoch,
+                 CipherEngine.Converter converter) {
+            _machine = machine;
+            _epoch = epoch;
+            _converter = converter;
+        }
+
+        /** The machine. */
+        private final Machine _machine;
+        /** The machine's engine epoch. */
+        private final int _epoch;
+        /** The converter. */
+        private final CipherEngine.Converter _converter;
     }
 
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
+    /** Classification of characters admitting only _alphabet. */
+    private final CharClass _strict;
+
     /** Number of rotors I have. */
     private int _numRotors;
 
@@ -118,12 +450,56 @@ class Machine {
     /** Collection of my rotors represented as an Array. */
     private Rotor[] _myRotors;
 
-    /** Collection of all available rotors represented as an Array. Used arrays
-     *  because of the convenient toArray method for collections and because
-     *  they are ordered. */
-    private Object[] _allRotors;
+    /** All available rotors, indexed by name. */
+    private HashMap<String, Rotor> _allRotors;
+
+    /** Composition of the rotors in my first _coreEnd slots, which stay
+     *  put during conversion (see composeCore).  It is replaced rather
+     *  than modified, since converters and Setups share it. */
+    private int[] _core;
+
+    /** Number of leftmost rotor slots folded into _core. */
+    private int _coreEnd;
+
+    /** How my rotors step. */
+    private final Stepping _stepping;
+
+    /** _stepping compiled into a table for my number of pawls (see
+     *  Stepping.table), or null if there are too many pawls. */
+    private final int[] _steps;
+
+    /** Scratch notch and advance flags for stepping without _steps. */
+    private final boolean[] _notch, _advance;
+
+    /** Compiles _converter. */
+    private CipherEngine _engine = CipherEngine.Builtin.KERNEL;
+
+    /** Conversion loop for my current rotors and plugboard, or null if it
+     *  has yet to be compiled. */
+    private CipherEngine.Converter _converter;
+
+    /** Default size of _stateCache, in bytes. */
+    static final long DEFAULT_STATE_CACHE = 16L << 20;
+
+    /** Permutations of states for the CACHED engine, or null if not yet
+     *  needed. */
+    private StateCache _stateCache;
+
+    /** Records the characters I convert, or null. */
+    private Trace _trace;
 
     /** The plugboard for this machine. */
     private Permutation _plugboardPerm;
 
+    /** Tables of _plugboardPerm and its inverse, shared like _core. */
+    private int[] _plug, _unplug;
+
+    /** The setup recorded by setup() or installed by setUp, while it is
+     *  still current, or null. */
+    private Setup _setup;
+
+    /** Number of changes of engine, state cache or trace, after which
+     *  converters compiled before must not be reused. */
+    private int _epoch;
+
 }
@@ -3,6 +3,7 @@ package enigma;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static enigma.TestUtils.*;
@@ -80,4 +81,305 @@ public class MachineTest {
         assertEquals("IHBDQQMTQZ", machine.convert("Helloworld"));
     }
 
+    /** Return the conversion of C by the rotors in SLOTS, stepping them
+     *  first, without any of Machine's precomputation. PAWLS is the
+     *  number of pawls. */
+    private int referenceConvert(Rotor[] slots, int pawls, int c) {
+        boolean[] advance = new boolean[slots.length];
+        for (int r = slots.length - pawls + 1; r < slots.length; r += 1) {
+            if (slots[r].atNotch()) {
+                advance[r] = advance[r - 1] = true;
+            }
+        }
+        advance[slots.length - 1] = true;
+        for (int r = 0; r < slots.length; r += 1) {
+            if (advance[r]) {
+                slots[r].advance();
+            }
+        }
+        for (int r = slots.length - 1; r >= 0; r -= 1) {
+            c = slots[r].convertForward(c);
+        }
+        for (int r = 1; r < slots.length; r += 1) {
+            c = slots[r].convertBackward(c);
+        }
+        return c;
+    }
+
+    @Test
+    public void checkStationaryRotorsFolded() {
+        allrotors.addAll(List.of(b, beta, i, ii, iii, iv));
+        machine = new Machine(UPPER, 5, 3, allrotors);
+        machine.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        machine.setRotors("XDUT");
+        Rotor[] reference = {
+            new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)),
+            new FixedRotor("Beta",
+                           new Permutation(NAVALA.get("Beta"), UPPER)),
+            new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER), "Q"),
+            new MovingRotor("II", new Permutation(NAVALA.get("II"), UPPER),
+                            "E"),
+            new MovingRotor("III",
+                            new Permutation(NAVALA.get("III"), UPPER), "V"),
+        };
+        String setting = "XDUT";
+        for (int r = 0; r < setting.length(); r += 1) {
+            reference[r + 1].set(setting.charAt(r));
+        }
+        for (int k = 0; k < 2000; k += 1) {
+            int c = (k * 7) % 26;
+            assertEquals(referenceConvert(reference, 3, c),
+                         machine.convert(c));
+        }
+    }
+
+    /** Return the settings of the moving rotors of machine after N
+     *  keystrokes from AXD (I, II, III), stepping with MODEL. */
+    private String positionsAfter(Stepping model, int n) {
+        allrotors.clear();
+        allrotors.addAll(List.of(b, beta, i, ii, iii, iv));
+        machine = new Machine(UPPER, 5, 3, allrotors, model);
+        machine.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        machine.setRotors("AADU");
+        for (int k = 0; k < n; k += 1) {
+            machine.convert(0);
+        }
+        String result = "";
+        for (int r = 2; r < 5; r += 1) {
+            result += UPPER.toChar(machine.myRotors()[r].setting());
+        }
+        return result;
+    }
+
+    @Test
+    public void checkSteppingModels() {
+        assertEquals("ADV", positionsAfter(Stepping.ENIGMA, 1));
+        assertEquals("AEW", positionsAfter(Stepping.ENIGMA, 2));
+        assertEquals("BFX", positionsAfter(Stepping.ENIGMA, 3));
+        assertEquals("ADV", positionsAfter(Stepping.ODOMETER, 1));
+        assertEquals("AEW", positionsAfter(Stepping.ODOMETER, 2));
+        assertEquals("AEX", positionsAfter(Stepping.ODOMETER, 3));
+        assertEquals("AEW", positionsAfter(Stepping.IRREGULAR, 2));
+        assertEquals("BEX", positionsAfter(Stepping.IRREGULAR, 3));
+        assertEquals("CEY", positionsAfter(Stepping.IRREGULAR, 4));
+        assertEquals(Stepping.ODOMETER, Stepping.named("odometer"));
+    }
+
+    @Test
+    public void checkSteppingTables() {
+        boolean[] notch = new boolean[3], advance = new boolean[3];
+        for (Stepping model : Stepping.values()) {
+            int[] table = model.table(3);
+            for (int mask = 0; mask < 8; mask += 1) {
+                for (int k = 0; k < 3; k += 1) {
+                    notch[k] = (mask & 1 << (2 - k)) != 0;
+                }
+                model.advance(notch, advance);
+                for (int k = 0; k < 3; k += 1) {
+                    assertEquals(advance[k], (table[mask] & 1 << (2 - k)) != 0);
+                }
+            }
+        }
+        assertNull(Stepping.ENIGMA.table(Stepping.TABLE_PAWLS + 1));
+    }
+
+    @Test
+    public void checkSkipAndRestorePositions() {
+        allrotors.addAll(List.of(b, beta, i, ii, iii, iv));
+        machine = new Machine(UPPER, 5, 3, allrotors);
+        machine.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        machine.setRotors("AADT");
+        int[] start = machine.positions();
+        machine.convert("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        int[] after = machine.positions();
+        String next = machine.convert("HELLOWORLD");
+        machine.setRotors(start);
+        machine.skip(26);
+        assertArrayEquals(after, machine.positions());
+        assertEquals(next, machine.convert("HELLOWORLD"));
+    }
+
+    @Test
+    public void checkKernelMatchesSingleCharacters() {
+        allrotors.addAll(List.of(b, beta, i, ii, iii, iv));
+        for (int pawls = 2; pawls <= 4; pawls += 1) {
+            machine = new Machine(UPPER, 5, pawls, allrotors);
+            String[] names = {"B", pawls == 4 ? "IV" : "Beta", "I", "II",
+                              "III"};
+            machine.insertRotors(names);
+            machine.setRotors("QDEU");
+            machine.setPlugboard(new Permutation("(AQ) (EP) (TZ)", UPPER));
+            String msg = "";
+            for (int k = 0; k < 3000; k += 1) {
+                msg += UPPER.toChar((k * 11) % 26);
+            }
+            String expected = "";
+            int[] start = machine.positions();
+            for (int k = 0; k < msg.length(); k += 1) {
+                expected += UPPER.toChar(machine.convert(UPPER.toInt(
+                    msg.charAt(k))));
+            }
+            int[] end = machine.positions();
+            machine.setRotors(start);
+            assertEquals(expected, machine.convert(msg));
+            assertArrayEquals(end, machine.positions());
+        }
+    }
+
+    @Test
+    public void checkPassThrough() {
+        allrotors.addAll(List.of(b, beta, i, ii, iii, iv));
+        machine = new Machine(UPPER, 5, 3, allrotors);
+        machine.insertRotors(new String[] {"B", "Beta", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        String expected = machine.convert("HELLOWORLD");
+        machine.setRotors("AXLE");
+        char[] msg = "Hello,\u0000 World! 42".toCharArray();
+        int end = machine.convert(msg, 0, msg.length,
+                                  CharClass.passThrough(UPPER));
+        assertEquals(expected.substring(0, 5) + ", " + expected.substring(5)
+                     + "! 42", new String(msg, 0, end));
+        machine.setRotors("AXLE");
+        assertEquals(expected, machine.convert("HELLOWORLD"));
+    }
+
+    @Test
+    public void checkCharClassesBounded() {
+        CharClass upper = CharClass.strict(UPPER);
+        assertSame(upper, CharClass.strict(new CharacterRange('A', 'Z')));
+        assertNotSame(upper, CharClass.passThrough(UPPER));
+        for (char last = 'B'; last < 'T'; last += 1) {
+            CharClass.strict(new CharacterRange('A', last));
+        }
+        CharClass again = CharClass.strict(UPPER);
+        assertNotSame(upper, again);
+        assertEquals(upper.of('Q'), again.of('Q'));
+    }
+
+    @Test
+    public void checkRingSettings() {
+        Config config = navalConfig();
+        machine = config.newMachine();
+        new Settings("* B I II III AAA", config).apply(machine);
+        assertEquals("BDZGO", machine.convert("AAAAA"));
+        new Settings("* B I II III AAA BBB", config).apply(machine);
+        assertEquals("EWTYX", machine.convert("AAAAA"));
+        new Settings("* B I II III AAA AAA (AB)", config).apply(machine);
+        String unringed = machine.convert("HELLOWORLD");
+        new Settings("* B I II III AAA (AB)", config).apply(machine);
+        assertEquals(unringed, machine.convert("HELLOWORLD"));
+        Rotor ringed = config.rotor("II", 5);
+        assertEquals(5, ringed.ring());
+        assertTrue(ringed == config.rotor("II", 5));
+        for (int p = 0; p < 26; p += 1) {
+            ringed.set(p);
+            config.rotor("II").set(p - 5);
+            for (int x = 0; x < 26; x += 1) {
+                assertEquals(config.rotor("II").convertForward(x),
+                             ringed.convertForward(x));
+            }
+            assertEquals(config.rotor("II").notchAt(p), ringed.notchAt(p));
+        }
+    }
+
+    @Test
+    public void checkSettingsReuseSetup() {
+        int[] compiles = new int[1];
+        CipherEngine counting = new CipherEngine() {
+            @Override
+            public String id() {
+                return "counting-kernel";
+            }
+
+            @Override
+            public Converter compile(Machine M) {
+                compiles[0] += 1;
+                return Kernel.of(M);
+            }
+        };
+        CipherEngine.register(counting);
+        Config config = navalConfig();
+        Machine reference = config.newMachine();
+        reference.setEngine(CipherEngine.Builtin.REFERENCE);
+        machine = config.newMachine();
+        machine.setEngine(counting);
+        String[] lines = { "* B I II III QEV ABC (AQ) (EP)",
+                           "* B III I II AAZ (TZ)" };
+        Settings first = new Settings(lines[0], config),
+            second = new Settings(lines[1], config);
+        Settings[] keys = { first, second },
+            referenceKeys = { new Settings(lines[0], config),
+                              new Settings(lines[1], config) };
+        String msg = "HELLOWORLDTHEQUICKBROWNFOX".repeat(40);
+        first.apply(machine);
+        int[] core = machine.core(), plug = machine.plug();
+        for (int round = 0; round < 3; round += 1) {
+            for (int k = 0; k < keys.length; k += 1) {
+                keys[k].apply(machine);
+                String result = machine.convert(msg);
+                referenceKeys[k].apply(reference);
+                assertEquals(reference.convert(msg), result);
+            }
+        }
+        assertEquals(2, compiles[0]);
+        first.apply(machine);
+        assertSame(core, machine.core());
+        assertSame(plug, machine.plug());
+        machine.setEngine(CipherEngine.Builtin.KERNEL);
+        machine.setEngine(counting);
+        first.apply(machine);
+        machine.convert(msg);
+        assertEquals(3, compiles[0]);
+        Machine other = config.newMachine();
+        other.setEngine(counting);
+        first.apply(other);
+        assertSame(core, other.core());
+        other.convert(msg);
+        assertEquals(4, compiles[0]);
+        machine.setRotors("AAA");
+        assertNotSame(core, machine.core());
+        referenceKeys[0].apply(reference);
+        String expected = reference.convert(msg);
+        first.apply(machine);
+        assertSame(core, machine.core());
+        assertEquals(expected, machine.convert(msg));
+    }
+
+    @Test
+    public void checkEnginesAgree() {
+        String rotors = "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+            + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+            + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+            + "IV MJ (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+            + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+            + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX)"
+            + " (SZ) (TV)\n";
+        String msg = "";
+        for (int k = 0; k < 3000; k += 1) {
+            msg += (char) ('A' + (k * 7 + k / 26) % 26);
+        }
+        for (int pawls = 2; pawls <= 4; pawls += 1) {
+            Config config = new Config(new ConfigLexer(
+                "A-Z\n" + (pawls + 2) + " " + pawls + "\n" + rotors));
+            String setting = "* B BETA "
+                + String.join(" ", List.of("I", "II", "III", "IV")
+                              .subList(0, pawls));
+            for (String positions : new String[] {
+                    "AQEVD (TR) (AC)", "ZPDUE", "DMEIV (AZ)" }) {
+                String line = setting + " " + positions.substring(4 - pawls);
+                machine = config.newMachine();
+                new Settings(line, config).apply(machine);
+                machine.setEngine(CipherEngine.Builtin.REFERENCE);
+                String expected = machine.convert(msg)
+                    + Arrays.toString(machine.positions());
+                for (CipherEngine engine : CipherEngine.engines()) {
+                    machine = config.newMachine();
+                    new Settings(line, config).apply(machine);
+                    machine.setEngine(engine);
+                    assertEquals(engine.id(), expected, machine.convert(msg)
+                                 + Arrays.toString(machine.positions()));
+                }
+            }
+        }
+    }
 }
@@ -1,12 +1,24 @@
 package enigma;
 
+import java.io.BufferedWriter;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
 
-import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static enigma.EnigmaException.*;
 
@@ -16,16 +28,50 @@ import static enigma.EnigmaException.*;
 public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
-     *  specified by ARGS, where 1 <= ARGS.length <= 3.
+     *  specified by ARGS, where 1 <= ARGS.length <= 3, not counting
+     *  leading options.  The option --pipeline overlaps input,
+     *  enciphering and output on separate threads.  With --pass-through,
+     *  characters of messages that are not in the alphabet (digits,
+     *  punctuation, blanks) are copied to the output unchanged without
+     *  moving the rotors, lower-case letters are converted as upper case,
+     *  and message lines keep their form instead of being grouped in
+     *  fives.  With --cache=DIR, the output of each settings line and the
+     *  messages that follow it is kept in the directory DIR (see
+     *  SectionCache) and reused when the same section is seen again; the
+     *  numbers of sections found and not found there are reported on the
+     *  standard error; if another run is using DIR, this one runs without
+     *  the cache.  --cache-limit=MB bounds the size of the cache,
+     *  which is 256 MB by default.  --engine=NAME converts with the cipher
+     *  engine NAME (see CipherEngine); --engine=auto measures the engines
+     *  on the configuration and uses the fastest (see Tuner), remembering
+     *  the choice in the file named by --engine-cache=FILE, which is
+     *  .enigma-engines in the home directory by default.  --trace=N keeps
+     *  the last N characters converted (see Trace) and prints them on the
+     *  standard error if there is an error.  Input in gzip or zlib format
+     *  is recognized and inflated (see Compression), and --gzip compresses
+     *  the output in gzip format.  --state-cache=MB converts with the
+     *  CACHED engine, unless --engine says otherwise, keeping the
+     *  permutations of frequent rotor states in MB megabytes (see
+     *  StateCache), and reports its use on the standard error.
      *  ARGS[0] is the name of a configuration file.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.
+     *  Alternatively, ARGS may be
+     *      --batch [--jobs=N] CONFIG INPUTS OUTDIR
+     *  to process many input files concurrently with one configuration
+     *  (see Batch). */
     public static void main(String... args) {
         try {
+            if (args.length > 0 && args[0].equals("--batch")) {
+                if (Batch.run(Arrays.copyOfRange(args, 1, args.length))) {
+                    return;
+                }
+                System.exit(1);
+            }
             new Main(args).process();
             return;
         } catch (EnigmaException excp) {
@@ -36,16 +82,70 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        int k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            if (args[k].equals("--pipeline")) {
+                _pipelined = true;
+            } else if (args[k].equals("--pass-through")) {
+                _passThrough = true;
+            } else if (args[k].startsWith("--cache=")) {
+                _cacheDir = Paths.get(args[k].substring(8));
+            } else if (args[k].startsWith("--cache-limit=")) {
+                try {
+                    _cacheLimit = Long.parseLong(args[k].substring(14));
+                } catch (NumberFormatException excp) {
+                    _cacheLimit = 0;
+                }
+                if (_cacheLimit <= 0) {
+                    throw error("bad cache limit: %s", args[k]);
+                }
+            } else if (args[k].startsWith("--engine=")) {
+                _engineName = args[k].substring(9);
+                if (!_engineName.equals(AUTO_ENGINE)) {
+                    CipherEngine.named(_engineName);
+                }
+            } else if (args[k].startsWith("--state-cache=")) {
+                try {
+                    _stateCacheSize = Long.parseLong(args[k].substring(14));
+                } catch (NumberFormatException excp) {
+                    _stateCacheSize = 0;
+                }
+                if (_stateCacheSize <= 0 || _stateCacheSize >= 1L << 20) {
+                    throw error("bad state cache size: %s", args[k]);
+                }
+            } else if (args[k].equals("--gzip")) {
+                _gzip = true;
+            } else if (args[k].startsWith("--trace=")) {
+                try {
+                    _traceSize = Integer.parseInt(args[k].substring(8));
+                } catch (NumberFormatException excp) {
+                    _traceSize = 0;
+                }
+                if (_traceSize <= 0) {
+                    throw error("bad trace size: %s", args[k]);
+                }
+            } else if (args[k].startsWith("--engine-cache=")) {
+                _engineCache = Paths.get(args[k].substring(15));
+            } else {
+                throw error("unknown option %s", args[k]);
+            }
+        }
+        args = Arrays.copyOfRange(args, k, args.length);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _config = ConfigLexer.open(args[0]);
 
         if (args.length > 1) {
             _input = getInput(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            try {
+                _input = new InputStreamReader(Compression.input(System.in),
+                                               Charset.defaultCharset());
+            } catch (IOException excp) {
+                throw error("could not read standard input");
+            }
         }
 
         if (args.length > 2) {
@@ -55,10 +155,21 @@ public final class Main {
         }
     }
 
-    /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    /** A Main that applies machines built from CONFIGURATION to the
+     *  messages in INPUT, sending the results to OUTPUT. */
+    Main(Config configuration, Reader input, PrintStream output) {
+        _configuration = configuration;
+        _input = input;
+        _output = output;
+    }
+
+    /** Return a Reader reading from the file named NAME, inflating it if
+     *  it is compressed. */
+    private Reader getInput(String name) {
         try {
-            return new Scanner(new File(name));
+            return new InputStreamReader(
+                Compression.input(new FileInputStream(name)),
+                Charset.defaultCharset());
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -75,216 +186,356 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
+     *  results to _output.  With the --pipeline option, reading,
+     *  enciphering and writing proceed concurrently; with --pass-through,
+     *  characters outside the alphabet are copied unchanged; with
+     *  --cache, sections are looked up in the cache; with --trace, the
+     *  last characters converted are printed on the standard error if
+     *  there is an error; with --state-cache, the use of the state cache
+     *  is reported on the standard error. */
+    void process() {
         Machine M = readConfig();
-        String nextLine = _input.nextLine();
-        if (!nextLine.contains("*")) {
-            throw EnigmaException.error("First line must be a settings line.");
+        if (_traceSize > 0) {
+            M.setTrace(new Trace(M, _traceSize));
         }
-        while (_input.hasNextLine()) {
-            String setting = nextLine.toUpperCase();
-            setUp(M, setting);
-            int i = 0;
-            int j = 0;
-            Rotor[] a = M.myRotors();
-            for (int r = 0; r < a.length; r += 1) {
-                if (a[r].rotates()) {
-                    i += 1;
-                } else if (a[r].reflecting()) {
-                    j += 1;
-                }
-            }
-            if (i != M.numPawls()) {
-                throw EnigmaException.error("Wrong number of moving rotors.");
-            }
-            if (j > 1) {
-                throw EnigmaException.error("Can only have one reflector.");
-            }
-            nextLine = _input.nextLine().toUpperCase();
-            while (!nextLine.contains("*")) {
-                nextLine = nextLine.replace(" ", "");
-                String result = M.convert(nextLine);
-                printMessageLine(result);
-                if (nextLine.equals("")) {
-                    _output.println();
-                }
-                if (_input.hasNextLine()) {
-                    nextLine = _input.nextLine().toUpperCase();
-                } else {
-                    break;
-                }
+        try {
+            process(M);
+        } catch (EnigmaException excp) {
+            if (M.trace() != null) {
+                System.err.print(M.trace().dump());
             }
+            throw excp;
+        }
+        if (_stateCacheSize > 0) {
+            StateCache cache = M.stateCache();
+            System.err.printf("state cache: %d hits, %d misses (%.1f%% hit),"
+                              + " %d admitted, %d evicted%n",
+                              cache.hits(), cache.misses(),
+                              100 * cache.hitRate(), cache.admissions(),
+                              cache.evictions());
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Apply M to the messages in _input as for process(), compressing
+     *  the output with --gzip.  The compressed output is finished even if
+     *  there is an error, so that what was written can be read. */
+    private void process(Machine M) {
+        if (!_gzip) {
+            process(M, writer(_output));
+            return;
+        }
+        Compression.Output compressed = Compression.output(_output);
+        Writer output = writer(compressed);
         try {
-            String characterRange = _config.nextLine().toUpperCase();
-            if (characterRange.equals("ABCDEFGHIJKLMNOPQRSTUVWXYZ")) {
-                _alphabet = new CharacterRange('A', 'Z');
-
-            } else if (characterRange.contains(("-"))) {
-                char first = characterRange.charAt(0);
-                char last = characterRange.charAt(2);
-                _alphabet = new CharacterRange(first, last);
-            } else {
-                _alphabet = new GeneralAlphabet(characterRange);
-            }
-            if (!_config.hasNext()) {
-                throw EnigmaException.error("Number of rotors not specified.");
+            process(M, output);
+        } finally {
+            try {
+                output.flush();
+                compressed.finish();
+            } catch (IOException excp) {
+                throw error("could not write output");
             }
-            int numRotors = _config.nextInt();
-            if (!_config.hasNextInt()) {
-                throw EnigmaException.error("Number of pawls not specified.");
+        }
+    }
+
+    /** Return a buffered writer of characters to OUT. */
+    private static Writer writer(OutputStream out) {
+        return new BufferedWriter(
+            new OutputStreamWriter(out, Charset.defaultCharset()), 1 << 16);
+    }
+
+    /** Apply M to the messages in _input, writing to OUTPUT. */
+    private void process(Machine M, Writer output) {
+        SectionCache opened =
+            _cacheDir == null ? null
+            : SectionCache.open(_cacheDir, _cacheLimit << 20);
+        if (opened == null) {
+            if (_cacheDir != null) {
+                System.err.printf("cache %s is in use; not caching%n",
+                                  _cacheDir);
             }
-            int numPawls = _config.nextInt();
-            rotorName = _config.next().toUpperCase();
-            rotors = new ArrayList<>(1);
-            while (_config.hasNext()) {
-                rotors.add(readRotor());
+            pipeline(_input, output, M).run(_pipelined);
+            return;
+        }
+        try (SectionCache cache = opened) {
+            try {
+                processSections(M, output, cache);
+            } finally {
+                System.err.printf("cache: %d hits, %d misses%n",
+                                  cache.hits(), cache.misses());
             }
-            return new Machine(_alphabet, numRotors, numPawls, rotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
         }
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
+    /** Return a pipeline applying M to INPUT and writing to OUTPUT. */
+    private Pipeline pipeline(Reader input, Writer output, Machine M) {
+        return new Pipeline(input, output, M, line -> setUp(M, line),
+                            _passThrough ? CharClass.passThrough(_alphabet)
+                            : null);
+    }
+
+    /** Apply M to _input a section at a time, writing to OUTPUT and
+     *  looking sections up in CACHE (see Sections). */
+    private void processSections(Machine M, Writer output,
+                                 SectionCache cache) {
+        Sections sections = new Sections(M, output, cache);
         try {
-            String name = rotorName;
-            String typeNotch = _config.next();
-            String type = Character.toString(typeNotch.charAt(0));
-            String next = _config.next();
-            String cycles = "";
-            while (next.contains("(") && _config.hasNext()) {
-                if (next.contains(" ")) {
-                    throw EnigmaException.error("Space inside cycle.");
-                }
-                if (!next.contains(")")) {
-                    throw EnigmaException.error("Missing ).");
-                }
-                next = next.toUpperCase();
-                cycles += next;
-                next = _config.next();
-            }
-            if (!_config.hasNext()) {
-                cycles += next.toUpperCase();
-            }
-            rotorName = next.toUpperCase();
-            Permutation permutation = new Permutation(cycles,  _alphabet);
-            if (type.equals("R")) {
-                if (!permutation.derangement()) {
-                    throw EnigmaException.error("Reflector's permutation "
-                            + "must be a derangement.");
-                }
-                return new Reflector(name, permutation);
-            } else if (type.equals("N")) {
-                return new FixedRotor(name, permutation);
-            } else {
-                return new MovingRotor(name, permutation,
-                        typeNotch.substring(1));
+            sections.run();
+        } catch (IOException excp) {
+            throw error("could not process input");
+        } finally {
+            try {
+                output.flush();
+            } catch (IOException excp) {
+                /* Nothing more can be written. */
             }
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
         }
     }
 
-    /** Set M according to the specification given on SETTINGS,
-     *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) {
-        String[] settingsArray = settings.split(" ");
-        if (!settingsArray[0].equals("*")) {
-            throw EnigmaException.error("Wrong specification "
-                    + "format for settings.");
+    /** Splits _input into sections, each a line (normally a settings
+     *  line) and the lines up to the next settings line, and processes
+     *  them one at a time.  Each section is read whole, with its lines
+     *  ended by newlines, and its key computed; then either its output
+     *  is copied from the cache, or the section is processed as usual and
+     *  its output added to the cache.  A section's output does not depend
+     *  on what precedes it, since its settings line sets up the machine
+     *  completely, so the result is as for the uncached case.  Buffers
+     *  are reused from section to section, so that a miss costs little
+     *  beyond computing the key. */
+    private class Sections {
+
+        /** Sections for machine M, writing to OUTPUT and using CACHE. */
+        Sections(Machine M, Writer output, SectionCache cache) {
+            _machine = M;
+            _out = output;
+            _cache = cache;
+            _fingerprint = SectionCache.fingerprint(_configuration,
+                                                    _passThrough);
+            _pipeline = pipeline(_input, _result, M);
         }
-        int i = 1;
-        for (int r = 1; r < settingsArray.length; r += 1) {
-            for (int s = 0; s < rotors.size(); s += 1) {
-                String name = rotors.get(s).name();
-                if (name.equals(settingsArray[r])) {
-                    i += 1;
+
+        /** Process all of _input. */
+        void run() throws IOException {
+            char[] in = new char[1 << 16];
+            boolean settings = false, skipNewline = false, partial = false;
+            int n;
+            while ((n = _input.read(in, 0, in.length)) >= 0) {
+                for (int k = 0; k < n; k += 1) {
+                    char c = in[k];
+                    if (skipNewline) {
+                        skipNewline = false;
+                        if (c == '\n') {
+                            continue;
+                        }
+                    }
+                    if (c == '\n' || c == '\r') {
+                        skipNewline = c == '\r';
+                        endLine(settings);
+                        settings = partial = false;
+                    } else {
+                        append(c);
+                        settings |= c == '*';
+                        partial = true;
+                    }
                 }
             }
+            if (partial) {
+                endLine(settings);
+            }
+            if (_lines > 0) {
+                section(_line, false);
+            } else {
+                _pipeline.reset(new CharArrayReader(_text, 0, 0), _out);
+                _pipeline.run(false);
+            }
         }
-        String setting = settingsArray[i].toUpperCase();
-        if (setting.length() < M.numRotors() - 1) {
-            throw EnigmaException.error("Must specify setting for all rotors "
-                    + "except for reflector or rotor does not exist.");
+
+        /** Append C to the line being read. */
+        private void append(char c) {
+            if (_length == _text.length) {
+                _text = Arrays.copyOf(_text, 2 * _text.length);
+            }
+            _text[_length] = c;
+            _length += 1;
         }
-        if (i - 1 != M.numRotors()) {
-            throw EnigmaException.error("Incorrect number of rotors.");
+
+        /** End the line being read, which is a settings line iff
+         *  SETTINGS.  A settings line ends the section before it. */
+        private void endLine(boolean settings) throws IOException {
+            if (settings && _lines > 0) {
+                section(_line, true);
+                System.arraycopy(_text, _line, _text, 0, _length - _line);
+                _length -= _line;
+                _line = _lines = 0;
+            }
+            if (_lines == 0) {
+                _settingsFirst = settings;
+            }
+            append('\n');
+            _line = _length;
+            _lines += 1;
         }
-        String[] myRotors = new String[M.numRotors()];
-        for (int r = 1; r < i; r += 1) {
-            int a = 0;
-            while (a < r - 1) {
-                if (myRotors[a].equals(settingsArray[r])) {
-                    throw EnigmaException.error("Rotor is repeated.");
+
+        /** Process the section in _text[0 .. END-1], which is followed by
+         *  another iff MORE. */
+        private void section(int end, boolean more) throws IOException {
+            if (_lines == 1 && _settingsFirst) {
+                if (more) {
+                    setUp(_machine, new String(_text, 0, end - 1));
                 }
-                a += 1;
+                return;
             }
-            myRotors[r - 1] = settingsArray[r];
-        }
-        String plugboardCycle = "";
-        for (int r = i + 1; r < settingsArray.length; r += 1) {
-            if (!settingsArray[r].contains("(")
-                    || !settingsArray[r].contains(")")) {
-                throw EnigmaException.error("Plugboard cycles should "
-                        + "be of the form (XY).");
+            byte[] key = _cache.key(_fingerprint, _text, end);
+            char[] cached = _cache.get(key);
+            if (cached != null) {
+                _out.write(cached);
+                return;
+            }
+            _result.reset();
+            _pipeline.reset(new CharArrayReader(_text, 0, end), _result);
+            try {
+                _pipeline.run(false);
+            } finally {
+                _out.write(_result.buffer(), 0, _result.size());
             }
-            plugboardCycle += " " + settingsArray[r];
+            _cache.put(key, _result.buffer(), _result.size());
         }
-        M.insertRotors(myRotors);
-        if (!M.myRotors()[0].reflecting()) {
-            throw EnigmaException.error("First rotor of machine must "
-                    + "be a reflector.");
+
+        /** The machine. */
+        private final Machine _machine;
+        /** Destination of output. */
+        private final Writer _out;
+        /** The section cache. */
+        private final SectionCache _cache;
+        /** Digest of the configuration and mode. */
+        private final byte[] _fingerprint;
+        /** Output of the section being processed. */
+        private final Capture _result = new Capture();
+        /** Pipeline applied to each section not in the cache. */
+        private final Pipeline _pipeline;
+        /** Text of the section being read, including a partial line. */
+        private char[] _text = new char[1 << 12];
+        /** Number of characters in _text. */
+        private int _length;
+        /** Start of the partial line in _text. */
+        private int _line;
+        /** Number of complete lines in _text. */
+        private int _lines;
+        /** True iff the first line in _text is a settings line. */
+        private boolean _settingsFirst;
+    }
+
+    /** A CharArrayWriter whose contents can be read in place. */
+    private static class Capture extends CharArrayWriter {
+        /** Return my buffer, whose first size() characters are what has
+         *  been written to me. */
+        char[] buffer() {
+            return buf;
         }
-        for (int r = 0; r < setting.length(); r += 1) {
-            if (!_alphabet.contains(setting.charAt(r))) {
-                throw EnigmaException.error("Setting out of alphabet range.");
-            }
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config, unless I was given a configuration already, that
+     *  converts with the engine given by --engine or --state-cache, if
+     *  any. */
+    private Machine readConfig() {
+        if (_configuration == null) {
+            _configuration = new Config(_config);
+        }
+        _alphabet = _configuration.alphabet();
+        Machine result = _configuration.newMachine();
+        if (_stateCacheSize > 0) {
+            result.setStateCache(new StateCache(_alphabet.size(),
+                                                _stateCacheSize << 20));
+            result.setEngine(CipherEngine.Builtin.CACHED);
+        }
+        if (_engineName == null) {
+            return result;
+        } else if (_engineName.equals(AUTO_ENGINE)) {
+            result.setEngine(Tuner.choose(_configuration, _engineCache));
+        } else {
+            result.setEngine(CipherEngine.named(_engineName));
         }
-        M.setRotors(setting);
-        M.setPlugboard(new Permutation(plugboardCycle, _alphabet));
+        return result;
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        int i = 0;
-        String s = "";
-        for (int r = 0; r < msg.length(); r += 1) {
-            i += 1;
-            s += Character.toString(msg.charAt(r));
-            if (r == msg.length() - 1) {
-                _output.println(s);
-            } else if (i == 5) {
-                _output.print(s + " ");
-                i = 0;
-                s = "";
-            }
+    /** Set M according to the specification given on SETTINGS,
+     *  which must have the format specified in the assignment.  Compiled
+     *  settings are kept in _settingsCache, so that a settings line
+     *  that recurs costs only a lookup. */
+    private void setUp(Machine M, String settings) {
+        String key = Settings.normalize(settings);
+        Settings compiled = _settingsCache.get(key);
+        if (compiled == null) {
+            compiled = new Settings(key, _configuration);
+            _settingsCache.put(key, compiled);
         }
+        compiled.apply(M);
     }
 
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private Reader _input;
 
     /** Source of machine configuration. */
-    private Scanner _config;
+    private ConfigLexer _config;
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
-    /** Name of rotor that I am currently in the process of adding. */
-    private String rotorName;
+    /** True iff input should be processed as a concurrent pipeline. */
+    private boolean _pipelined;
+
+    /** True iff characters outside the alphabet pass through messages
+     *  unchanged. */
+    private boolean _passThrough;
+
+    /** Directory of the section cache, or null if none. */
+    private Path _cacheDir;
 
-    /** ArrayList of all available rotors. */
-    private ArrayList<Rotor> rotors;
+    /** Size limit of the section cache, in megabytes. */
+    private long _cacheLimit = DEFAULT_CACHE_LIMIT;
+
+    /** Default size limit of the section cache, in megabytes. */
+    private static final long DEFAULT_CACHE_LIMIT = 256;
+
+    /** True iff the output is compressed. */
+    private boolean _gzip;
+
+    /** Number of characters traced, or 0 if none. */
+    private int _traceSize;
+
+    /** Size of the state cache, in megabytes, or 0 if not given. */
+    private long _stateCacheSize;
+
+    /** Name of the cipher engine to use, AUTO_ENGINE to choose one by
+     *  measurement, or null for the default. */
+    private String _engineName;
+
+    /** File recording the engines chosen by measurement. */
+    private Path _engineCache =
+        Paths.get(System.getProperty("user.home"), ".enigma-engines");
+
+    /** Value of --engine asking for the engine to be chosen by
+     *  measurement. */
+    private static final String AUTO_ENGINE = "auto";
+
+    /** The configuration read from _config. */
+    private Config _configuration;
+
+    /** Maximum number of compiled settings lines kept. */
+    private static final int SETTINGS_CACHE_SIZE = 64;
+
+    /** Recently used compiled settings, keyed by normalized settings line,
+     *  in least-recently-used order. */
+    private final LinkedHashMap<String, Settings> _settingsCache =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                Settings> eldest) {
+                return size() > SETTINGS_CACHE_SIZE;
+            }
+        };
 }
@@ -15,6 +15,10 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
+        _notchAt = new boolean[perm.size()];
+        for (int r = 0; r < notches.length(); r += 1) {
+            _notchAt[alphabet().toInt(notches.charAt(r))] = true;
+        }
     }
 
     @Override
@@ -24,12 +28,17 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        for (int r = 0; r < _notches.length(); r += 1) {
-            if (setting() == alphabet().toInt(_notches.charAt(r))) {
-                return true;
-            }
-        }
-        return false;
+        return _notchAt[setting()];
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
+    }
+
+    @Override
+    Rotor copy(Permutation perm) {
+        return new MovingRotor(name(), perm, _notches);
     }
 
     @Override
@@ -40,4 +49,7 @@ class MovingRotor extends Rotor {
     /** Notch positions for this rotor. */
     private String _notches;
 
+    /** _notchAt[P] is true iff this rotor has a notch at setting P. */
+    private boolean[] _notchAt;
+
 }
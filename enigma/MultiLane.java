@@ -0,0 +1,246 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Many machines with the same rotor order, run in lockstep over the
+ *  same message, as in a search over keys.  Each lane has its own rotor
+ *  positions and plugboard.  The state is kept as flat arrays of primitives
+ *  rather than Rotor objects: one array of positions per moving slot, with
+ *  an entry per lane, and one core and plugboard table per lane, stored
+ *  end to end.  Each character of the message is converted for all lanes
+ *  before the next, and the results are passed a column at a time to a
+ *  Scorer.
+ *  @author Yuan Xie.
+ */
+class MultiLane {
+
+    /** Accumulates a score for each lane from the characters it
+     *  produces. */
+    interface Scorer {
+        /** Prepare to score LANES lanes whose output symbols are in the
+         *  range 0 .. N-1. */
+        void start(int lanes, int n);
+
+        /** Account for the next character of output of each lane, where
+         *  OUT[k] is the symbol produced by lane K. */
+        void accept(int[] out);
+
+        /** Return the score of LANE for the characters accepted since
+         *  start. */
+        double score(int lane);
+    }
+
+    /** Scores lanes by the index of coincidence of their output: the
+     *  probability that two distinct characters drawn from it are equal,
+     *  multiplied by the alphabet size, so that uniformly random text
+     *  scores about 1 and natural language considerably more. */
+    static class Coincidence implements Scorer {
+        @Override
+        public void start(int lanes, int n) {
+            _n = n;
+            _length = 0;
+            if (_counts == null || _counts.length != lanes * n) {
+                _counts = new int[lanes * n];
+            } else {
+                Arrays.fill(_counts, 0);
+            }
+        }
+
+        @Override
+        public void accept(int[] out) {
+            int[] counts = _counts;
+            for (int k = 0, base = 0; base < counts.length;
+                 k += 1, base += _n) {
+                counts[base + out[k]] += 1;
+            }
+            _length += 1;
+        }
+
+        @Override
+        public double score(int lane) {
+            if (_length < 2) {
+                return 0.0;
+            }
+            long sum = 0;
+            for (int x = lane * _n; x < (lane + 1) * _n; x += 1) {
+                sum += (long) _counts[x] * (_counts[x] - 1);
+            }
+            return (double) sum * _n / ((double) _length * (_length - 1));
+        }
+
+        /** Alphabet size. */
+        private int _n;
+        /** Number of characters accepted. */
+        private long _length;
+        /** _counts[LANE * _n + X] is the number of Xs produced by LANE. */
+        private int[] _counts;
+    }
+
+    /** A set of LANES machines with the alphabet, pawls and stepping model
+     *  of CONFIG, whose slots hold ORDER (ORDER[0] being the reflector).
+     *  Every lane must be set before run is called. */
+    MultiLane(Config config, Rotor[] order, int lanes) {
+        if (order.length != config.numRotors()) {
+            throw error("Incorrect number of rotors.");
+        }
+        _order = order.clone();
+        _lanes = lanes;
+        _n = config.alphabet().size();
+        int slots = order.length, pawls = config.numPawls();
+        int firstPawl = slots - pawls;
+        int end = firstPawl;
+        while (end < slots && !order[end].rotates()) {
+            end += 1;
+        }
+        _coreEnd = end;
+        int m = slots - end;
+        _steps = config.stepping().table(pawls);
+        if (_steps == null) {
+            throw error("too many pawls for a multi-lane machine");
+        }
+        _fwd = new int[m][];
+        _bwd = new int[m][];
+        _notch = new boolean[m][];
+        for (int k = 0; k < m; k += 1) {
+            Rotor rotor = order[end + k];
+            _fwd[k] = new int[_n];
+            _bwd[k] = new int[_n];
+            _notch[k] = new boolean[_n];
+            for (int x = 0; x < _n; x += 1) {
+                _fwd[k][x] = rotor.permutation().permute(x);
+                _bwd[k][x] = rotor.permutation().invert(x);
+                _notch[k][x] = rotor.notchAt(x);
+            }
+            if (rotor.rotates()) {
+                _rotating |= 1 << (m - 1 - k);
+            }
+        }
+        _posn = new int[m][lanes];
+        _start = new int[m][lanes];
+        _core = new int[lanes * _n];
+        _plug = new int[lanes * _n];
+        _unplug = new int[lanes * _n];
+        _out = new int[lanes];
+    }
+
+    /** Return the number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Set LANE to start with the rotors in slots 1 and up at POSITIONS,
+     *  as for Machine.setRotors(int[]), and with plugboard PLUGBOARD. */
+    void set(int lane, int[] positions, Permutation plugboard) {
+        if (positions.length != _order.length - 1) {
+            throw error("wrong number of rotor positions");
+        }
+        int base = lane * _n;
+        for (int x = 0; x < _n; x += 1) {
+            int y = x;
+            for (int r = _coreEnd - 1; r >= 0; r -= 1) {
+                y = hop(_order[r], r == 0 ? 0 : positions[r - 1], y, true);
+            }
+            for (int r = 1; r < _coreEnd; r += 1) {
+                y = hop(_order[r], positions[r - 1], y, false);
+            }
+            _core[base + x] = y;
+            _plug[base + x] = plugboard.permute(x);
+            _unplug[base + x] = plugboard.invert(x);
+        }
+        for (int k = 0; k < _start.length; k += 1) {
+            _start[k][lane] = positions[_coreEnd - 1 + k];
+        }
+    }
+
+    /** Return the conversion of X by ROTOR at setting POSN, forward iff
+     *  FORWARD. */
+    private int hop(Rotor rotor, int posn, int x, boolean forward) {
+        Permutation perm = rotor.permutation();
+        int y = perm.wrap(x + posn);
+        y = forward ? perm.permute(y) : perm.invert(y);
+        return perm.wrap(y - posn);
+    }
+
+    /** Run every lane from its starting positions over MESSAGE, a sequence
+     *  of symbol indices, passing each column of results to SCORER, which
+     *  is first started. */
+    void run(int[] message, Scorer scorer) {
+        int m = _posn.length, n = _n, lanes = _lanes;
+        int[][] posn = _posn, fwd = _fwd, bwd = _bwd;
+        boolean[][] notch = _notch;
+        int[] steps = _steps, core = _core, plug = _plug, unplug = _unplug;
+        int[] out = _out;
+        for (int k = 0; k < m; k += 1) {
+            System.arraycopy(_start[k], 0, posn[k], 0, lanes);
+        }
+        scorer.start(lanes, n);
+        for (int c : message) {
+            for (int lane = 0; lane < lanes; lane += 1) {
+                int notches = 0;
+                for (int k = 0; k < m; k += 1) {
+                    notches = notches << 1
+                        | (notch[k][posn[k][lane]] ? 1 : 0);
+                }
+                int advance = steps[notches] & _rotating;
+                for (int k = m - 1; advance != 0;
+                     k -= 1, advance >>>= 1) {
+                    if ((advance & 1) != 0) {
+                        int p = posn[k][lane] + 1;
+                        posn[k][lane] = p == n ? 0 : p;
+                    }
+                }
+            }
+            for (int lane = 0, base = 0; lane < lanes;
+                 lane += 1, base += n) {
+                int y = plug[base + c];
+                for (int k = m - 1; k >= 0; k -= 1) {
+                    y = Kernel.hop(fwd[k], posn[k][lane], y, n);
+                }
+                y = core[base + y];
+                for (int k = 0; k < m; k += 1) {
+                    y = Kernel.hop(bwd[k], posn[k][lane], y, n);
+                }
+                out[lane] = unplug[base + y];
+            }
+            scorer.accept(out);
+        }
+    }
+
+    /** Rotors in each slot. */
+    private final Rotor[] _order;
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Alphabet size. */
+    private final int _n;
+
+    /** Number of leftmost slots composed into each lane's core. */
+    private final int _coreEnd;
+
+    /** Stepping table for my pawls (see Stepping.table). */
+    private final int[] _steps;
+
+    /** Mask of the moving slots, numbered as in _steps, whose rotors can
+     *  advance. */
+    private int _rotating;
+
+    /** Forward and inverse wirings of each moving slot, left to right. */
+    private final int[][] _fwd, _bwd;
+
+    /** _notch[k][p] is true iff moving slot K has a notch at P. */
+    private final boolean[][] _notch;
+
+    /** _posn[k][LANE] is the current position of moving slot K in LANE,
+     *  and _start[k][LANE] its starting position. */
+    private final int[][] _posn, _start;
+
+    /** Core, plugboard and inverse plugboard tables, _n entries per lane
+     *  starting at LANE * _n. */
+    private final int[] _core, _plug, _unplug;
+
+    /** Symbols produced by each lane for the current character. */
+    private final int[] _out;
+}
@@ -0,0 +1,75 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MultiLane class.
+ *  @author Yuan Xie.
+ */
+public class MultiLaneTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMultiLaneMatchesMachines() {
+        Config config = new Config(new ConfigLexer(
+            "A-Z\n5 3\n"
+            + "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+            + "II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+            + "III MV (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+            + "Beta N (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+            + "B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX)"
+            + " (SZ) (TV)\n"));
+        Rotor[] order = {config.rotor("B"), config.rotor("BETA"),
+                         config.rotor("III"), config.rotor("I"),
+                         config.rotor("II")};
+        String[] starts = {"AAAA", "QDEU", "ZZVE"};
+        String[] plugs = {"", "(AQ) (EP)", "(TZ) (BY) (HX)"};
+        MultiLane lanes = new MultiLane(config, order, starts.length);
+        int[] message = new int[700];
+        for (int k = 0; k < message.length; k += 1) {
+            message[k] = (k * 7) % 26;
+        }
+        for (int lane = 0; lane < starts.length; lane += 1) {
+            int[] posns = new int[4];
+            for (int r = 0; r < 4; r += 1) {
+                posns[r] = UPPER.toInt(starts[lane].charAt(r));
+            }
+            lanes.set(lane, posns, new Permutation(plugs[lane], UPPER));
+        }
+        int[][] produced = new int[starts.length][message.length];
+        lanes.run(message, new MultiLane.Scorer() {
+                private int _t;
+                public void start(int count, int n) {
+                    _t = 0;
+                }
+                public void accept(int[] out) {
+                    for (int lane = 0; lane < starts.length; lane += 1) {
+                        produced[lane][_t] = out[lane];
+                    }
+                    _t += 1;
+                }
+                public double score(int lane) {
+                    return 0.0;
+                }
+            });
+        for (int lane = 0; lane < starts.length; lane += 1) {
+            Machine reference = config.newMachine();
+            reference.insertRotors(order);
+            reference.setRotors(starts[lane]);
+            reference.setPlugboard(new Permutation(plugs[lane], UPPER));
+            for (int k = 0; k < message.length; k += 1) {
+                assertEquals(reference.convert(message[k]),
+                             produced[lane][k]);
+            }
+        }
+    }
+}
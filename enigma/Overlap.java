@@ -0,0 +1,394 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Checks a sheet of keys (settings lines) for overlapping stepping
+ *  sequences.  Each key is followed for a given number of characters
+ *  of traffic; two keys overlap if the machine passes through the same
+ *  state (rotors, rings and positions) under both, after which their
+ *  sequences coincide, and a key overlaps itself if its sequence repeats
+ *  within the traffic.  Only the stepping is simulated, on positions
+ *  packed into a long per state (see Stepper), and states are looked up
+ *  in hash tables of longs, which record every key reaching each state,
+ *  so that all the pairs of keys meeting there are reported.  The
+ *  states are split by hash among several tasks, each following every
+ *  key but keeping only its share of the states, so that the tasks run
+ *  in parallel without sharing anything.
+ *  @author Yuan Xie.
+ */
+public final class Overlap {
+
+    /** Report the overlaps among the keys as specified by ARGS, which have
+     *  the form
+     *      [ --NAME=VALUE ... ] CONFIG KEYS
+     *  where KEYS is a file of settings lines for the configuration
+     *  CONFIG, one per key, blank lines being ignored, and the options are
+     *      --length=N     characters of traffic per key (default 20000)
+     *      --threads=N    number of tasks (default: available processors)
+     *  Each overlap is printed on the standard output with the lines of
+     *  the keys and the offsets in their traffic of the first shared
+     *  state.  Exits with code 1 if there are overlaps or errors. */
+    public static void main(String... args) {
+        try {
+            Overlap overlap = options(args);
+            List<String> found = overlap.analyze();
+            for (String line : found) {
+                System.out.println(line);
+            }
+            System.out.printf("%d keys, %d characters each: %d overlaps%n",
+                              overlap._keys.size(), overlap._length,
+                              found.size());
+            if (found.isEmpty()) {
+                return;
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Return the analysis specified by ARGS (see main). */
+    private static Overlap options(String[] args) {
+        long length = DEFAULT_LENGTH;
+        int threads = Runtime.getRuntime().availableProcessors(), k;
+        for (k = 0; k < args.length && args[k].startsWith("--"); k += 1) {
+            if (args[k].startsWith("--length=")) {
+                length = number(args[k], args[k].substring(9));
+            } else if (args[k].startsWith("--threads=")) {
+                threads = (int) number(args[k], args[k].substring(10));
+            } else {
+                throw error("unknown option %s", args[k]);
+            }
+        }
+        if (args.length - k != 2) {
+            throw error("usage: java enigma.Overlap [--NAME=VALUE ...] "
+                        + "CONFIG KEYS");
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(args[k + 1]),
+                                       Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not read %s", args[k + 1]);
+        }
+        return new Overlap(Config.read(args[k]), lines, length, threads);
+    }
+
+    /** Return the value VALUE of option OPT as a positive number. */
+    private static long number(String opt, String value) {
+        try {
+            long result = Long.parseLong(value);
+            if (result > 0 && result < Integer.MAX_VALUE) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Reported below. */
+        }
+        throw error("bad value in %s", opt);
+    }
+
+    /** An analysis of the keys on the non-blank lines of LINES, settings
+     *  lines for CONFIG, over LENGTH characters of traffic each, split
+     *  among THREADS tasks.  Keys are numbered by line, from 1. */
+    Overlap(Config config, List<String> lines, long length, int threads) {
+        _alphabet = config.alphabet();
+        _stepping = config.stepping();
+        _pawls = config.numPawls();
+        _length = length;
+        _threads = threads;
+        _bits = Stepper.bits(_alphabet.size());
+        HashMap<List<Rotor>, Integer> groups = new HashMap<>();
+        for (int n = 0; n < lines.size(); n += 1) {
+            if (lines.get(n).isBlank()) {
+                continue;
+            }
+            Settings key;
+            try {
+                key = new Settings(Settings.normalize(lines.get(n)), config);
+            } catch (EnigmaException excp) {
+                throw error("line %d: %s", n + 1, excp.getMessage());
+            }
+            Integer group = groups.putIfAbsent(List.of(key.rotors()),
+                                               groups.size());
+            _keys.add(key);
+            _lines.add(n + 1);
+            _groups.add(group == null ? groups.size() - 1 : group);
+        }
+        int groupBits = Integer.SIZE
+            - Integer.numberOfLeadingZeros(Math.max(groups.size() - 1, 0));
+        _groupShift = _bits * (config.numRotors() - 1);
+        if (_groupShift + groupBits >= Long.SIZE) {
+            throw error("too many rotor positions to pack into a long");
+        }
+    }
+
+    /** Return a description of each overlap found, ordered by the keys
+     *  involved. */
+    List<String> analyze() {
+        ForkJoinPool pool = new ForkJoinPool(_threads);
+        TreeMap<Long, long[]> found = new TreeMap<>();
+        try {
+            ArrayList<Callable<Map<Long, long[]>>> tasks = new ArrayList<>();
+            for (int p = 0; p < _threads; p += 1) {
+                int part = p;
+                tasks.add(() -> scan(part));
+            }
+            for (Future<Map<Long, long[]>> result : pool.invokeAll(tasks)) {
+                for (Map.Entry<Long, long[]> e : result.get().entrySet()) {
+                    found.merge(e.getKey(), e.getValue(),
+                                (a, b) -> earlier(a, b) ? a : b);
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw new IllegalStateException(excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        ArrayList<String> result = new ArrayList<>();
+        for (Map.Entry<Long, long[]> e : found.entrySet()) {
+            int first = (int) (e.getKey() >>> 32),
+                second = e.getKey().intValue();
+            long[] at = e.getValue();
+            if (first == second) {
+                result.add(String.format("line %d repeats at %d the state "
+                                         + "%s it had at %d",
+                                         _lines.get(first), at[1],
+                                         state(at[2]), at[0]));
+            } else {
+                result.add(String.format("line %d at %d and line %d at %d "
+                                         + "share the state %s",
+                                         _lines.get(first), at[0],
+                                         _lines.get(second), at[1],
+                                         state(at[2])));
+            }
+        }
+        return result;
+    }
+
+    /** Return the first state shared with an earlier key (or an earlier
+     *  offset of the same key) for every pair of keys, among the states
+     *  belonging to part PART.  Pairs are keyed by the index of the
+     *  earlier key in the upper half and of the later one in the lower,
+     *  and values are {earlier offset, later offset, state}.  Every key
+     *  that has reached a state is kept with it, at its first offset
+     *  there, so that when several keys meet, each pair is found. */
+    private Map<Long, long[]> scan(int part) {
+        StateSet seen = new StateSet(_keys.size() * _length / _threads);
+        HashMap<Long, long[]> result = new HashMap<>();
+        for (int k = 0; k < _keys.size(); k += 1) {
+            Settings key = _keys.get(k);
+            Stepper walk = new Stepper(key.rotors(), _pawls, _stepping,
+                                       _bits);
+            walk.start(key.positions(), (long) _groups.get(k) << _groupShift);
+            for (long t = 0; t < _length; t += 1) {
+                long state = walk.next();
+                if (part(state) != part) {
+                    continue;
+                }
+                int slot = seen.slot(state);
+                boolean present = false;
+                for (int e = seen.first(slot); e >= 0; e = seen.next(e)) {
+                    long owner = seen.owner(e);
+                    present |= owner >>> 32 == k;
+                    long pair = owner & ~0xffffffffL | k;
+                    long[] at = { owner & 0xffffffffL, t, state };
+                    result.merge(pair, at, (a, b) -> earlier(a, b) ? a : b);
+                }
+                if (!present) {
+                    seen.add(slot, state, (long) k << 32 | t);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff the overlap A was found at a smaller offset of
+     *  the later key than B, or the same one and a smaller offset of the
+     *  earlier key. */
+    private static boolean earlier(long[] a, long[] b) {
+        return a[1] < b[1] || a[1] == b[1] && a[0] <= b[0];
+    }
+
+    /** Return the part, among _threads, to which STATE belongs. */
+    private int part(long state) {
+        long h = state * 0x9e3779b97f4a7c15L;
+        return (int) ((h >>> 32) * _threads >>> 32);
+    }
+
+    /** Return the positions in the packed STATE, as in a settings
+     *  line. */
+    private String state(long state) {
+        StringBuilder result = new StringBuilder();
+        for (int s = _groupShift - _bits; s >= 0; s -= _bits) {
+            result.append(_alphabet.toChar((int) (state >>> s
+                                                  & (1 << _bits) - 1)));
+        }
+        return result.toString();
+    }
+
+    /** A map from packed states, which are non-negative, to lists of
+     *  non-negative longs (owners), by open addressing.  The owners are
+     *  kept in chains of entries, each list beginning with the owner
+     *  added most recently. */
+    private static final class StateSet {
+
+        /** An empty map expected to hold about EXPECTED states. */
+        StateSet(long expected) {
+            long wanted = Math.max(2 * Math.min(expected, MAX_CAPACITY / 4),
+                                   16);
+            int capacity = Integer.highestOneBit((int) wanted) << 1;
+            _keys = new long[capacity];
+            _first = new int[capacity];
+            _owners = new long[capacity / 2];
+            _next = new int[capacity / 2];
+            Arrays.fill(_keys, -1);
+        }
+
+        /** Return the slot holding STATE, or the empty one where it
+         *  would go. */
+        int slot(long state) {
+            int mask = _keys.length - 1;
+            int k = (int) (state * 0x9e3779b97f4a7c15L >>> 40) & mask;
+            while (_keys[k] != -1 && _keys[k] != state) {
+                k = (k + 1) & mask;
+            }
+            return k;
+        }
+
+        /** Return the first entry of the list in SLOT, or -1 if SLOT is
+         *  empty. */
+        int first(int slot) {
+            return _keys[slot] == -1 ? -1 : _first[slot];
+        }
+
+        /** Return the entry after ENTRY in its list, or -1 if none. */
+        int next(int entry) {
+            return _next[entry];
+        }
+
+        /** Return the owner in ENTRY. */
+        long owner(int entry) {
+            return _owners[entry];
+        }
+
+        /** Add OWNER to the list of STATE, which is in SLOT as returned by
+         *  slot(STATE) or would go there. */
+        void add(int slot, long state, long owner) {
+            if (_used == _owners.length) {
+                if (_used >= MAX_CAPACITY) {
+                    throw error("too many states to follow");
+                }
+                _owners = Arrays.copyOf(_owners, 2 * _used);
+                _next = Arrays.copyOf(_next, 2 * _used);
+            }
+            _owners[_used] = owner;
+            if (_keys[slot] == -1) {
+                _keys[slot] = state;
+                _next[_used] = -1;
+                _size += 1;
+            } else {
+                _next[_used] = _first[slot];
+            }
+            _first[slot] = _used;
+            _used += 1;
+            if (2 * _size > _keys.length) {
+                grow();
+            }
+        }
+
+        /** Double my capacity. */
+        private void grow() {
+            if (_keys.length >= MAX_CAPACITY) {
+                throw error("too many states to follow");
+            }
+            long[] keys = _keys;
+            int[] first = _first;
+            _keys = new long[2 * keys.length];
+            _first = new int[2 * keys.length];
+            Arrays.fill(_keys, -1);
+            for (int k = 0; k < keys.length; k += 1) {
+                if (keys[k] != -1) {
+                    int slot = slot(keys[k]);
+                    _keys[slot] = keys[k];
+                    _first[slot] = first[k];
+                }
+            }
+        }
+
+        /** Largest number of slots or entries. */
+        private static final int MAX_CAPACITY = 1 << 30;
+
+        /** The states present, or -1 in empty slots. */
+        private long[] _keys;
+
+        /** _first[K] is the first entry of the list of _keys[K]. */
+        private int[] _first;
+
+        /** _owners[E] is the owner in entry E. */
+        private long[] _owners;
+
+        /** _next[E] is the entry after E in its list, or -1. */
+        private int[] _next;
+
+        /** Number of states present. */
+        private int _size;
+
+        /** Number of entries in use. */
+        private int _used;
+    }
+
+    /** Default characters of traffic per key. */
+    private static final long DEFAULT_LENGTH = 20000;
+
+    /** Alphabet of the configuration. */
+    private final Alphabet _alphabet;
+
+    /** Stepping model of the configuration. */
+    private final Stepping _stepping;
+
+    /** Number of pawls of the configuration. */
+    private final int _pawls;
+
+    /** Characters of traffic per key. */
+    private final long _length;
+
+    /** Number of tasks, among which the states are divided. */
+    private final int _threads;
+
+    /** Bits per rotor position in a packed state. */
+    private final int _bits;
+
+    /** Position of the group number in a packed state. */
+    private final int _groupShift;
+
+    /** The keys, in order. */
+    private final ArrayList<Settings> _keys = new ArrayList<>();
+
+    /** _lines.get(K) is the line number of key K. */
+    private final ArrayList<Integer> _lines = new ArrayList<>();
+
+    /** _groups.get(K) is the number of the rotor choice of key K, keys
+     *  with the same rotors (and rings) having the same number. */
+    private final ArrayList<Integer> _groups = new ArrayList<>();
+}
@@ -0,0 +1,76 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Overlap class.
+ *  @author Yuan Xie.
+ */
+public class OverlapTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkOverlap() {
+        Config config = navalConfig();
+        Machine machine = config.newMachine();
+        new Settings("* B I II III ADU", config).apply(machine);
+        char[] msg = new char[1000];
+        Arrays.fill(msg, 'A');
+        machine.convert(msg, 0, msg.length);
+        String later = "";
+        for (int p : machine.positions()) {
+            later += UPPER.toChar(p);
+        }
+        List<String> keys = List.of("* B I II III ADU", "",
+                                    "* B II I III ADU",
+                                    "* b i ii iii " + later + " (AB)");
+        for (int threads = 1; threads <= 3; threads += 1) {
+            List<String> found =
+                new Overlap(config, keys, 3000, threads).analyze();
+            assertEquals(1, found.size());
+            assertTrue(found.get(0).startsWith("line 1 at 1000 and line 4 "
+                                               + "at 0 share the state "));
+        }
+        assertEquals("[]", new Overlap(config, keys.subList(0, 3), 3000, 2)
+                     .analyze().toString());
+        String[] starts = new String[3], states = new String[3];
+        new Settings("* B I II III ADU", config).apply(machine);
+        for (int k = 0; k < starts.length; k += 1) {
+            starts[k] = "";
+            for (int p : machine.positions()) {
+                starts[k] += UPPER.toChar(p);
+            }
+            machine.convert(msg, 0, 1);
+            states[k] = "";
+            for (int p : machine.positions()) {
+                states[k] += UPPER.toChar(p);
+            }
+            machine.convert(msg, 1, msg.length);
+        }
+        List<String> meeting = List.of("* B I II III " + starts[0],
+                                       "* B I II III " + starts[1],
+                                       "* B I II III " + starts[2]);
+        for (int threads = 1; threads <= 3; threads += 1) {
+            assertEquals(List.of("line 1 at 1000 and line 2 at 0 share the "
+                                 + "state " + states[1],
+                                 "line 1 at 2000 and line 3 at 0 share the "
+                                 + "state " + states[2],
+                                 "line 2 at 1000 and line 3 at 0 share the "
+                                 + "state " + states[2]),
+                         new Overlap(config, meeting, 3000, threads)
+                         .analyze());
+        }
+    }
+}
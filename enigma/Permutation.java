@@ -14,40 +14,134 @@ class Permutation {
      *  alphabet that are not included in any cycle map to themselves.
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
+        this(cycles, 0, cycles.length(), alphabet);
+    }
+
+    /** Set this Permutation to that specified by the characters
+     *  CYCLES[START .. END-1], in the same notation as for
+     *  Permutation(String, Alphabet).  The cycles are parsed in a single
+     *  pass directly into my index tables; errors report positions as
+     *  indices into CYCLES. */
+    Permutation(CharSequence cycles, int start, int end, Alphabet alphabet) {
         _alphabet = alphabet;
-        int i = 0;
-        for (int r = 0; r < cycles.length(); r += 1) {
-            if (Character.toString(cycles.charAt(r)).equals("(")) {
-                i += 1;
+        int n = alphabet.size();
+        _forward = new int[n];
+        _inverse = new int[n];
+        for (int r = 0; r < n; r += 1) {
+            _forward[r] = _inverse[r] = UNSET;
+        }
+        parse(cycles, start, end);
+        for (int r = 0; r < n; r += 1) {
+            if (_inverse[r] == UNSET) {
+                _forward[r] = _inverse[r] = r;
             }
         }
-        _cycles = new String[i];
-        int l = 0;
-        for (int r = 0; r < _cycles.length; r += 1) {
-            String result = "";
-            for (; l < cycles.length(); l += 1) {
-                if (!Character.toString(cycles.charAt(l)).equals("(")
-                        && !Character.toString(cycles.charAt(l)).equals(")")) {
-                    result += Character.toString(cycles.charAt(l));
-                } else if (Character.toString(cycles.charAt(l)).equals(")")) {
-                    _cycles[r] = result.replace(" ", "");
-                    l += 1;
-                    break;
+    }
+
+    /** A permutation over ALPHABET with the tables FORWARD and INVERSE,
+     *  which must be inverses of each other. */
+    private Permutation(Alphabet alphabet, int[] forward, int[] inverse) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+    }
+
+    /** Return the permutation that maps x + K to P(x) + K, modulo the
+     *  alphabet size, where P is this permutation: my wiring turned K
+     *  positions relative to the contacts that carry it.  The result is
+     *  shared (see share) and so may not be modified. */
+    Permutation shifted(int k) {
+        int n = size();
+        int[] forward = new int[n], inverse = new int[n];
+        for (int x = 0; x < n; x += 1) {
+            forward[wrap(x + k)] = wrap(_forward[x] + k);
+            inverse[wrap(_forward[x] + k)] = wrap(x + k);
+        }
+        Permutation result = new Permutation(_alphabet, forward, inverse);
+        result.share();
+        return result;
+    }
+
+    /** Parse the cycles in CYCLES[START .. END-1] into _forward and
+     *  _inverse, whose entries for symbols not yet in any cycle must be
+     *  UNSET.  Each symbol that is read is checked against my alphabet and
+     *  against all symbols read so far, so that the result is always a
+     *  bijection. */
+    private void parse(CharSequence cycles, int start, int end) {
+        int open = -1;
+        int first = -1, prev = -1;
+        for (int k = start; k < end; k += 1) {
+            char c = cycles.charAt(k);
+            if (c == '(') {
+                if (open >= 0) {
+                    throw error("'(' at position %d inside cycle", k);
+                }
+                open = k;
+                first = prev = -1;
+            } else if (c == ')') {
+                if (open < 0) {
+                    throw error("unmatched ')' at position %d", k);
                 }
+                if (first >= 0) {
+                    _forward[prev] = first;
+                    _inverse[first] = prev;
+                }
+                open = -1;
+            } else if (Character.isWhitespace(c)) {
+                continue;
+            } else if (open < 0) {
+                throw error("character '%c' at position %d is outside "
+                            + "any cycle", c, k);
+            } else {
+                if (!_alphabet.contains(c)) {
+                    throw error("character '%c' at position %d is not in "
+                                + "the alphabet", c, k);
+                }
+                int x = _alphabet.toInt(c);
+                if (x == first || _inverse[x] != UNSET) {
+                    throw error("duplicate symbol '%c' at position %d", c, k);
+                }
+                if (first < 0) {
+                    first = x;
+                } else {
+                    _forward[prev] = x;
+                    _inverse[x] = prev;
+                }
+                prev = x;
             }
         }
+        if (open >= 0) {
+            throw error("missing ')' for cycle starting at position %d",
+                        open);
+        }
     }
 
     /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     *  c0c1...cm. */
+     *  c0c1...cm.  Each of the c's must currently map to itself. */
     void addCycle(String cycle) {
-        String[] cycles1 = new String[_cycles.length + 1];
-        for (int r = 0; r < _cycles.length; r += 1) {
-            cycles1[r] = _cycles[r];
+        if (_shared) {
+            throw error("cannot modify a shared permutation");
         }
-        cycles1[_cycles.length] = cycle.toUpperCase();
-        _cycles = cycles1;
+        cycle = cycle.toUpperCase();
+        int n = cycle.length();
+        for (int r = 0; r < n; r += 1) {
+            int x = _alphabet.toInt(cycle.charAt(r));
+            if (_forward[x] != x || cycle.indexOf(cycle.charAt(r)) != r) {
+                throw error("duplicate symbol '%c' in cycle", cycle.charAt(r));
+            }
+        }
+        for (int r = 0; r < n; r += 1) {
+            int x = _alphabet.toInt(cycle.charAt(r));
+            int y = _alphabet.toInt(cycle.charAt((r + 1) % n));
+            _forward[x] = y;
+            _inverse[y] = x;
+        }
+    }
 
+    /** Mark me as shared among several users, after which I may no
+     *  longer be modified. */
+    void share() {
+        _shared = true;
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -61,66 +155,31 @@ class Permutation {
 
     /** Returns the size of the alphabet I permute. */
     int size() {
-        return _alphabet.size();
-    }
-
-    /** Returns the cycles of this permutation as a string array. */
-    void removeFirstCycle() {
-        String[] c = new String[_cycles.length - 1];
-        for (int r = 1; r < _cycles.length; r += 1) {
-            c[r - 1] = _cycles[r];
-        }
-        _cycles = c;
+        return _forward.length;
     }
 
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        return _alphabet.toInt(permute(_alphabet.toChar(wrap(p))));
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        return _alphabet.toInt(invert(_alphabet.toChar(wrap(c))));
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
      *  in ALPHABET, and converting the result to a character of ALPHABET. */
     char permute(char p) {
-        for (int r = 0; r < _cycles.length; r += 1) {
-            if (_cycles[r].contains(Character.toString(p))) {
-                for (int s = 0; s < _cycles[r].length(); s += 1) {
-                    if (p == _cycles[r].charAt(s)) {
-                        if (s == _cycles[r].length() - 1) {
-                            return _cycles[r].charAt(0);
-                        } else {
-                            return _cycles[r].charAt(s + 1);
-                        }
-                    }
-                }
-            }
-        }
-        return p;
+        return _alphabet.toChar(_forward[_alphabet.toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation to C.
      *  Note that I changed int to char. */
     char invert(char c) {
-        for (int r = 0; r < _cycles.length; r += 1) {
-            if (_cycles[r].contains(Character.toString(c))) {
-                for (int s = 0; s < _cycles[r].length(); s += 1) {
-                    if (c == _cycles[r].charAt(s)) {
-                        if (s == 0) {
-                            return _cycles[r].charAt(_cycles[r].length() - 1);
-                        } else {
-                            return _cycles[r].charAt(s - 1);
-                        }
-                    }
-                }
-            }
-        }
-        return c;
+        return _alphabet.toChar(_inverse[_alphabet.toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -131,20 +190,26 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        int counter = 0;
-        for (int r = 0; r < _cycles.length; r += 1) {
-            if (_cycles[r].length() == 1) {
+        for (int r = 0; r < _forward.length; r += 1) {
+            if (_forward[r] == r) {
                 return false;
-            } else {
-                counter += _cycles[r].length();
             }
         }
-        return counter == _alphabet.size();
+        return true;
     }
 
+    /** Marks table entries not yet assigned while parsing. */
+    private static final int UNSET = -1;
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** Cycles of this permutation. */
-    private String[] _cycles;
+    /** True iff I am shared and therefore immutable. */
+    private boolean _shared;
+
+    /** _forward[i] is the image of i under this permutation. */
+    private int[] _forward;
+
+    /** _inverse[i] is the preimage of i under this permutation. */
+    private int[] _inverse;
 }
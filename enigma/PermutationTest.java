@@ -100,4 +100,57 @@ public class PermutationTest {
         assertEquals(true, perm.derangement());
     }
 
+    @Test
+    public void checkSubsequence() {
+        String config = "I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)";
+        perm = new Permutation(config, 5, config.length(), UPPER);
+        checkPerm("subsequence", UPPER_STRING, NAVALA_MAP.get("I"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicateSymbol() {
+        perm = new Permutation("(ABC) (DA)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicateInCycle() {
+        perm = new Permutation("(ABA)", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkMissingParen() {
+        perm = new Permutation("(AB) (CD", UPPER);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkOutOfAlphabet() {
+        perm = new Permutation("(AB) (C4)", UPPER);
+    }
+
+    @Test
+    public void checkErrorPosition() {
+        try {
+            perm = new Permutation("(AB) (CA)", UPPER);
+            fail("duplicate not reported");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("position 7"));
+        }
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        int n = 40000;
+        StringBuilder chars = new StringBuilder();
+        for (int r = 0; r < n; r += 1) {
+            chars.append((char) ('\u4e00' + r));
+        }
+        Alphabet big = new GeneralAlphabet(chars.toString());
+        perm = new Permutation("(" + chars + ")", big);
+        for (int r = 0; r < n; r += 1) {
+            assertEquals((r + 1) % n, perm.permute(r));
+            assertEquals(r, perm.invert(perm.permute(r)));
+        }
+        assertTrue(perm.derangement());
+    }
+
 }
@@ -0,0 +1,471 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** Applies a machine to an input in the format of Main's input files,
+ *  in three stages: parsing input lines into blocks, enciphering the
+ *  message lines of a block in place (applying settings lines as they
+ *  come), and formatting and writing the results.  The stages run either
+ *  one after another on the calling thread, or concurrently on three
+ *  threads that hand reusable blocks to each other through a bounded ring,
+ *  so that reading and writing overlap with the rotor computations.
+ *  Output is the same, and in the same order, either way.
+ *  @author Yuan Xie.
+ */
+class Pipeline {
+
+    /** A pipeline reading from INPUT and writing to OUTPUT, which
+     *  enciphers with MACHINE and passes each settings line that is in
+     *  effect for at least one following line to SETUP. */
+    Pipeline(Reader input, Writer output, Machine machine,
+             Consumer<String> setUp) {
+        this(input, output, machine, setUp, null);
+    }
+
+    /** A pipeline as for Pipeline(INPUT, OUTPUT, MACHINE, SETUP) that,
+     *  if PASSTHROUGH is not null, treats the characters of message lines
+     *  according to PASSTHROUGH instead of requiring them to be in the
+     *  alphabet.  Message lines are then taken as they are, rather than
+     *  upper-cased and stripped of blanks, and are written as they are
+     *  converted, rather than in groups of five. */
+    Pipeline(Reader input, Writer output, Machine machine,
+             Consumer<String> setUp, CharClass passThrough) {
+        _input = input;
+        _output = output;
+        _machine = machine;
+        _setUp = setUp;
+        _passThrough = passThrough;
+    }
+
+    /** Start over with input from INPUT and output to OUTPUT, as if I
+     *  had been newly created with them, but keeping my buffers.  I must
+     *  not be running. */
+    void reset(Reader input, Writer output) {
+        _input = input;
+        _output = output;
+        _inPos = _inLimit = 0;
+        _skipNewline = false;
+        _firstLine = true;
+        _pending = null;
+        _read = _enciphered = _written = 0;
+        _aborted = _stopReading = false;
+        _failure = null;
+        _error = null;
+    }
+
+    /** Process all of my input, concurrently iff CONCURRENT.  Output
+     *  for the lines preceding any error is written and flushed before
+     *  the error is reported. */
+    void run(boolean concurrent) {
+        if (concurrent) {
+            runConcurrently();
+        } else {
+            if (_block == null) {
+                _block = new Block();
+            }
+            Block block = _block;
+            do {
+                read(block);
+                encipher(block);
+                write(block);
+            } while (!block._last);
+        }
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    /** Run my stages on three threads connected by a ring of blocks.
+     *  When enciphering stops, the reader is woken and joined, unless it
+     *  is blocked reading for longer than READER_JOIN_MILLIS, in which
+     *  case it stops at its next block, which it discards. */
+    private void runConcurrently() {
+        Block[] ring = new Block[RING_SIZE];
+        for (int k = 0; k < RING_SIZE; k += 1) {
+            ring[k] = new Block();
+        }
+        Thread reader = new Thread(() -> {
+            try {
+                for (long seq = 0; ; seq += 1) {
+                    long free = seq - RING_SIZE;
+                    if (!await(() -> _written > free || _stopReading)
+                        || _stopReading) {
+                        return;
+                    }
+                    Block block = ring[(int) (seq % RING_SIZE)];
+                    read(block);
+                    _read = seq + 1;
+                    if (block._last) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException excp) {
+                fail(excp);
+            }
+        }, "enigma-reader");
+        Thread writer = new Thread(() -> {
+            try {
+                for (long seq = 0; ; seq += 1) {
+                    long next = seq;
+                    if (!await(() -> _enciphered > next)) {
+                        return;
+                    }
+                    Block block = ring[(int) (seq % RING_SIZE)];
+                    write(block);
+                    _written = seq + 1;
+                    if (block._last) {
+                        return;
+                    }
+                }
+            } catch (RuntimeException excp) {
+                fail(excp);
+            }
+        }, "enigma-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+        try {
+            for (long seq = 0; ; seq += 1) {
+                long next = seq;
+                if (!await(() -> _read > next)) {
+                    break;
+                }
+                Block block = ring[(int) (seq % RING_SIZE)];
+                encipher(block);
+                _enciphered = seq + 1;
+                if (block._last) {
+                    break;
+                }
+            }
+        } catch (RuntimeException excp) {
+            fail(excp);
+        }
+        _stopReading = true;
+        reader.interrupt();
+        try {
+            writer.join();
+            reader.join(READER_JOIN_MILLIS);
+        } catch (InterruptedException excp) {
+            _aborted = true;
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        if (_failure != null) {
+            throw _failure;
+        }
+    }
+
+    /** Record unexpected exception EXCP from one of the stages and stop the
+     *  others. */
+    private void fail(RuntimeException excp) {
+        _failure = excp;
+        _aborted = true;
+    }
+
+    /** A condition on the progress of the stages. */
+    private interface Progress {
+        /** Return true iff the awaited progress has been made. */
+        boolean made();
+    }
+
+    /** Wait until CONDITION holds, spinning briefly and then parking.
+     *  Return false if the pipeline was aborted first. */
+    private boolean await(Progress condition) {
+        for (int spins = 0; !condition.made(); spins += 1) {
+            if (_aborted) {
+                return false;
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        return true;
+    }
+
+    /** Stage 1: fill BLOCK with the next lines of input, upper-cased and
+     *  with blanks removed from message lines unless passing characters
+     *  through.  Marks BLOCK as last at end of input or on a read
+     *  error. */
+    private void read(Block block) {
+        block.clear();
+        try {
+            while (block._lines < MAX_LINES && block._length < BLOCK_CHARS) {
+                if (!readLine(block)) {
+                    block._last = true;
+                    break;
+                }
+            }
+        } catch (IOException excp) {
+            block._error = error("could not read input");
+            block._last = true;
+        }
+    }
+
+    /** Append the next input line to BLOCK, returning false if there is
+     *  none. */
+    private boolean readLine(Block block) throws IOException {
+        int start = block._length;
+        boolean any = false, settings = false;
+        while (true) {
+            if (_inPos == _inLimit) {
+                _inLimit = _input.read(_in, 0, _in.length);
+                _inPos = 0;
+                if (_inLimit <= 0) {
+                    _inLimit = 0;
+                    if (!any) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            char c = _in[_inPos];
+            _inPos += 1;
+            if (_skipNewline) {
+                _skipNewline = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            any = true;
+            if (c == '\n') {
+                break;
+            } else if (c == '\r') {
+                _skipNewline = true;
+                break;
+            }
+            settings |= c == '*';
+            block.append(_passThrough == null ? Character.toUpperCase(c)
+                         : c);
+        }
+        if (!settings && _passThrough == null) {
+            int to = start;
+            for (int k = start; k < block._length; k += 1) {
+                if (block._text[k] != ' ') {
+                    block._text[to] = block._text[k];
+                    to += 1;
+                }
+            }
+            block._length = to;
+        }
+        block.endLine(start, settings);
+        return true;
+    }
+
+    /** Stage 2: encipher the message lines of BLOCK in place, setting up
+     *  the machine for settings lines.  On an error, truncates BLOCK
+     *  before the offending line and marks it last. */
+    private void encipher(Block block) {
+        for (int k = 0; k < block._lines; k += 1) {
+            try {
+                int start = block._starts[k], end = block._ends[k];
+                if (_firstLine) {
+                    _firstLine = false;
+                    if (!block._settings[k]) {
+                        throw error("First line must be a settings line.");
+                    }
+                } else if (_pending != null) {
+                    String pending = _pending;
+                    _pending = null;
+                    _setUp.accept(pending);
+                }
+                if (block._settings[k]) {
+                    _pending = new String(block._text, start, end - start);
+                } else if (_passThrough == null) {
+                    _machine.convert(block._text, start, end);
+                } else {
+                    block._ends[k] = _machine.convert(block._text, start,
+                                                      end, _passThrough);
+                }
+            } catch (EnigmaException excp) {
+                block._lines = k;
+                block._error = excp;
+                block._last = true;
+                return;
+            }
+        }
+        if (_firstLine && block._last && block._error == null) {
+            block._error = error("First line must be a settings line.");
+        }
+    }
+
+    /** Stage 3: write the enciphered message lines of BLOCK in groups of
+     *  five, or as they are when passing characters through, recording
+     *  any error it carries. */
+    private void write(Block block) {
+        try {
+            for (int k = 0; k < block._lines; k += 1) {
+                if (block._settings[k]) {
+                    continue;
+                } else if (_passThrough == null) {
+                    writeMessageLine(block._text, block._starts[k],
+                                     block._ends[k]);
+                } else {
+                    _output.write(block._text, block._starts[k],
+                                  block._ends[k] - block._starts[k]);
+                    _output.write(NEWLINE);
+                }
+            }
+            if (block._last) {
+                _output.flush();
+            }
+        } catch (IOException excp) {
+            _aborted = true;
+            _error = error("could not write output");
+            return;
+        }
+        if (block._error != null) {
+            _error = block._error;
+        }
+    }
+
+    /** Write TEXT[START .. END-1] in groups of five (except that the last
+     *  group may have fewer letters), followed by a line separator. */
+    private void writeMessageLine(char[] text, int start, int end)
+        throws IOException {
+        int n = end - start;
+        int size = n + n / 5 + NEWLINE.length();
+        if (_format.length < size) {
+            _format = new char[size];
+        }
+        int to = 0;
+        for (int k = start; k < end; k += 1) {
+            if (k > start && (k - start) % 5 == 0) {
+                _format[to] = ' ';
+                to += 1;
+            }
+            _format[to] = text[k];
+            to += 1;
+        }
+        NEWLINE.getChars(0, NEWLINE.length(), _format, to);
+        _output.write(_format, 0, to + NEWLINE.length());
+    }
+
+    /** A group of consecutive input lines held in one reusable buffer. */
+    private static class Block {
+        /** Discard my lines. */
+        void clear() {
+            _length = _lines = 0;
+            _last = false;
+            _error = null;
+        }
+
+        /** Append C to the line being read. */
+        void append(char c) {
+            if (_length == _text.length) {
+                _text = Arrays.copyOf(_text, 2 * _text.length);
+            }
+            _text[_length] = c;
+            _length += 1;
+        }
+
+        /** End the line that started at START, a settings line iff
+         *  SETTINGS. */
+        void endLine(int start, boolean settings) {
+            _starts[_lines] = start;
+            _ends[_lines] = _length;
+            _settings[_lines] = settings;
+            _lines += 1;
+        }
+
+        /** Characters of my lines. */
+        private char[] _text = new char[BLOCK_CHARS];
+        /** Number of characters used in _text. */
+        private int _length;
+        /** Extent of each line in _text. */
+        private final int[] _starts = new int[MAX_LINES],
+            _ends = new int[MAX_LINES];
+        /** Whether each line is a settings line. */
+        private final boolean[] _settings = new boolean[MAX_LINES];
+        /** Number of lines. */
+        private int _lines;
+        /** True iff no blocks follow me. */
+        private boolean _last;
+        /** Error that ended processing after my lines, if any. */
+        private EnigmaException _error;
+    }
+
+    /** Characters of input gathered into one block. */
+    private static final int BLOCK_CHARS = 1 << 16;
+
+    /** Maximum lines per block. */
+    private static final int MAX_LINES = 4096;
+
+    /** Number of blocks in the ring between stages. */
+    private static final int RING_SIZE = 4;
+
+    /** Number of times a waiting stage spins before parking. */
+    private static final int SPINS = 1000;
+
+    /** Time a waiting stage parks between checks. */
+    private static final long PARK_NANOS = 20_000;
+
+    /** Longest time to wait for the reader to stop, in milliseconds. */
+    private static final long READER_JOIN_MILLIS = 1000;
+
+    /** Line separator for output. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Source of input lines. */
+    private Reader _input;
+
+    /** Input buffer. */
+    private final char[] _in = new char[1 << 16];
+
+    /** Extent of unread characters in _in. */
+    private int _inPos, _inLimit;
+
+    /** True iff the last line ended in a carriage return, so that a
+     *  following newline belongs to it. */
+    private boolean _skipNewline;
+
+    /** Destination of output. */
+    private Writer _output;
+
+    /** The block used when not running concurrently, once created. */
+    private Block _block;
+
+    /** Buffer for formatting output lines. */
+    private char[] _format = new char[256];
+
+    /** The machine used for enciphering. */
+    private final Machine _machine;
+
+    /** Classification of message characters when passing characters
+     *  outside the alphabet through, or null if all must be in it. */
+    private final CharClass _passThrough;
+
+    /** Sets up _machine from a settings line. */
+    private final Consumer<String> _setUp;
+
+    /** True until the first line has been enciphered. */
+    private boolean _firstLine = true;
+
+    /** Settings line awaiting a following line, if any. */
+    private String _pending;
+
+    /** Numbers of blocks completed by each stage. */
+    private volatile long _read, _enciphered, _written;
+
+    /** True iff a stage has failed and the others should stop. */
+    private volatile boolean _aborted;
+
+    /** True iff enciphering has finished and no more input is needed. */
+    private volatile boolean _stopReading;
+
+    /** Unexpected exception thrown by one of the stages, if any. */
+    private volatile RuntimeException _failure;
+
+    /** The error that ended processing, if any. */
+    private volatile EnigmaException _error;
+}
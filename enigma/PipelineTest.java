@@ -0,0 +1,148 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Pipeline class.
+ *  @author Yuan Xie.
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Configuration used by the tests. */
+    private final Config config = new Config(new ConfigLexer(
+        "A-Z\n 5 3\n"
+        + " I MQ " + NAVALA.get("I") + "\n"
+        + " II ME " + NAVALA.get("II") + "\n"
+        + " III MV " + NAVALA.get("III") + "\n"
+        + " IV MJ " + NAVALA.get("IV") + "\n"
+        + " Beta N " + NAVALA.get("Beta") + "\n"
+        + " B R " + NAVALA.get("B") + "\n"));
+
+    /** Return an input of SECTIONS sections, each a settings line and
+     *  several message lines with blanks and lower-case letters, drawn
+     *  from RANDOM.  Lines are long enough that the input spans many of
+     *  Pipeline's blocks. */
+    private static String input(Random random, int sections) {
+        String[] orders = { "I II III", "IV I II", "III IV I" };
+        StringBuilder result = new StringBuilder();
+        for (int s = 0; s < sections; s += 1) {
+            result.append("* B Beta ").append(orders[s % 3]).append(' ');
+            for (int k = 0; k < 4; k += 1) {
+                result.append((char) ('A' + random.nextInt(26)));
+            }
+            result.append(" (AQ) (EP)\n");
+            for (int n = random.nextInt(4); n >= 0; n -= 1) {
+                for (int k = random.nextInt(300); k > 0; k -= 1) {
+                    int c = random.nextInt(30);
+                    result.append(c < 26 ? (char) ('A' + c)
+                                  : c < 28 ? ' ' : (char) ('a' + c - 28));
+                }
+                result.append(s % 7 == 0 ? "\r\n" : "\n");
+            }
+        }
+        return result.toString();
+    }
+
+    /** The result of running a pipeline: its output and its error, if
+     *  any. */
+    private static final class Outcome {
+        /** Output written. */
+        private String _output;
+        /** Message of the error raised, or null. */
+        private String _error;
+    }
+
+    /** Return the outcome of processing INPUT with a new machine,
+     *  concurrently iff CONCURRENT, passing characters outside the
+     *  alphabet through iff PASSTHROUGH. */
+    private Outcome run(String input, boolean concurrent,
+                        boolean passThrough) {
+        Machine M = config.newMachine();
+        StringWriter output = new StringWriter();
+        Pipeline pipeline =
+            new Pipeline(new StringReader(input), output, M,
+                         line -> new Settings(Settings.normalize(line),
+                                              config).apply(M),
+                         passThrough ? CharClass.passThrough(M.alphabet())
+                         : null);
+        Outcome result = new Outcome();
+        try {
+            pipeline.run(concurrent);
+        } catch (EnigmaException excp) {
+            result._error = excp.getMessage();
+        }
+        result._output = output.toString();
+        return result;
+    }
+
+    /** Check that processing INPUT concurrently gives the same outcome as
+     *  processing it directly, both with and without passing characters
+     *  through, and return the direct outcome without pass-through. */
+    private Outcome checkSame(String input) {
+        for (boolean passThrough : new boolean[] { true, false }) {
+            Outcome direct = run(input, false, passThrough),
+                concurrent = run(input, true, passThrough);
+            assertEquals(direct._error, concurrent._error);
+            assertEquals(direct._output, concurrent._output);
+        }
+        return run(input, false, false);
+    }
+
+    /** Return the number of live pipeline reader threads. */
+    private static int readers() {
+        int result = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("enigma-reader")
+                && thread.isAlive()) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkConcurrentMatchesDirect() {
+        Random random = new Random(33);
+        String input = input(random, 1500);
+        assertTrue(input.length() > 4 * (1 << 16));
+        Outcome outcome = checkSame(input);
+        assertNull(outcome._error);
+        assertTrue(outcome._output.length() > 0);
+        checkSame("* B Beta I II III AAAA\n");
+        checkSame("* B Beta I II III AAAA\n\n\nHELLO\n* B Beta I II III AAAA");
+    }
+
+    @Test
+    public void checkConcurrentErrors() {
+        Random random = new Random(34);
+        String good = input(random, 600);
+        String[] bad = {
+            good + "* B Beta I II III AAAA\nHELLO1WORLD\n" + good,
+            good.substring(0, good.length() / 2) + "\n* B NOPE\nHELLO\n"
+            + good,
+            "HELLO\n" + good,
+        };
+        int before = readers();
+        for (String input : bad) {
+            Outcome outcome = checkSame(input);
+            assertNotNull(outcome._error);
+        }
+        assertTrue(readers() <= before);
+    }
+}
@@ -13,6 +13,11 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    @Override
+    Rotor copy(Permutation perm) {
+        return new Reflector(name(), perm);
+    }
+
     @Override
     boolean reflecting() {
         return true;
@@ -81,6 +81,43 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch at setting POSN.  By default,
+     *  I have no notches. */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Return a new rotor like me, with the same name, permutation and
+     *  notches, at its 0 setting. */
+    Rotor copy() {
+        Rotor result = copy(_permutation);
+        result._ring = _ring;
+        return result;
+    }
+
+    /** Return a new rotor like me at its 0 setting, with ring setting RING
+     *  instead of mine.  Turning the ring moves the wiring relative to the
+     *  position letters and notches, so the result simply has my
+     *  permutation at ring setting 0, shifted by RING (see
+     *  Permutation.shifted), and converts and steps as quickly as I do. */
+    Rotor withRing(int ring) {
+        ring = _permutation.wrap(ring);
+        Rotor result = copy(_permutation.shifted(ring - _ring));
+        result._ring = ring;
+        return result;
+    }
+
+    /** Return a new rotor of my kind with my name and notches and
+     *  permutation PERM, at its 0 setting and ring setting. */
+    Rotor copy(Permutation perm) {
+        return new Rotor(_name, perm);
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
@@ -98,4 +135,7 @@ class Rotor {
 
     /** The setting of this rotor. */
     private int _setting;
+
+    /** The ring setting of this rotor, already applied to _permutation. */
+    private int _ring;
 }
@@ -0,0 +1,832 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/** A search for the rotor order and start positions of a machine without
+ *  plugboard that best decipher a message, scored by the index of
+ *  coincidence of the result, spread over several worker processes on
+ *  this host.
+ *
+ *  The space of every rotor order (as for Catalog) and start position is
+ *  divided into units, one per rotor order and position of the leftmost
+ *  settable rotor.  A coordinator starts the workers, which connect to it
+ *  over a loopback socket and ask for units one at a time; each worker
+ *  runs a unit as batches of MultiLane lanes and returns its best results.
+ *  Workers send heartbeats while they compute.  A worker that disconnects
+ *  or falls silent is replaced, and its units are handed out again.  When
+ *  no unit remains to be handed out, idle workers are given copies of
+ *  units still running elsewhere, and whichever copy finishes first counts.
+ *  Completed units and their results are appended to an optional
+ *  checkpoint file, from which an interrupted search resumes.  Ring
+ *  settings are not searched: every candidate has its rings at the first
+ *  letter of the alphabet, as a settings line without rings does.
+ *
+ *  The protocol is line-based.  The coordinator sends JOB (followed by the
+ *  configuration and message file names and the number of results
+ *  wanted), UNIT id, WAIT or QUIT; a worker sends HELLO id, NEXT, BEAT,
+ *  RESULT id score settings, and DONE id.
+ *  @author Yuan Xie.
+ */
+public final class Search {
+
+    /** Run a search or a worker, as specified by ARGS, which are either
+     *      [--workers=N] [--top=K] [--checkpoint=FILE] CONFIG MESSAGE
+     *  to print the K best settings lines, with their scores, for
+     *  deciphering the message in the file MESSAGE with the machine
+     *  described by CONFIG, using N worker processes, or
+     *      --work PORT
+     *  to run as a worker for the coordinator listening on PORT.
+     *  Exits with code 1 after printing a message on errors. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 2 && args[0].equals("--work")) {
+                work(Integer.parseInt(args[1]),
+                     ProcessHandle.current().pid());
+                return;
+            }
+            int workers = Runtime.getRuntime().availableProcessors();
+            int top = DEFAULT_TOP;
+            Path checkpoint = null;
+            int k;
+            for (k = 0; k < args.length && args[k].startsWith("--");
+                 k += 1) {
+                if (args[k].startsWith("--workers=")) {
+                    workers = Integer.parseInt(args[k].substring(10));
+                } else if (args[k].startsWith("--top=")) {
+                    top = Integer.parseInt(args[k].substring(6));
+                } else if (args[k].startsWith("--checkpoint=")) {
+                    checkpoint = Paths.get(args[k].substring(13));
+                } else {
+                    throw error("unknown option %s", args[k]);
+                }
+            }
+            if (args.length != k + 2 || workers <= 0 || top <= 0) {
+                throw error("usage: java enigma.Search [--workers=N] "
+                            + "[--top=K] [--checkpoint=FILE] CONFIG "
+                            + "MESSAGE");
+            }
+            Search search = new Search(args[k], args[k + 1], top,
+                                       checkpoint);
+            for (Result result : search.coordinate(workers)) {
+                System.out.println(result);
+            }
+            return;
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A scored candidate setting. */
+    static final class Result implements Comparable<Result> {
+        /** A candidate with score SCORE and settings line SETTINGS. */
+        Result(double score, String settings) {
+            _score = score;
+            _settings = settings;
+        }
+
+        @Override
+        public int compareTo(Result other) {
+            return Double.compare(_score, other._score);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.6f %s", _score, _settings);
+        }
+
+        /** Score of the candidate. */
+        private final double _score;
+        /** Settings line of the candidate. */
+        private final String _settings;
+    }
+
+    /** The best results offered so far, up to a fixed number. */
+    static final class Top {
+        /** A collection of the best SIZE results. */
+        Top(int size) {
+            _size = size;
+        }
+
+        /** Return true iff a result with SCORE would be kept. */
+        boolean wants(double score) {
+            return _heap.size() < _size || score > _heap.peek()._score;
+        }
+
+        /** Add RESULT, if it is among the best. */
+        void add(Result result) {
+            if (wants(result._score)) {
+                _heap.add(result);
+                if (_heap.size() > _size) {
+                    _heap.poll();
+                }
+            }
+        }
+
+        /** Return my results, best first. */
+        List<Result> results() {
+            ArrayList<Result> result = new ArrayList<>(_heap);
+            result.sort((a, b) -> b.compareTo(a));
+            return result;
+        }
+
+        /** Number of results kept. */
+        private final int _size;
+        /** Kept results, worst first. */
+        private final PriorityQueue<Result> _heap = new PriorityQueue<>();
+    }
+
+    /** A search of the machine described by the file CONFIG for settings
+     *  deciphering the message in the file MESSAGE, keeping the best TOP
+     *  results and recording progress in CHECKPOINT, if not null. */
+    Search(String config, String message, int top, Path checkpoint) {
+        _configName = Paths.get(config).toAbsolutePath().toString();
+        _messageName = Paths.get(message).toAbsolutePath().toString();
+        Config parsed = Config.read(config);
+        readMessage(message, parsed.alphabet());
+        /* The message is read here only to report errors early. */
+        _units = units(parsed, Catalog.orders(parsed));
+        _top = new Top(top);
+        _topSize = top;
+        _done = new boolean[_units];
+        _holders = new int[_units];
+        _checkpoint = checkpoint;
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            resume(checkpoint);
+        }
+        for (int u = 0; u < _units; u += 1) {
+            if (!_done[u]) {
+                _queue.add(u);
+            }
+        }
+    }
+
+    /** Return the number of units in the search of CONFIG over ORDERS. */
+    private static int units(Config config, List<Rotor[]> orders) {
+        if (orders.isEmpty()) {
+            throw error("configuration has no complete rotor order");
+        }
+        long n = config.alphabet().size();
+        long positions = 1;
+        for (int r = 2; r < config.numRotors(); r += 1) {
+            positions *= n;
+            if (positions > Integer.MAX_VALUE) {
+                throw error("search unit too large");
+            }
+        }
+        if (orders.size() * n > Integer.MAX_VALUE) {
+            throw error("search too large");
+        }
+        return (int) (orders.size() * n);
+    }
+
+    /** Return the message in the file NAME as indices in ALPHABET,
+     *  ignoring whitespace. */
+    static int[] readMessage(String name, Alphabet alphabet) {
+        String text;
+        try {
+            text = Files.readString(Paths.get(name),
+                                    Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int k = 0; k < text.length(); k += 1) {
+            char c = Character.toUpperCase(text.charAt(k));
+            if (!Character.isWhitespace(c)) {
+                if (!alphabet.contains(c)) {
+                    throw error("character '%c' of message is not in the "
+                                + "alphabet", c);
+                }
+                result[n] = alphabet.toInt(c);
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Mark the units recorded as complete in the checkpoint file NAME as
+     *  done, and collect their results.  A record counts only if its END
+     *  line names the unit of its UNIT line and every line between them is
+     *  whole, so that a record torn by a crash, or another record appended
+     *  after it, is run again. */
+    private void resume(Path name) {
+        try (BufferedReader in = Files.newBufferedReader(name)) {
+            ArrayList<Result> pending = new ArrayList<>();
+            int current = -1;
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String[] words = line.split(" ", 3);
+                if (words.length == 2 && words[0].equals("UNIT")) {
+                    current = unitNumber(words[1]);
+                    pending.clear();
+                } else if (words.length == 3 && words[0].equals("RESULT")
+                           && current >= 0) {
+                    try {
+                        pending.add(new Result(Double.parseDouble(words[1]),
+                                               words[2]));
+                    } catch (NumberFormatException excp) {
+                        current = -1;
+                    }
+                } else if (words.length == 2 && words[0].equals("END")
+                           && current >= 0
+                           && unitNumber(words[1]) == current) {
+                    if (current >= _units) {
+                        throw error("checkpoint %s does not match this "
+                                    + "search", name);
+                    }
+                    if (!_done[current]) {
+                        _done[current] = true;
+                        _completed += 1;
+                        for (Result result : pending) {
+                            _top.add(result);
+                        }
+                    }
+                    current = -1;
+                } else {
+                    current = -1;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", name);
+        }
+    }
+
+    /** Return the unit number WORD, or -1 if WORD is not one. */
+    private static int unitNumber(String word) {
+        try {
+            return Math.max(-1, Integer.parseInt(word));
+        } catch (NumberFormatException excp) {
+            return -1;
+        }
+    }
+
+    /** A worker started by a coordinator. */
+    interface Worker {
+        /** Return the identifier the worker sends with HELLO. */
+        long id();
+
+        /** Return true iff the worker is still running. */
+        boolean alive();
+
+        /** Wait up to MILLIS milliseconds for the worker to finish,
+         *  returning true iff it has. */
+        boolean await(long millis) throws InterruptedException;
+
+        /** Stop the worker at once. */
+        void stop();
+    }
+
+    /** Starts the workers of a coordinator. */
+    interface Launcher {
+        /** Start a worker for the coordinator listening on PORT and
+         *  return it. */
+        Worker launch(int port) throws IOException;
+    }
+
+    /** Starts each worker as a separate process. */
+    static final Launcher PROCESSES = port -> {
+        String java = Paths.get(System.getProperty("java.home"), "bin",
+                                "java").toString();
+        Process process =
+            new ProcessBuilder(java, "-cp",
+                               System.getProperty("java.class.path"),
+                               "enigma.Search", "--work",
+                               Integer.toString(port))
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        return new Worker() {
+            @Override
+            public long id() {
+                return process.pid();
+            }
+
+            @Override
+            public boolean alive() {
+                return process.isAlive();
+            }
+
+            @Override
+            public boolean await(long millis) throws InterruptedException {
+                return process.waitFor(millis, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void stop() {
+                process.destroyForcibly();
+            }
+        };
+    };
+
+    /** Number of workers started as threads. */
+    private static final AtomicLong THREAD_IDS = new AtomicLong();
+
+    /** Starts each worker as a thread of this process.  A stopped worker
+     *  ends once the coordinator has closed its connection and it has
+     *  finished its current unit. */
+    static final Launcher THREADS = port -> {
+        long id = -THREAD_IDS.incrementAndGet();
+        Thread thread = new Thread(() -> {
+            try {
+                work(port, id);
+            } catch (EnigmaException excp) {
+                /* The coordinator has gone. */
+            }
+        }, "search-worker");
+        thread.setDaemon(true);
+        thread.start();
+        return new Worker() {
+            @Override
+            public long id() {
+                return id;
+            }
+
+            @Override
+            public boolean alive() {
+                return thread.isAlive();
+            }
+
+            @Override
+            public boolean await(long millis) throws InterruptedException {
+                thread.join(millis);
+                return !thread.isAlive();
+            }
+
+            @Override
+            public void stop() {
+                thread.interrupt();
+            }
+        };
+    };
+
+    /** Run the search on WORKERS worker processes and return the best
+     *  results, best first. */
+    List<Result> coordinate(int workers) {
+        return coordinate(workers, PROCESSES, HEARTBEAT_TIMEOUT);
+    }
+
+    /** Run the search on WORKERS workers started by LAUNCHER, presuming
+     *  hung any worker silent for TIMEOUT milliseconds, and return the
+     *  best results, best first. */
+    List<Result> coordinate(int workers, Launcher launcher, long timeout) {
+        try (ServerSocket server = new ServerSocket(
+                 0, workers, InetAddress.getLoopbackAddress())) {
+            int port = server.getLocalPort();
+            Thread acceptor = new Thread(() -> accept(server),
+                                         "search-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            synchronized (this) {
+                int restarts = 0;
+                while (_completed < _units) {
+                    _workers.removeIf(w -> !w.alive());
+                    while (_workers.size() < workers) {
+                        if (restarts > workers + MAX_RESTARTS) {
+                            throw error("too many worker failures");
+                        }
+                        _workers.add(launcher.launch(port));
+                        restarts += 1;
+                    }
+                    long now = System.currentTimeMillis();
+                    for (Connection conn : _connections) {
+                        if (now - conn._lastSeen > timeout) {
+                            conn.close();
+                            if (conn._worker != null) {
+                                conn._worker.stop();
+                            }
+                        }
+                    }
+                    wait(HEARTBEAT_INTERVAL);
+                }
+                for (Connection conn : _connections) {
+                    conn.send("QUIT");
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not coordinate workers: %s",
+                        excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } finally {
+            stopWorkers(timeout);
+        }
+        return _top.results();
+    }
+
+    /** Give my workers up to TIMEOUT milliseconds to quit, then stop the
+     *  rest. */
+    private void stopWorkers(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        for (Worker worker : _workers) {
+            try {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0 || !worker.await(left)) {
+                    worker.stop();
+                }
+            } catch (InterruptedException excp) {
+                worker.stop();
+            }
+        }
+    }
+
+    /** Accept connections from workers on SERVER, serving each on its own
+     *  thread. */
+    private void accept(ServerSocket server) {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                /* Each message is short and its reply waits on it. */
+                socket.setTcpNoDelay(true);
+                Thread thread = new Thread(() -> serve(socket),
+                                           "search-serve");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException excp) {
+                return;
+            }
+        }
+    }
+
+    /** A worker's connection to the coordinator. */
+    private static final class Connection {
+        /** A connection over SOCKET. */
+        Connection(Socket socket) throws IOException {
+            _socket = socket;
+            _out = new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(), StandardCharsets.UTF_8));
+            _lastSeen = System.currentTimeMillis();
+        }
+
+        /** Send LINE to the worker. */
+        void send(String line) {
+            _out.println(line);
+            _out.flush();
+        }
+
+        /** Close the connection. */
+        void close() {
+            try {
+                _socket.close();
+            } catch (IOException excp) {
+                /* Already closed. */
+            }
+        }
+
+        /** The connection. */
+        private final Socket _socket;
+        /** Stream to the worker. */
+        private final PrintWriter _out;
+        /** The worker, once it has said hello. */
+        private Worker _worker;
+        /** Time of the last message from the worker. */
+        private volatile long _lastSeen;
+        /** Units assigned to the worker and not yet completed. */
+        private final HashSet<Integer> _assigned = new HashSet<>();
+        /** Results of the unit in progress. */
+        private final ArrayList<Result> _pending = new ArrayList<>();
+    }
+
+    /** Converse with the worker connected by SOCKET until it disconnects,
+     *  then hand its unfinished units to others. */
+    private void serve(Socket socket) {
+        Connection conn;
+        try {
+            conn = new Connection(socket);
+        } catch (IOException excp) {
+            return;
+        }
+        synchronized (this) {
+            _connections.add(conn);
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8))) {
+            conn.send("JOB " + _topSize);
+            conn.send(_configName);
+            conn.send(_messageName);
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                conn._lastSeen = System.currentTimeMillis();
+                String[] words = line.split(" ", 3);
+                switch (words[0]) {
+                case "HELLO":
+                    hello(conn, Long.parseLong(words[1]));
+                    break;
+                case "NEXT":
+                    conn.send(next(conn));
+                    break;
+                case "RESULT":
+                    String[] rest = words[2].split(" ", 2);
+                    conn._pending.add(new Result(
+                        Double.parseDouble(rest[0]), rest[1]));
+                    break;
+                case "DONE":
+                    complete(conn, Integer.parseInt(words[1]));
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException excp) {
+            /* Treat as a lost worker. */
+        } finally {
+            lost(conn);
+        }
+    }
+
+    /** Record that CONN comes from the worker identified by ID. */
+    private synchronized void hello(Connection conn, long id) {
+        for (Worker worker : _workers) {
+            if (worker.id() == id) {
+                conn._worker = worker;
+            }
+        }
+    }
+
+    /** Return the reply to a request for work from CONN: a UNIT, or WAIT if
+     *  there is none to give yet, or QUIT if the search is over. */
+    private synchronized String next(Connection conn) {
+        if (_completed == _units) {
+            return "QUIT";
+        }
+        Integer unit = _queue.poll();
+        if (unit == null) {
+            for (int u : _running.keySet()) {
+                if (!conn._assigned.contains(u)) {
+                    unit = u;
+                    break;
+                }
+            }
+        }
+        if (unit == null) {
+            return "WAIT";
+        }
+        _holders[unit] += 1;
+        conn._assigned.add(unit);
+        _running.putIfAbsent(unit, System.currentTimeMillis());
+        return "UNIT " + unit;
+    }
+
+    /** Record that CONN has completed UNIT with the results it has sent
+     *  since, unless another worker completed it first. */
+    private synchronized void complete(Connection conn, int unit) {
+        if (!conn._assigned.remove(unit)) {
+            conn._pending.clear();
+            return;
+        }
+        _holders[unit] -= 1;
+        if (!_done[unit]) {
+            _done[unit] = true;
+            _completed += 1;
+            _running.remove(unit);
+            for (Result result : conn._pending) {
+                _top.add(result);
+            }
+            record(unit, conn._pending);
+            notifyAll();
+        }
+        conn._pending.clear();
+    }
+
+    /** Append UNIT and its RESULTS to the checkpoint file, if any. */
+    private void record(int unit, List<Result> results) {
+        if (_checkpoint == null) {
+            return;
+        }
+        StringBuilder text = new StringBuilder("UNIT " + unit + "\n");
+        for (Result result : results) {
+            text.append("RESULT ").append(result._score).append(' ')
+                .append(result._settings).append('\n');
+        }
+        text.append("END ").append(unit).append('\n');
+        try (FileOutputStream out =
+                 new FileOutputStream(_checkpoint.toFile(), true)) {
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", _checkpoint);
+        }
+    }
+
+    /** Return the units of CONN, which is no longer usable, to the queue
+     *  unless other workers hold them or they are done. */
+    private synchronized void lost(Connection conn) {
+        conn.close();
+        _connections.remove(conn);
+        for (int unit : conn._assigned) {
+            _holders[unit] -= 1;
+            if (!_done[unit] && _holders[unit] == 0) {
+                _running.remove(unit);
+                _queue.addFirst(unit);
+            }
+        }
+        conn._assigned.clear();
+        notifyAll();
+    }
+
+    /** Work for the coordinator listening on PORT until told to quit,
+     *  identifying myself by ID. */
+    static void work(int port, long id) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                socket.getOutputStream(), StandardCharsets.UTF_8));
+            Thread heartbeat = new Thread(() -> {
+                while (!out.checkError()) {
+                    send(out, "BEAT");
+                    try {
+                        Thread.sleep(HEARTBEAT_INTERVAL);
+                    } catch (InterruptedException excp) {
+                        return;
+                    }
+                }
+            }, "search-heartbeat");
+            heartbeat.setDaemon(true);
+            send(out, "HELLO " + id);
+            String job = in.readLine();
+            if (job == null || !job.startsWith("JOB ")) {
+                return;
+            }
+            int top = Integer.parseInt(job.substring(4));
+            Config config = Config.read(in.readLine());
+            int[] message = readMessage(in.readLine(), config.alphabet());
+            List<Rotor[]> orders = Catalog.orders(config);
+            heartbeat.start();
+            while (true) {
+                send(out, "NEXT");
+                String reply = in.readLine();
+                if (reply == null || reply.equals("QUIT")) {
+                    return;
+                } else if (reply.equals("WAIT")) {
+                    Thread.sleep(HEARTBEAT_INTERVAL / 4);
+                } else if (reply.startsWith("UNIT ")) {
+                    int unit = Integer.parseInt(reply.substring(5));
+                    Top results = new Top(top);
+                    searchUnit(config, orders, unit, message, results);
+                    for (Result result : results.results()) {
+                        send(out, "RESULT " + unit + " " + result._score
+                             + " " + result._settings);
+                    }
+                    send(out, "DONE " + unit);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("lost connection to coordinator");
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        }
+    }
+
+    /** Send LINE on OUT, which may be shared among threads. */
+    private static void send(PrintWriter out, String line) {
+        synchronized (out) {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    /** Score every start position in UNIT of the search of CONFIG over
+     *  ORDERS for deciphering MESSAGE, adding the results to TOP. */
+    static void searchUnit(Config config, List<Rotor[]> orders, int unit,
+                           int[] message, Top top) {
+        Alphabet alphabet = config.alphabet();
+        int n = alphabet.size();
+        Rotor[] order = orders.get(unit / n);
+        int width = order.length - 1;
+        int total = 1;
+        for (int r = 1; r < width; r += 1) {
+            total *= n;
+        }
+        int batch = Math.min(total, MAX_LANES);
+        MultiLane lanes = new MultiLane(config, order, batch);
+        MultiLane.Coincidence scorer = new MultiLane.Coincidence();
+        Permutation plugboard = new Permutation("", alphabet);
+        int[] posns = new int[width];
+        posns[0] = unit % n;
+        for (int base = 0; base < total; base += batch) {
+            int count = Math.min(batch, total - base);
+            for (int lane = 0; lane < batch; lane += 1) {
+                int p = base + Math.min(lane, count - 1);
+                for (int r = width - 1; r >= 1; r -= 1) {
+                    posns[r] = p % n;
+                    p /= n;
+                }
+                lanes.set(lane, posns, plugboard);
+            }
+            lanes.run(message, scorer);
+            for (int lane = 0; lane < count; lane += 1) {
+                double score = scorer.score(lane);
+                if (top.wants(score)) {
+                    top.add(new Result(score,
+                                       settings(order, base + lane,
+                                                unit % n, alphabet)));
+                }
+            }
+        }
+    }
+
+    /** Return the settings line for the rotors ORDER with the leftmost
+     *  settable rotor at FIRST and the others at the positions encoded by
+     *  POSN, most significant base-N digit first, in ALPHABET. */
+    private static String settings(Rotor[] order, int posn, int first,
+                                   Alphabet alphabet) {
+        int n = alphabet.size();
+        StringBuilder result = new StringBuilder("*");
+        for (Rotor rotor : order) {
+            result.append(' ').append(rotor.name());
+        }
+        char[] letters = new char[order.length - 1];
+        letters[0] = alphabet.toChar(first);
+        for (int r = letters.length - 1; r >= 1; r -= 1) {
+            letters[r] = alphabet.toChar(posn % n);
+            posn /= n;
+        }
+        return result.append(' ').append(letters).toString();
+    }
+
+    /** Default number of results reported. */
+    private static final int DEFAULT_TOP = 10;
+
+    /** Largest number of lanes run at once by a worker. */
+    private static final int MAX_LANES = 4096;
+
+    /** Milliseconds between heartbeats. */
+    private static final long HEARTBEAT_INTERVAL = 1000;
+
+    /** Milliseconds of silence after which a worker is presumed hung. */
+    private static final long HEARTBEAT_TIMEOUT = 10_000;
+
+    /** Number of worker failures tolerated beyond the initial workers. */
+    private static final int MAX_RESTARTS = 16;
+
+    /** Absolute names of the configuration and message files. */
+    private final String _configName, _messageName;
+
+    /** Number of units in the search. */
+    private final int _units;
+
+    /** Number of results wanted. */
+    private final int _topSize;
+
+    /** Best results of the completed units. */
+    private final Top _top;
+
+    /** _done[u] is true iff unit U has been completed. */
+    private final boolean[] _done;
+
+    /** _holders[u] is the number of workers working on unit U. */
+    private final int[] _holders;
+
+    /** Number of completed units. */
+    private int _completed;
+
+    /** Units not yet handed out. */
+    private final ArrayDeque<Integer> _queue = new ArrayDeque<>();
+
+    /** Units handed out and not completed, in the order they started. */
+    private final LinkedHashMap<Integer, Long> _running =
+        new LinkedHashMap<>();
+
+    /** Open worker connections. */
+    private final List<Connection> _connections = new ArrayList<>();
+
+    /** Running workers. */
+    private final List<Worker> _workers = new ArrayList<>();
+
+    /** Checkpoint file, or null. */
+    private final Path _checkpoint;
+}
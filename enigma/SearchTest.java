@@ -0,0 +1,253 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.BatchTest.delete;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Search class.
+ *  @author Yuan Xie.
+ */
+public class SearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Configuration searched by the tests: that of navalConfig with
+     *  room for only two rotors, which keeps the searches short. */
+    static final String CONFIG = "A-Z\n3 2\n"
+        + "I MQ " + NAVALA.get("I") + "\n"
+        + "II ME " + NAVALA.get("II") + "\n"
+        + "III MV " + NAVALA.get("III") + "\n"
+        + "B R (AY) (BR) (CU) (DH) (EQ) (FS) (GL) (IP) (JX) (KN) (MO)"
+        + " (TZ) (VW)\n";
+
+    /** Settings that encipher the searched message. */
+    static final String KEY = "* B III I KQ";
+
+    /** Plaintext of the searched message. */
+    static final String PLAIN =
+        "THE QUICK BROWN FOX JUMPS OVER THE LAZY DOG WHILE THE WEATHER "
+        + "STATION AT THE NORTHERN HARBOUR REPORTS HEAVY RAIN AND A STRONG "
+        + "WIND FROM THE WEST ALL SHIPS IN THE CONVOY ARE TO HOLD THEIR "
+        + "COURSE AND SPEED UNTIL THE ESCORT ARRIVES AT DAWN THE ESCORT "
+        + "WILL SIGNAL THE NEW HEADING BY LAMP AND NO SHIP IS TO USE ITS "
+        + "RADIO BEFORE THEN";
+
+    /** Milliseconds of silence after which the tests presume a worker
+     *  hung. */
+    static final long TIMEOUT = 3000;
+
+    /** Number of units of the search of CONFIG. */
+    static final int UNITS = 6 * 26;
+
+    /** Write CONFIG and the message enciphered under KEY into DIR, and
+     *  return a search of them for the best TOP results, recording its
+     *  progress in CHECKPOINT, if not null. */
+    static Search search(Path dir, int top, Path checkpoint)
+        throws IOException {
+        Path config = dir.resolve("search.conf"),
+            message = dir.resolve("search.msg");
+        Files.writeString(config, CONFIG, Charset.defaultCharset());
+        Config parsed = new Config(new ConfigLexer(CONFIG));
+        Machine machine = parsed.newMachine();
+        new Settings(Settings.normalize(KEY), parsed).apply(machine);
+        Files.writeString(message,
+                          machine.convert(PLAIN.replace(" ", "")) + "\n",
+                          Charset.defaultCharset());
+        return new Search(config.toString(), message.toString(), top,
+                          checkpoint);
+    }
+
+    /** Return the scores of RESULTS, in order. */
+    static List<String> scores(List<Search.Result> results) {
+        ArrayList<String> scores = new ArrayList<>();
+        for (Search.Result result : results) {
+            scores.add(result.toString().split(" ", 2)[0]);
+        }
+        return scores;
+    }
+
+    /** Return the records of the checkpoint file LINES, each the lines
+     *  from a UNIT line to its END line. */
+    static List<List<String>> records(List<String> lines) {
+        ArrayList<List<String>> records = new ArrayList<>();
+        ArrayList<String> record = new ArrayList<>();
+        for (String line : lines) {
+            record.add(line);
+            if (line.startsWith("END ")) {
+                records.add(record);
+                record = new ArrayList<>();
+            }
+        }
+        assertTrue("torn record", record.isEmpty());
+        return records;
+    }
+
+    /** Return the number of times each unit is recorded as complete in
+     *  the checkpoint file LINES by an END line that matches the last
+     *  UNIT line. */
+    static int[] completed(List<String> lines) {
+        int[] counts = new int[UNITS];
+        String unit = null;
+        for (String line : lines) {
+            if (line.startsWith("UNIT ")) {
+                unit = line.substring(5);
+            } else if (line.equals("END " + unit)) {
+                counts[Integer.parseInt(unit)] += 1;
+                unit = null;
+            }
+        }
+        return counts;
+    }
+
+    /** Return a worker for the coordinator listening on PORT, identified
+     *  by ID, that takes one unit and then falls silent, if SILENT, or
+     *  disconnects. */
+    static Search.Worker faulty(int port, long id, boolean silent)
+        throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        Thread thread = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(),
+                                           StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(new OutputStreamWriter(
+                     socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                out.println("HELLO " + id);
+                out.println("NEXT");
+                out.flush();
+                for (String line = in.readLine();
+                     line != null && silent; line = in.readLine()) {
+                    /* Ignore the coordinator. */
+                }
+            } catch (IOException excp) {
+                /* Closed by the coordinator. */
+            }
+        }, "faulty-worker");
+        thread.setDaemon(true);
+        thread.start();
+        return new Search.Worker() {
+            @Override
+            public long id() {
+                return id;
+            }
+
+            @Override
+            public boolean alive() {
+                return thread.isAlive();
+            }
+
+            @Override
+            public boolean await(long millis) throws InterruptedException {
+                thread.join(millis);
+                return !thread.isAlive();
+            }
+
+            @Override
+            public void stop() {
+                try {
+                    socket.close();
+                } catch (IOException excp) {
+                    /* Already closed. */
+                }
+            }
+        };
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSearchFindsKey() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-search");
+        try {
+            List<Search.Result> results =
+                search(dir, 5, null).coordinate(2, Search.THREADS, TIMEOUT);
+            assertEquals(5, results.size());
+            assertEquals(KEY, results.get(0).toString().split(" ", 2)[1]);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkResume() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-search"),
+            checkpoint = dir.resolve("search.ckp");
+        try {
+            List<Search.Result> full =
+                search(dir, 5, checkpoint).coordinate(2, Search.THREADS,
+                                                      TIMEOUT);
+            List<String> lines = Files.readAllLines(checkpoint);
+            List<List<String>> records = records(lines);
+            assertEquals(UNITS, records.size());
+            ArrayList<String> partial = new ArrayList<>();
+            for (List<String> record : records.subList(0, UNITS / 2)) {
+                partial.addAll(record);
+            }
+            List<String> mismatched = records.get(UNITS / 2),
+                torn = records.get(UNITS / 2 + 1);
+            partial.addAll(mismatched.subList(0, mismatched.size() - 1));
+            partial.add(records.get(UNITS / 2 + 2).get(0)
+                        .replace("UNIT", "END"));
+            partial.addAll(torn.subList(0, torn.size() - 1));
+            Files.write(checkpoint, partial);
+
+            List<Search.Result> resumed =
+                search(dir, 5, checkpoint).coordinate(1, Search.THREADS,
+                                                      TIMEOUT);
+            assertEquals(scores(full), scores(resumed));
+            assertEquals(full.get(0).toString(), resumed.get(0).toString());
+            int[] counts = completed(Files.readAllLines(checkpoint));
+            for (int u = 0; u < UNITS; u += 1) {
+                assertEquals("unit " + u, 1, counts[u]);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkLostWorkers() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-search");
+        try {
+            List<Search.Result> full =
+                search(dir, 5, null).coordinate(2, Search.THREADS, TIMEOUT);
+            int[] launched = { 0 };
+            Search.Launcher launcher = port -> {
+                launched[0] += 1;
+                if (launched[0] <= 2) {
+                    return faulty(port, launched[0], launched[0] == 1);
+                }
+                return Search.THREADS.launch(port);
+            };
+            List<Search.Result> recovered =
+                search(dir, 5, null).coordinate(1, launcher, TIMEOUT);
+            assertEquals(3, launched[0]);
+            assertEquals(scores(full), scores(recovered));
+            assertEquals(full.get(0).toString(),
+                         recovered.get(0).toString());
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package enigma;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/** A persistent cache of the output of sections of Main's input: a
+ *  settings line and the message lines that follow it up to the next
+ *  one.  A section's output depends only on the configuration, the
+ *  output mode and the text of the section, so each is stored under the
+ *  SHA-256 digest of those (see key), and a section seen before can be
+ *  copied out of the cache rather than enciphered again.
+ *
+ *  The cache is a directory holding up to two generations, each an
+ *  append-only log of records (key, length, CRC-32, output characters)
+ *  after a header of MAGIC.  Each generation is memory-mapped for
+ *  reading and indexed in memory by an open-addressing table from the
+ *  first eight bytes of each key to the offset of its record.  New
+ *  records go to the current generation; when it reaches half the size
+ *  limit, the older generation is deleted and a new current one begun.
+ *  A record found only in the older generation is copied to the current
+ *  one, so that sections in use survive.  A log cut short by a crash is
+ *  truncated after its last complete record when opened, and a record
+ *  whose checksum does not match is treated as absent.  One process at a
+ *  time may use a cache directory; open returns null to any other.
+ *  @author Yuan Xie.
+ */
+final class SectionCache implements AutoCloseable {
+
+    /** Return a cache in the directory DIR, which is created if
+     *  necessary, holding at most about LIMIT bytes, or null if another
+     *  cache is open in DIR. */
+    static SectionCache open(Path dir, long limit) {
+        try {
+            Files.createDirectories(dir);
+            FileChannel channel =
+                FileChannel.open(dir.resolve(LOCK_FILE),
+                                 StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException excp) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                return null;
+            }
+            try {
+                return new SectionCache(dir, limit, channel, lock);
+            } catch (IOException excp) {
+                lock.release();
+                channel.close();
+                throw excp;
+            }
+        } catch (IOException excp) {
+            throw error("could not open cache %s", dir);
+        }
+    }
+
+    /** Return a digest of the configuration CONFIG and output mode (with
+     *  characters passed through iff PASSTHROUGH), to be included in the
+     *  key of every section processed with them.  It covers what the
+     *  configuration describes, rather than the text describing it. */
+    static byte[] fingerprint(Config config, boolean passThrough) {
+        MessageDigest digest = newDigest();
+        Alphabet alphabet = config.alphabet();
+        StringBuilder text = new StringBuilder();
+        text.append(passThrough).append(' ').append(config.numRotors())
+            .append(' ').append(config.numPawls()).append(' ')
+            .append(config.stepping()).append(' ')
+            .append(System.lineSeparator()).append(' ');
+        for (int x = 0; x < alphabet.size(); x += 1) {
+            text.append(alphabet.toChar(x));
+        }
+        for (Rotor rotor : config.rotors()) {
+            text.append('\n').append(rotor.name()).append(' ')
+                .append(rotor.rotates() ? 'M'
+                        : rotor.reflecting() ? 'R' : 'N');
+            for (int x = 0; x < alphabet.size(); x += 1) {
+                text.append(' ').append(rotor.permutation().permute(x))
+                    .append(rotor.notchAt(x) ? "*" : "");
+            }
+        }
+        byte[] chars = new byte[2 * text.length()];
+        for (int k = 0; k < text.length(); k += 1) {
+            chars[2 * k] = (byte) (text.charAt(k) >>> 8);
+            chars[2 * k + 1] = (byte) text.charAt(k);
+        }
+        digest.update(chars);
+        return digest.digest();
+    }
+
+    /** Return a new SHA-256 digest. */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("SHA-256 is not available");
+        }
+    }
+
+    /** Return the key of the section TEXT[0 .. LENGTH-1] processed under
+     *  FINGERPRINT (see fingerprint).  Only the digest is computed: the
+     *  characters go to it through a reused buffer. */
+    synchronized byte[] key(byte[] fingerprint, char[] text, int length) {
+        _digest.reset();
+        _digest.update(fingerprint);
+        for (int k = 0; k < length; k += KEY_CHUNK) {
+            int n = Math.min(KEY_CHUNK, length - k);
+            _keyChars.clear();
+            _keyChars.asCharBuffer().put(text, k, n);
+            _keyChars.limit(2 * n);
+            _digest.update(_keyChars);
+        }
+        return _digest.digest();
+    }
+
+    /** A cache in the existing directory DIR holding at most about LIMIT
+     *  bytes, which holds LOCK, obtained through LOCKCHANNEL, on DIR. */
+    private SectionCache(Path dir, long limit, FileChannel lockChannel,
+                         FileLock lock) throws IOException {
+        _dir = dir;
+        _limit = Math.min(limit, MAX_LIMIT);
+        _lockChannel = lockChannel;
+        _lock = lock;
+        ArrayList<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files =
+             Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(
+                        PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException excp) {
+                    continue;
+                }
+            }
+        }
+        Collections.sort(numbers);
+        for (int k = 0; k < numbers.size() - 2; k += 1) {
+            Files.deleteIfExists(file(numbers.get(k)));
+        }
+        int n = numbers.size();
+        if (n >= 2) {
+            _old = new Generation(file(numbers.get(n - 2)));
+        }
+        _current = new Generation(file(n == 0 ? 0 : numbers.get(n - 1)));
+        _number = n == 0 ? 0 : numbers.get(n - 1);
+    }
+
+    /** Return the file of generation NUMBER. */
+    private Path file(long number) {
+        return _dir.resolve(PREFIX + number + SUFFIX);
+    }
+
+    /** Return the output cached under KEY, or null if there is none. */
+    synchronized char[] get(byte[] key) {
+        try {
+            char[] result = _current.get(key);
+            if (result == null && _old != null) {
+                result = _old.get(key);
+                if (result != null) {
+                    append(key, result, result.length);
+                }
+            }
+            if (result == null) {
+                _misses += 1;
+            } else {
+                _hits += 1;
+            }
+            return result;
+        } catch (IOException excp) {
+            throw error("could not read cache %s", _dir);
+        }
+    }
+
+    /** Cache OUTPUT[0 .. LENGTH-1] as the output for KEY. */
+    synchronized void put(byte[] key, char[] output, int length) {
+        try {
+            append(key, output, length);
+        } catch (IOException excp) {
+            throw error("could not write cache %s", _dir);
+        }
+    }
+
+    /** Append a record of OUTPUT[0 .. LENGTH-1] under KEY to the current
+     *  generation, first starting a new one if it is full. */
+    private void append(byte[] key, char[] output, int length)
+        throws IOException {
+        if (_current.size() + RECORD_HEADER + 2L * length > _limit / 2
+            && _current.size() > MAGIC.length) {
+            if (_old != null) {
+                _old.delete();
+            }
+            _old = _current;
+            _number += 1;
+            _current = new Generation(file(_number));
+        }
+        int size = RECORD_HEADER + 2 * length;
+        if (_record.capacity() < size) {
+            _record = ByteBuffer.allocateDirect(Math.max(size,
+                                                         2 * _record
+                                                         .capacity()));
+        }
+        _record.clear();
+        _record.position(RECORD_HEADER);
+        _record.asCharBuffer().put(output, 0, length);
+        _record.limit(size);
+        CRC32 check = new CRC32();
+        check.update(_record);
+        _record.clear();
+        _record.put(key, 0, KEY_SIZE).putInt(length)
+            .putInt((int) check.getValue());
+        _record.position(0).limit(size);
+        _current.append(_record);
+    }
+
+    /** Return the number of sections found in the cache so far. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of sections looked for and not found so far. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            _current.close();
+            if (_old != null) {
+                _old.close();
+            }
+            _lock.release();
+            _lockChannel.close();
+        } catch (IOException excp) {
+            throw error("could not close cache %s", _dir);
+        }
+    }
+
+    /** One log file and its index. */
+    private static final class Generation {
+
+        /** The generation in FILE, created if necessary. */
+        Generation(Path file) throws IOException {
+            _file = file;
+            _channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                        StandardOpenOption.READ,
+                                        StandardOpenOption.WRITE);
+            _size = _channel.size();
+            map();
+            if (!validHeader()) {
+                _channel.truncate(0);
+                _channel.write(ByteBuffer.wrap(MAGIC), 0);
+                _size = MAGIC.length;
+                map();
+            }
+            scan();
+        }
+
+        /** Return true iff I begin with MAGIC. */
+        private boolean validHeader() {
+            if (_size < MAGIC.length) {
+                return false;
+            }
+            for (int k = 0; k < MAGIC.length; k += 1) {
+                if (_map.get(k) != MAGIC[k]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Index my records, truncating me after the last complete
+         *  one. */
+        private void scan() throws IOException {
+            long posn = MAGIC.length;
+            while (posn + RECORD_HEADER <= _size) {
+                int length = _map.getInt((int) posn + KEY_SIZE);
+                long end = posn + RECORD_HEADER + 2L * length;
+                if (length < 0 || end > _size) {
+                    break;
+                }
+                _index.put(_map.getLong((int) posn), posn);
+                posn = end;
+            }
+            if (posn < _size) {
+                _channel.truncate(posn);
+                _size = posn;
+                map();
+            }
+        }
+
+        /** Map all of my file. */
+        private void map() throws IOException {
+            _map = _channel.map(FileChannel.MapMode.READ_ONLY, 0, _size);
+        }
+
+        /** Return the output recorded under KEY, or null if there is none
+         *  or its record is damaged. */
+        char[] get(byte[] key) throws IOException {
+            long posn = _index.get(ByteBuffer.wrap(key).getLong());
+            if (posn < 0) {
+                return null;
+            }
+            if (posn + RECORD_HEADER > _map.capacity()) {
+                map();
+            }
+            for (int k = 0; k < KEY_SIZE; k += 1) {
+                if (_map.get((int) posn + k) != key[k]) {
+                    return null;
+                }
+            }
+            int length = _map.getInt((int) posn + KEY_SIZE);
+            int crc = _map.getInt((int) posn + KEY_SIZE + 4);
+            int start = (int) posn + RECORD_HEADER;
+            if (start + 2L * length > _map.capacity()) {
+                map();
+            }
+            ByteBuffer bytes = _map.duplicate();
+            bytes.position(start).limit(start + 2 * length);
+            CRC32 check = new CRC32();
+            check.update(bytes.duplicate());
+            if ((int) check.getValue() != crc) {
+                return null;
+            }
+            char[] result = new char[length];
+            bytes.asCharBuffer().get(result);
+            return result;
+        }
+
+        /** Append RECORD, whose remaining bytes are a complete
+         *  record. */
+        void append(ByteBuffer record) throws IOException {
+            long key = record.getLong(record.position());
+            long posn = _size;
+            while (record.hasRemaining()) {
+                posn += _channel.write(record, posn);
+            }
+            _index.put(key, _size);
+            _size = posn;
+        }
+
+        /** Return my size in bytes. */
+        long size() {
+            return _size;
+        }
+
+        /** Close my file. */
+        void close() throws IOException {
+            _channel.close();
+        }
+
+        /** Close and remove my file. */
+        void delete() throws IOException {
+            _channel.close();
+            Files.deleteIfExists(_file);
+        }
+
+        /** My file. */
+        private final Path _file;
+        /** Channel to my file. */
+        private final FileChannel _channel;
+        /** My file mapped for reading, possibly shorter than _size. */
+        private MappedByteBuffer _map;
+        /** Size of my file. */
+        private long _size;
+        /** My records by key. */
+        private final Index _index = new Index();
+    }
+
+    /** An open-addressing map from the first eight bytes of keys to record
+     *  offsets.  Keys that agree in those bytes share an entry, the most
+     *  recent one winning; Generation.get checks the whole key. */
+    private static final class Index {
+
+        /** Return the offset stored for KEY, or -1 if none. */
+        long get(long key) {
+            key = key == 0 ? 1 : key;
+            int mask = _keys.length - 1;
+            for (int k = hash(key) & mask; _keys[k] != 0;
+                 k = (k + 1) & mask) {
+                if (_keys[k] == key) {
+                    return _offsets[k];
+                }
+            }
+            return -1;
+        }
+
+        /** Store OFFSET for KEY. */
+        void put(long key, long offset) {
+            key = key == 0 ? 1 : key;
+            if (2 * (_size + 1) > _keys.length) {
+                long[] keys = _keys, offsets = _offsets;
+                _keys = new long[2 * keys.length];
+                _offsets = new long[2 * keys.length];
+                _size = 0;
+                for (int k = 0; k < keys.length; k += 1) {
+                    if (keys[k] != 0) {
+                        put(keys[k], offsets[k]);
+                    }
+                }
+            }
+            int mask = _keys.length - 1;
+            int k;
+            for (k = hash(key) & mask; _keys[k] != 0 && _keys[k] != key;
+                 k = (k + 1) & mask) {
+                continue;
+            }
+            if (_keys[k] == 0) {
+                _size += 1;
+            }
+            _keys[k] = key;
+            _offsets[k] = offset;
+        }
+
+        /** Return a hash of KEY, which is already a digest. */
+        private static int hash(long key) {
+            return (int) (key ^ (key >>> 32));
+        }
+
+        /** Keys of entries, 0 where empty. */
+        private long[] _keys = new long[64];
+        /** Offsets of entries. */
+        private long[] _offsets = new long[64];
+        /** Number of entries. */
+        private int _size;
+    }
+
+    /** Header of each log file. */
+    private static final byte[] MAGIC = {'E', 'N', 'I', 'G', 'S', 'E', 'C',
+                                         '1'};
+
+    /** Largest size limit, which keeps each generation mappable as one
+     *  buffer. */
+    private static final long MAX_LIMIT = 1L << 31;
+
+    /** Number of characters passed to the digest at a time. */
+    private static final int KEY_CHUNK = 1 << 13;
+
+    /** Size of a key in bytes. */
+    private static final int KEY_SIZE = 32;
+
+    /** Size of a record before its characters: key, length and CRC. */
+    private static final int RECORD_HEADER = KEY_SIZE + 8;
+
+    /** Names of log files are PREFIX, a generation number and SUFFIX. */
+    private static final String PREFIX = "sections-", SUFFIX = ".log";
+
+    /** Name of the file locked while the cache is in use. */
+    private static final String LOCK_FILE = "lock";
+
+    /** The cache directory. */
+    private final Path _dir;
+
+    /** Approximate limit on the total size of my logs. */
+    private final long _limit;
+
+    /** Channel holding _lock. */
+    private final FileChannel _lockChannel;
+
+    /** Lock held on the directory while I am open. */
+    private final FileLock _lock;
+
+    /** The generation receiving new records, and the one before it, if
+     *  any. */
+    private Generation _current, _old;
+
+    /** Number of _current. */
+    private long _number;
+
+    /** Numbers of hits and misses. */
+    private long _hits, _misses;
+
+    /** Digest used for keys. */
+    private final MessageDigest _digest = newDigest();
+
+    /** Buffer through which characters are passed to _digest. */
+    private final ByteBuffer _keyChars =
+        ByteBuffer.allocateDirect(2 * KEY_CHUNK);
+
+    /** Buffer in which records are assembled. */
+    private ByteBuffer _record = ByteBuffer.allocateDirect(1 << 16);
+}
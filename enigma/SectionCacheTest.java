@@ -0,0 +1,220 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static enigma.BatchTest.*;
+
+/** The suite of all JUnit tests for the SectionCache class.
+ *  @author Yuan Xie.
+ */
+public class SectionCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Fingerprint used for keys in the tests. */
+    static final byte[] FINGERPRINT = {1, 2, 3};
+
+    /** Size limit of the caches in the tests: each generation holds
+     *  three records of TEXT_SIZE characters. */
+    static final long LIMIT = 400;
+
+    /** Number of characters in each cached output. */
+    static final int TEXT_SIZE = 10;
+
+    /** Return the key of section number K in CACHE. */
+    static byte[] key(SectionCache cache, int k) {
+        char[] text = ("SECTION " + k).toCharArray();
+        return cache.key(FINGERPRINT, text, text.length);
+    }
+
+    /** Return the output cached for section number K. */
+    static char[] output(int k) {
+        char[] result = new char[TEXT_SIZE];
+        for (int i = 0; i < TEXT_SIZE; i += 1) {
+            result[i] = (char) ('A' + (k + i) % 26);
+        }
+        return result;
+    }
+
+    /** Cache the output of section K in CACHE. */
+    static void put(SectionCache cache, int k) {
+        cache.put(key(cache, k), output(k), TEXT_SIZE);
+    }
+
+    /** Return the log files in DIR, oldest first. */
+    static List<Path> logs(Path dir) throws IOException {
+        ArrayList<Path> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(f -> f.getFileName().toString().endsWith(".log"))
+                .forEach(result::add);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRotation() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-cache");
+        try {
+            try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+                for (int k = 0; k < 3; k += 1) {
+                    put(cache, k);
+                }
+                assertEquals(1, logs(dir).size());
+                put(cache, 3);
+                assertEquals(2, logs(dir).size());
+                for (int k = 4; k < 9; k += 1) {
+                    put(cache, k);
+                }
+                List<Path> logs = logs(dir);
+                assertEquals(2, logs.size());
+                assertTrue(logs.get(1).toString()
+                           .endsWith("sections-2.log"));
+                assertNull(cache.get(key(cache, 0)));
+                assertNull(cache.get(key(cache, 2)));
+                for (int k = 6; k < 9; k += 1) {
+                    assertArrayEquals(output(k), cache.get(key(cache, k)));
+                }
+                assertEquals(3, cache.hits());
+                assertEquals(2, cache.misses());
+            }
+            try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+                for (int k = 6; k < 9; k += 1) {
+                    assertArrayEquals(output(k), cache.get(key(cache, k)));
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkPromotion() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-cache");
+        try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+            for (int k = 0; k < 4; k += 1) {
+                put(cache, k);
+            }
+            assertArrayEquals(output(0), cache.get(key(cache, 0)));
+            put(cache, 4);
+            put(cache, 5);
+            assertEquals(2, logs(dir).size());
+            assertArrayEquals(output(0), cache.get(key(cache, 0)));
+            assertNull(cache.get(key(cache, 1)));
+            put(cache, 6);
+            put(cache, 7);
+            assertArrayEquals(output(0), cache.get(key(cache, 0)));
+            assertNull(cache.get(key(cache, 3)));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkTornRecord() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-cache");
+        try {
+            try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+                put(cache, 0);
+                put(cache, 1);
+            }
+            Path log = logs(dir).get(0);
+            long size = Files.size(log);
+            byte[] record = new byte[(int) (size - 8) / 2];
+            try (RandomAccessFile file =
+                 new RandomAccessFile(log.toFile(), "rw")) {
+                file.seek(size - record.length);
+                file.readFully(record);
+                file.write(record, 0, record.length - 5);
+            }
+            try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+                assertEquals(size, Files.size(log));
+                assertArrayEquals(output(0), cache.get(key(cache, 0)));
+                assertArrayEquals(output(1), cache.get(key(cache, 1)));
+                put(cache, 2);
+                assertArrayEquals(output(2), cache.get(key(cache, 2)));
+            }
+            try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+                assertArrayEquals(output(2), cache.get(key(cache, 2)));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkDamagedRecord() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-cache");
+        try {
+            try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+                put(cache, 0);
+                put(cache, 1);
+            }
+            Path log = logs(dir).get(0);
+            long size = Files.size(log);
+            try (RandomAccessFile file =
+                 new RandomAccessFile(log.toFile(), "rw")) {
+                file.seek(size - 3);
+                int b = file.read();
+                file.seek(size - 3);
+                file.write(b ^ 1);
+            }
+            try (SectionCache cache = SectionCache.open(dir, LIMIT)) {
+                assertArrayEquals(output(0), cache.get(key(cache, 0)));
+                assertNull(cache.get(key(cache, 1)));
+                assertEquals(1, cache.misses());
+                put(cache, 1);
+                assertArrayEquals(output(1), cache.get(key(cache, 1)));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkInUse() throws IOException {
+        Path dir = Files.createTempDirectory("enigma-cache"),
+            cacheDir = dir.resolve("cache"),
+            conf = dir.resolve("conf"), in = dir.resolve("in"),
+            out = dir.resolve("out");
+        try {
+            String input = "* B Beta I II III AAAA\nHELLO WORLD\n";
+            Files.writeString(conf, CONFIG, Charset.defaultCharset());
+            Files.writeString(in, input, Charset.defaultCharset());
+            try (SectionCache cache = SectionCache.open(cacheDir, LIMIT)) {
+                assertNotNull(cache);
+                assertNull(SectionCache.open(cacheDir, LIMIT));
+                new Main(new String[] { "--cache=" + cacheDir,
+                                        conf.toString(), in.toString(),
+                                        out.toString() }).process();
+                assertEquals(expected(new Config(new ConfigLexer(CONFIG)),
+                                      input), read(out));
+                assertEquals(0, cache.hits() + cache.misses());
+            }
+            SectionCache cache = SectionCache.open(cacheDir, LIMIT);
+            assertNotNull(cache);
+            cache.close();
+        } finally {
+            delete(dir);
+        }
+    }
+}
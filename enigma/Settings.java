@@ -0,0 +1,165 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** A compiled settings line: the rotors selected for each slot, their
+ *  initial positions and the plugboard, checked against a configuration
+ *  and ready to be applied to a machine built from it.  Like the rotors
+ *  it selects, it is used by one thread at a time.
+ *  @author Yuan Xie.
+ */
+class Settings {
+
+    /** The settings described by LINE, which must have the form
+     *      * ROTOR... POSITIONS [RINGS] CYCLE...
+     *  for the rotors and alphabet of CONFIG, where RINGS, if present,
+     *  gives the ring settings (Ringstellung) of the rotors in slots 1
+     *  and up in the same form as POSITIONS, and is otherwise all 0.
+     *  LINE must already be normalized (see normalize). */
+    Settings(String line, Config config) {
+        String[] tokens = line.split(" ");
+        if (!tokens[0].equals("*")) {
+            throw EnigmaException.error("Wrong specification "
+                    + "format for settings.");
+        }
+        int numRotors = config.numRotors();
+        int i;
+        for (i = 1; i < tokens.length && config.rotor(tokens[i]) != null;
+             i += 1) {
+            continue;
+        }
+        if (i == tokens.length || tokens[i].length() != numRotors - 1) {
+            throw EnigmaException.error("Must specify setting for all rotors "
+                    + "except for reflector or rotor does not exist.");
+        }
+        if (i - 1 != numRotors) {
+            throw EnigmaException.error("Incorrect number of rotors.");
+        }
+        _rotors = new Rotor[numRotors];
+        int moving = 0, reflectors = 0;
+        for (int r = 0; r < numRotors; r += 1) {
+            _rotors[r] = config.rotor(tokens[r + 1]);
+            for (int a = 0; a < r; a += 1) {
+                if (_rotors[a] == _rotors[r]) {
+                    throw EnigmaException.error("Rotor is repeated.");
+                }
+            }
+            if (_rotors[r].rotates()) {
+                moving += 1;
+            } else if (_rotors[r].reflecting()) {
+                reflectors += 1;
+            }
+        }
+        if (!_rotors[0].reflecting()) {
+            throw EnigmaException.error("First rotor of machine must "
+                    + "be a reflector.");
+        }
+        if (moving != config.numPawls()) {
+            throw EnigmaException.error("Wrong number of moving rotors.");
+        }
+        if (reflectors > 1) {
+            throw EnigmaException.error("Can only have one reflector.");
+        }
+
+        Alphabet alphabet = config.alphabet();
+        _positions = indices(tokens[i], alphabet);
+        if (i + 1 < tokens.length && !tokens[i + 1].startsWith("(")) {
+            i += 1;
+            if (tokens[i].length() != numRotors - 1) {
+                throw EnigmaException.error("Must specify ring setting for "
+                        + "all rotors except for reflector.");
+            }
+            int[] rings = indices(tokens[i], alphabet);
+            for (int r = 1; r < numRotors; r += 1) {
+                _rotors[r] = config.rotor(tokens[r + 1], rings[r - 1]);
+            }
+        }
+
+        int start = 0;
+        for (int r = 0; r <= i; r += 1) {
+            start += tokens[r].length() + 1;
+        }
+        for (int r = i + 1; r < tokens.length; r += 1) {
+            if (!tokens[r].startsWith("(") || !tokens[r].endsWith(")")) {
+                throw EnigmaException.error("Plugboard cycles should "
+                        + "be of the form (XY).");
+            }
+        }
+        _plugboard = new Permutation(line, Math.min(start, line.length()),
+                                     line.length(), alphabet);
+    }
+
+    /** Return the indices in ALPHABET of the characters of SETTING. */
+    private static int[] indices(String setting, Alphabet alphabet) {
+        int[] result = new int[setting.length()];
+        for (int r = 0; r < setting.length(); r += 1) {
+            if (!alphabet.contains(setting.charAt(r))) {
+                throw EnigmaException.error("Setting out of alphabet range.");
+            }
+            result[r] = alphabet.toInt(setting.charAt(r));
+        }
+        return result;
+    }
+
+    /** Return LINE with letters in upper case, surrounding whitespace
+     *  removed and each run of interior whitespace replaced by a single
+     *  blank, so that settings lines differing only in those respects
+     *  have the same normalized form. */
+    static String normalize(String line) {
+        StringBuilder result = new StringBuilder(line.length());
+        boolean blank = false;
+        for (int k = 0; k < line.length(); k += 1) {
+            char c = line.charAt(k);
+            if (Character.isWhitespace(c)) {
+                blank = result.length() > 0;
+            } else {
+                if (blank) {
+                    result.append(' ');
+                    blank = false;
+                }
+                result.append(Character.toUpperCase(c));
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the rotor for each slot, starting with the reflector.  It
+     *  must not be modified. */
+    Rotor[] rotors() {
+        return _rotors;
+    }
+
+    /** Return the initial positions of the rotors in slots 1 and up.  It
+     *  must not be modified. */
+    int[] positions() {
+        return _positions;
+    }
+
+    /** Set M, which must have been built from the configuration I was
+     *  compiled against, to my rotors, positions and plugboard.  The
+     *  first time, M composes its fixed slots and plugboard tables, which
+     *  I keep, with the converter M then compiles; afterwards they are
+     *  installed as they are (see Machine.setUp). */
+    void apply(Machine M) {
+        if (_setup == null) {
+            M.insertRotors(_rotors);
+            M.setRotors(_positions);
+            M.setPlugboard(_plugboard);
+            _setup = M.setup();
+        } else {
+            M.setUp(_rotors, _positions, _plugboard, _setup);
+        }
+    }
+
+    /** The rotor for each slot, starting with the reflector. */
+    private final Rotor[] _rotors;
+
+    /** Initial positions of the rotors in slots 1 and up. */
+    private final int[] _positions;
+
+    /** The plugboard. */
+    private final Permutation _plugboard;
+
+    /** The setup of the machine I was first applied to, or null. */
+    private Machine.Setup _setup;
+}
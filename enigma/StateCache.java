@@ -0,0 +1,434 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A cache of the permutations performed by the rotors of machines in
+ *  particular states, for machines whose states are too many to
+ *  tabulate in full but which keep going through the same ones, as when
+ *  many sections start from the same settings.  A state (rotor choices
+ *  and positions, packed into a long by a Stepper) maps to the
+ *  composition of all the rotors in that state, so that a character is
+ *  converted in that state by one lookup.
+ *
+ *  The cache holds as many permutations as fit in a fixed number of
+ *  bytes, in sets of WAYS entries chosen by hashing the state.  Since
+ *  composing a permutation costs a conversion per symbol, a state is
+ *  admitted only if it has been seen often: an approximate count of the
+ *  uses of every state is kept in a small count-min sketch of 4-bit
+ *  counters, which are halved periodically so that old uses are
+ *  forgotten, and a new state displaces the least used entry of its set
+ *  only if it has been used more (the TinyLFU policy).  Lookups take no
+ *  locks, so several machines on different threads may share a cache;
+ *  entries are replaced whole, under a lock.
+ *  @author Yuan Xie.
+ */
+class StateCache {
+
+    /** A cache of permutations of SIZE symbols taking at most about
+     *  BUDGET bytes, entries and sketch (64 counters per entry)
+     *  together. */
+    StateCache(int size, long budget) {
+        long entries = Math.max(WAYS, budget / (4L * size + ENTRY_BYTES));
+        int sets = Integer.highestOneBit(
+            (int) Math.min(entries / WAYS, 1 << 24));
+        _size = size;
+        _entries = new AtomicReferenceArray<>(sets * WAYS);
+        _setMask = sets - 1;
+        int counters = Integer.highestOneBit(
+            (int) Math.min(Math.max(64L * sets * WAYS, 1024), 1 << 28));
+        _counts = new long[counters / COUNTERS_PER_WORD];
+        _counterMask = counters - 1;
+        _sampleSize = 10L * sets * WAYS;
+    }
+
+    /** Return the number of permutations I can hold. */
+    int capacity() {
+        return _entries.length();
+    }
+
+    /** Return the number of conversions that found their state. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of conversions that did not. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the fraction of conversions that found their state. */
+    double hitRate() {
+        long hits = hits(), total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** Return the number of states admitted. */
+    long admissions() {
+        return _admissions.sum();
+    }
+
+    /** Return the number of states displaced by others. */
+    long evictions() {
+        return _evictions.sum();
+    }
+
+    /** Return a converter using me for the current setup of M, or null if
+     *  M is not fully set up or its states cannot be packed into a
+     *  long. */
+    Converter converter(Machine M) {
+        Rotor[] rotors = M.myRotors();
+        if (M.coreEnd() == 0) {
+            return null;
+        }
+        int bits = Stepper.bits(_size),
+            shift = bits * (rotors.length - 1);
+        long group = group(rotors);
+        if (shift >= Long.SIZE - 1 || group >= 1L << (Long.SIZE - 1 - shift)) {
+            return null;
+        }
+        return new Converter(M, group << shift, bits);
+    }
+
+    /** Return the number of the choice of ROTORS (with their rings),
+     *  which are the same for all machines of one configuration making
+     *  that choice. */
+    private long group(Rotor[] rotors) {
+        ArrayList<Object> key = new ArrayList<>();
+        for (Rotor rotor : rotors) {
+            key.add(rotor.name());
+            key.add(rotor.ring());
+        }
+        return _groups.computeIfAbsent(key, k -> _nextGroup.getAndIncrement());
+    }
+
+    /** Return the permutation for STATE, or null if I do not have it. */
+    int[] get(long state) {
+        int base = set(state) * WAYS;
+        for (int k = base; k < base + WAYS; k += 1) {
+            Entry entry = _entries.get(k);
+            if (entry != null && entry._state == state) {
+                return entry._permutation;
+            }
+        }
+        return null;
+    }
+
+    /** Note a use of STATE, which is not present, and return true iff it
+     *  would now be admitted (see put). */
+    boolean wants(long state) {
+        int frequency = record(state);
+        if (frequency < MIN_FREQUENCY) {
+            return false;
+        }
+        int base = set(state) * WAYS;
+        for (int k = base; k < base + WAYS; k += 1) {
+            Entry entry = _entries.get(k);
+            if (entry == null || frequency > frequency(entry._state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Add PERMUTATION as that for STATE, in a free entry of its set or in
+     *  place of the least used entry if STATE has been used more. */
+    synchronized void put(long state, int[] permutation) {
+        int base = set(state) * WAYS, victim = -1, least = Integer.MAX_VALUE;
+        for (int k = base; k < base + WAYS; k += 1) {
+            Entry entry = _entries.get(k);
+            if (entry == null) {
+                victim = k;
+                least = -1;
+                break;
+            } else if (entry._state == state) {
+                return;
+            }
+            int frequency = frequency(entry._state);
+            if (frequency < least) {
+                victim = k;
+                least = frequency;
+            }
+        }
+        if (least >= 0 && frequency(state) <= least) {
+            return;
+        }
+        if (least >= 0) {
+            _evictions.increment();
+        }
+        _admissions.increment();
+        _entries.set(victim, new Entry(state, permutation));
+    }
+
+    /** Return the set of STATE. */
+    private int set(long state) {
+        return (int) (mix(state) >>> 32) & _setMask;
+    }
+
+    /** Return a well-mixed hash of STATE. */
+    private static long mix(long state) {
+        long h = state * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
+    /** Count a use of STATE, and return its estimated number of uses.
+     *  Only the smallest of its counters are incremented (a conservative
+     *  update), which keeps the estimates of rare states from being
+     *  inflated by those of others.  Counts from several threads may be
+     *  lost, which affects only the estimates. */
+    private int record(long state) {
+        int result = frequency(state);
+        if (result < MAX_COUNT) {
+            long h = mix(state);
+            for (int row = 0; row < ROWS;
+                 row += 1, h = Long.rotateLeft(h, 16)) {
+                int k = (int) h & _counterMask, shift = (k & 15) << 2;
+                if ((int) (_counts[k >>> 4] >>> shift & MAX_COUNT)
+                    == result) {
+                    _counts[k >>> 4] += 1L << shift;
+                }
+            }
+            result += 1;
+        }
+        _additions += 1;
+        if (_additions >= _sampleSize) {
+            age();
+        }
+        return result;
+    }
+
+    /** Return the estimated number of uses of STATE. */
+    private int frequency(long state) {
+        long h = mix(state);
+        int result = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row += 1, h = Long.rotateLeft(h, 16)) {
+            int k = (int) h & _counterMask;
+            result = Math.min(result,
+                              (int) (_counts[k >>> 4] >>> ((k & 15) << 2))
+                              & MAX_COUNT);
+        }
+        return result;
+    }
+
+    /** Halve all counts. */
+    private void age() {
+        _additions = 0;
+        for (int k = 0; k < _counts.length; k += 1) {
+            _counts[k] = (_counts[k] >>> 1) & 0x7777777777777777L;
+        }
+    }
+
+    /** A state and the permutation of the rotors in it. */
+    private static final class Entry {
+        /** The entry for STATE, in which the rotors perform
+         *  PERMUTATION. */
+        Entry(long state, int[] permutation) {
+            _state = state;
+            _permutation = permutation;
+        }
+
+        /** The packed state. */
+        private final long _state;
+        /** The permutation of the rotors in _state. */
+        private final int[] _permutation;
+    }
+
+    /** Converts runs of characters for one setup of a machine, looking
+     *  up the permutation for each state in the cache, and going through
+     *  the wiring of the rotors when it is not there.  The rotors
+     *  themselves are moved only at the end of each run. */
+    final class Converter implements CipherEngine.Converter {
+
+        /** A converter for the current setup of M, whose states are
+         *  marked with GROUP and have positions packed in BITS bits. */
+        Converter(Machine M, long group, int bits) {
+            _rotors = M.myRotors();
+            _coreEnd = M.coreEnd();
+            _core = M.core();
+            _group = group;
+            _stepper = new Stepper(_rotors, M.numPawls(), M.stepping(),
+                                   bits);
+            _start = new int[_rotors.length - 1];
+            _forward = new int[_rotors.length][];
+            _backward = new int[_rotors.length][];
+            for (int r = _coreEnd; r < _rotors.length; r += 1) {
+                Permutation perm = _rotors[r].permutation();
+                _forward[r] = new int[_size];
+                _backward[r] = new int[_size];
+                for (int x = 0; x < _size; x += 1) {
+                    _forward[r][x] = perm.permute(x);
+                    _backward[r][x] = perm.invert(x);
+                }
+            }
+            _plug = M.plug();
+            _unplug = M.unplug();
+        }
+
+        @Override
+        public int convert(char[] msg, int from, int to,
+                           CharClass classes) {
+            int[] table = classes.classes();
+            char[] symbols = classes.symbols();
+            for (int r = 1; r < _rotors.length; r += 1) {
+                _start[r - 1] = _rotors[r].setting();
+            }
+            _stepper.start(_start, _group);
+            long hits = 0, misses = 0;
+            int w = from;
+            try {
+                for (int r = from; r < to; r += 1) {
+                    int x = table[msg[r]];
+                    if (x < 0) {
+                        w = Kernel.other(msg, r, w, x);
+                        continue;
+                    }
+                    long state = _stepper.next();
+                    int[] permutation = get(state);
+                    int y;
+                    if (permutation != null) {
+                        hits += 1;
+                        y = permutation[_plug[x]];
+                    } else {
+                        misses += 1;
+                        if (wants(state)) {
+                            permutation = compose();
+                            put(state, permutation);
+                            y = permutation[_plug[x]];
+                        } else {
+                            y = through(_plug[x]);
+                        }
+                    }
+                    msg[w] = symbols[_unplug[y]];
+                    w += 1;
+                }
+            } finally {
+                moveRotors();
+                _hits.add(hits);
+                _misses.add(misses);
+            }
+            return w;
+        }
+
+        /** Set my rotors to the positions of _stepper. */
+        private void moveRotors() {
+            for (int r = _coreEnd; r < _rotors.length; r += 1) {
+                _rotors[r].set(_stepper.position(r - 1));
+            }
+        }
+
+        /** Return the conversion of X by my rotors at the positions of
+         *  _stepper. */
+        private int through(int x) {
+            for (int r = _rotors.length - 1; r >= _coreEnd; r -= 1) {
+                x = shift(_forward[r], x, _stepper.position(r - 1));
+            }
+            x = _core[x];
+            for (int r = _coreEnd; r < _rotors.length; r += 1) {
+                x = shift(_backward[r], x, _stepper.position(r - 1));
+            }
+            return x;
+        }
+
+        /** Return the conversion of X by the wiring TABLE of a rotor at
+         *  position POSN. */
+        private int shift(int[] table, int x, int posn) {
+            x += posn;
+            if (x >= _size) {
+                x -= _size;
+            }
+            x = table[x] - posn;
+            return x < 0 ? x + _size : x;
+        }
+
+        /** Return the permutation of my rotors at the positions of
+         *  _stepper. */
+        private int[] compose() {
+            int[] result = new int[_size];
+            for (int x = 0; x < _size; x += 1) {
+                result[x] = through(x);
+            }
+            return result;
+        }
+
+        /** The machine's rotors, the reflector first. */
+        private final Rotor[] _rotors;
+
+        /** Number of leftmost slots composed into _core. */
+        private final int _coreEnd;
+
+        /** Composition of the rotors in the first _coreEnd slots. */
+        private final int[] _core;
+
+        /** Bits marking the states of this choice of rotors. */
+        private final long _group;
+
+        /** Follows the positions of the rotors. */
+        private final Stepper _stepper;
+
+        /** _forward[R] and _backward[R] are the wiring of the rotor in
+         *  slot R, for R at least _coreEnd, and its inverse. */
+        private final int[][] _forward, _backward;
+
+        /** Scratch positions with which _stepper starts. */
+        private final int[] _start;
+
+        /** The plugboard and its inverse. */
+        private final int[] _plug, _unplug;
+    }
+
+    /** Number of entries per set. */
+    static final int WAYS = 4;
+
+    /** Bytes taken by an entry apart from its permutation's ints,
+     *  including its share of the sketch. */
+    private static final int ENTRY_BYTES = 96;
+
+    /** Number of uses a state needs to be admitted. */
+    private static final int MIN_FREQUENCY = 3;
+
+    /** Largest value of a counter. */
+    private static final int MAX_COUNT = 15;
+
+    /** Number of counters per state in the sketch. */
+    private static final int ROWS = 4;
+
+    /** Number of 4-bit counters per long. */
+    private static final int COUNTERS_PER_WORD = 16;
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** The entries, WAYS per set, null where free. */
+    private final AtomicReferenceArray<Entry> _entries;
+
+    /** Number of sets less 1 (the number of sets is a power of 2). */
+    private final int _setMask;
+
+    /** The sketch: 4-bit use counters, COUNTERS_PER_WORD to a long. */
+    private final long[] _counts;
+
+    /** Number of counters less 1. */
+    private final int _counterMask;
+
+    /** Number of uses counted between halvings. */
+    private final long _sampleSize;
+
+    /** Uses counted since the last halving. */
+    private long _additions;
+
+    /** Numbers of the rotor choices seen, by rotor names and rings. */
+    private final ConcurrentHashMap<List<Object>, Long> _groups =
+        new ConcurrentHashMap<>();
+
+    /** Number of the next rotor choice seen. */
+    private final AtomicLong _nextGroup = new AtomicLong();
+
+    /** Statistics. */
+    private final LongAdder _hits = new LongAdder(),
+        _misses = new LongAdder(), _admissions = new LongAdder(),
+        _evictions = new LongAdder();
+}
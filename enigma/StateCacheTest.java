@@ -0,0 +1,53 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the StateCache class.
+ *  @author Yuan Xie.
+ */
+public class StateCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkStateCache() {
+        Config config = navalConfig();
+        Config copy = config.copy();
+        String line = "* B I II III ADU (AQ) (EP)";
+        Settings key = new Settings(line, config),
+            cachedKey = new Settings(line, copy);
+        Machine reference = config.newMachine(), cached = copy.newMachine();
+        reference.setEngine(CipherEngine.Builtin.REFERENCE);
+        cached.setEngine(CipherEngine.Builtin.CACHED);
+        StateCache cache = new StateCache(26, 1 << 16);
+        cached.setStateCache(cache);
+        char[] text = new char[300];
+        for (int k = 0; k < text.length; k += 1) {
+            text[k] = (char) ('A' + k * 7 % 26);
+        }
+        for (int round = 0; round < 6; round += 1) {
+            char[] expected = text.clone(), msg = text.clone();
+            key.apply(reference);
+            cachedKey.apply(cached);
+            reference.convert(expected, 0, 100);
+            reference.convert(expected, 100, 300);
+            cached.convert(msg, 0, 100);
+            cached.convert(msg, 100, 300);
+            assertEquals(new String(expected), new String(msg));
+            assertArrayEquals(reference.positions(), cached.positions());
+        }
+        assertEquals(6 * 300, cache.hits() + cache.misses());
+        assertTrue(cache.hits() > 0);
+        assertTrue(cache.admissions() <= cache.capacity()
+                   + cache.evictions());
+    }
+}
@@ -0,0 +1,131 @@
+package enigma;
+
+/** The positions of the rotors of a machine as they step, kept apart from
+ *  the rotors themselves and packed into a long per state.  Only the
+ *  stepping of Machine.convert is simulated, so following a machine's
+ *  states this way costs a few array accesses per character.
+ *  @author Yuan Xie.
+ */
+final class Stepper {
+
+    /** A stepper for ROTORS (the reflector first), of which the last
+     *  PAWLS have pawls and step according to STEPPING, packing each
+     *  position into BITS bits. */
+    Stepper(Rotor[] rotors, int pawls, Stepping stepping, int bits) {
+        int slots = rotors.length - 1;
+        int size = rotors[0].size();
+        _size = size;
+        _pawls = pawls;
+        _stepping = stepping;
+        _steps = stepping.table(pawls);
+        _bits = bits;
+        _positions = new int[slots];
+        _notches = new boolean[slots][];
+        _rotates = new boolean[slots];
+        for (int r = 0; r < slots; r += 1) {
+            Rotor rotor = rotors[r + 1];
+            _rotates[r] = rotor.rotates();
+            _notches[r] = new boolean[size];
+            for (int x = 0; x < size; x += 1) {
+                _notches[r][x] = rotor.notchAt(x);
+            }
+        }
+        _notch = new boolean[pawls];
+        _advance = new boolean[pawls];
+    }
+
+    /** Return the number of bits needed to pack a position in an alphabet
+     *  of SIZE symbols. */
+    static int bits(int size) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /** Start from POSITIONS, those of the rotors in slots 1 and up,
+     *  marking the packed states with GROUP. */
+    void start(int[] positions, long group) {
+        System.arraycopy(positions, 0, _positions, 0, _positions.length);
+        _group = group;
+    }
+
+    /** Return the position of the rotor in slot R+1. */
+    int position(int r) {
+        return _positions[r];
+    }
+
+    /** Advance as for converting one character and return the packed
+     *  state it is converted in: GROUP with the position of the rotor in
+     *  slot R+1 in BITS bits from bit BITS * (number of slots - 2 - R). */
+    long next() {
+        int slots = _positions.length, first = slots - _pawls;
+        if (_steps != null) {
+            int notches = 0;
+            for (int r = first; r < slots; r += 1) {
+                notches = notches << 1
+                    | (_notches[r][_positions[r]] ? 1 : 0);
+            }
+            int advance = _steps[notches];
+            for (int r = slots - 1; advance != 0; r -= 1) {
+                if ((advance & 1) != 0) {
+                    advance(r);
+                }
+                advance >>>= 1;
+            }
+        } else {
+            for (int r = first; r < slots; r += 1) {
+                _notch[r - first] = _notches[r][_positions[r]];
+            }
+            _stepping.advance(_notch, _advance);
+            for (int r = first; r < slots; r += 1) {
+                if (_advance[r - first]) {
+                    advance(r);
+                }
+            }
+        }
+        long result = _group;
+        for (int r = 0; r < slots; r += 1) {
+            result |= (long) _positions[r] << (_bits * (slots - 1 - r));
+        }
+        return result;
+    }
+
+    /** Advance the rotor in slot R+1, if it rotates. */
+    private void advance(int r) {
+        if (_rotates[r]) {
+            _positions[r] += 1;
+            if (_positions[r] == _size) {
+                _positions[r] = 0;
+            }
+        }
+    }
+
+    /** Alphabet size. */
+    private final int _size;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** How the rotors step. */
+    private final Stepping _stepping;
+
+    /** Stepping table for my pawls, or null (see Stepping.table). */
+    private final int[] _steps;
+
+    /** Bits per position in a packed state. */
+    private final int _bits;
+
+    /** Current positions of the rotors in slots 1 and up. */
+    private final int[] _positions;
+
+    /** _notches[R][X] is true iff the rotor in slot R+1 is at a notch at
+     *  position X. */
+    private final boolean[][] _notches;
+
+    /** _rotates[R] is true iff the rotor in slot R+1 rotates. */
+    private final boolean[] _rotates;
+
+    /** Scratch flags for stepping without _steps. */
+    private final boolean[] _notch, _advance;
+
+    /** Bits marking the current states. */
+    private long _group;
+}
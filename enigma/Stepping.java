@@ -0,0 +1,115 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The mechanisms by which the rotors in the slots with pawls advance on
+ *  each keystroke.  Each model decides which of those rotors move from
+ *  which of them are at notches; for machines with few pawls the decision
+ *  is compiled into a table indexed by the notch states, so that stepping
+ *  costs one lookup per character whatever the model.
+ *  @author Yuan Xie.
+ */
+enum Stepping {
+
+    /** The pawl and notch drive of the service Enigma: the rightmost rotor
+     *  always advances, and a rotor at a notch advances both itself and
+     *  its left neighbour, giving the double step of the middle rotor. */
+    ENIGMA {
+        @Override
+        void advance(boolean[] notch, boolean[] advance) {
+            int p = notch.length;
+            for (int k = 0; k < p; k += 1) {
+                advance[k] = k == p - 1;
+            }
+            for (int k = 1; k < p; k += 1) {
+                if (notch[k]) {
+                    advance[k] = advance[k - 1] = true;
+                }
+            }
+        }
+    },
+
+    /** A gear (cog-wheel) drive, as in the Abwehr Enigma G: the rightmost
+     *  rotor always advances, and a rotor advances its left neighbour when
+     *  it moves on from a notch, like the wheels of an odometer.  There is
+     *  no double step; rotors with many notches carry more often. */
+    ODOMETER {
+        @Override
+        void advance(boolean[] notch, boolean[] advance) {
+            int p = notch.length;
+            if (p > 0) {
+                advance[p - 1] = true;
+            }
+            for (int k = p - 1; k > 0; k -= 1) {
+                advance[k - 1] = advance[k] && notch[k];
+            }
+        }
+    },
+
+    /** Pawls that push only the rotor to their left: the rightmost rotor
+     *  always advances, and every other rotor advances whenever its right
+     *  neighbour is at a notch, whether or not that neighbour moves.  A
+     *  rotor that comes to rest on a notch keeps driving its left neighbour
+     *  until it moves on, so the slower rotors step in irregular bursts. */
+    IRREGULAR {
+        @Override
+        void advance(boolean[] notch, boolean[] advance) {
+            int p = notch.length;
+            for (int k = 0; k < p; k += 1) {
+                advance[k] = k == p - 1 || (k + 1 < p && notch[k + 1]);
+            }
+        }
+    };
+
+    /** Set ADVANCE[k] to true iff the rotor in the Kth slot with a pawl,
+     *  counting from the left, advances when NOTCH[j] is true exactly for
+     *  the rotors at notches.  ADVANCE and NOTCH have one entry per pawl. */
+    abstract void advance(boolean[] notch, boolean[] advance);
+
+    /** Return a table for PAWLS pawls whose entry for a notch mask (whose
+     *  bit j is set iff the Jth pawled rotor from the right is at a notch)
+     *  is the mask of rotors that advance, numbered the same way.  Returns
+     *  null if PAWLS is too large for a table. */
+    int[] table(int pawls) {
+        if (pawls > TABLE_PAWLS) {
+            return null;
+        }
+        int[] result = new int[1 << pawls];
+        boolean[] notch = new boolean[pawls], advance = new boolean[pawls];
+        for (int mask = 0; mask < result.length; mask += 1) {
+            for (int k = 0; k < pawls; k += 1) {
+                notch[k] = (mask & 1 << (pawls - 1 - k)) != 0;
+            }
+            advance(notch, advance);
+            for (int k = 0; k < pawls; k += 1) {
+                if (advance[k]) {
+                    result[mask] |= 1 << (pawls - 1 - k);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the model named NAME (in any case). */
+    static Stepping named(String name) {
+        Stepping result = find(name);
+        if (result == null) {
+            throw error("unknown stepping model %s", name);
+        }
+        return result;
+    }
+
+    /** Return the model whose name is NAME, ignoring case, or null if
+     *  there is none. */
+    static Stepping find(String name) {
+        for (Stepping model : values()) {
+            if (model.name().equalsIgnoreCase(name)) {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    /** Largest number of pawls for which table compiles a table. */
+    static final int TABLE_PAWLS = 12;
+}
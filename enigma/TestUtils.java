@@ -126,4 +126,18 @@ class TestUtils {
         NAVALZ_MAP.put("Gamma", "EGTPLBOVFSINCUJZDXMRQAYWHK");
     }
 
+    /** Return a configuration of the upper-case alphabet with four slots
+     *  and three pawls, the rotors I, II and III of NAVALA and the
+     *  reflector B of the three-rotor machines, which is not that of
+     *  NAVALA. */
+    static Config navalConfig() {
+        return new Config(new ConfigLexer(
+            "A-Z\n4 3\n"
+            + "I MQ " + NAVALA.get("I") + "\n"
+            + "II ME " + NAVALA.get("II") + "\n"
+            + "III MV " + NAVALA.get("III") + "\n"
+            + "B R (AY) (BR) (CU) (DH) (EQ) (FS) (GL) (IP) (JX) (KN) (MO)"
+            + " (TZ) (VW)\n"));
+    }
+
 }
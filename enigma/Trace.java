@@ -0,0 +1,108 @@
+package enigma;
+
+/** A record of the last steps of a machine, for finding where its
+ *  output departs from another's.  Each character converted while a
+ *  Trace is attached (see Machine.setTrace) records its index in the
+ *  message, the symbols in and out, which rotors advanced, and the
+ *  settings of the rotors it was converted at.  Records go into arrays
+ *  allocated once, the oldest being overwritten when they are full, so
+ *  tracing allocates nothing however long the message.
+ *  @author Yuan Xie.
+ */
+class Trace {
+
+    /** A trace of the last CAPACITY > 0 characters converted by M. */
+    Trace(Machine M, int capacity) {
+        _alphabet = M.alphabet();
+        _width = FIELDS + M.numRotors() - 1;
+        _records = new int[capacity * _width];
+        _indices = new long[capacity];
+    }
+
+    /** Start counting characters from 0, as at the start of a message. */
+    void restart() {
+        _index = 0;
+    }
+
+    /** Record the conversion of IN to OUT by ROTORS, which were at the
+     *  settings recorded after advancing those in the slots whose bits
+     *  are set in ADVANCED (bit 0 for the rightmost slot). */
+    void record(int in, int out, int advanced, Rotor[] rotors) {
+        int k = _next * _width;
+        _records[k] = in;
+        _records[k + 1] = out;
+        _records[k + 2] = advanced;
+        for (int r = 1; r < rotors.length; r += 1) {
+            _records[k + FIELDS + r - 1] = rotors[r].setting();
+        }
+        _indices[_next] = _index;
+        _index += 1;
+        _count += 1;
+        _next += 1;
+        if (_next == _indices.length) {
+            _next = 0;
+        }
+    }
+
+    /** Return the number of characters recorded in all. */
+    long count() {
+        return _count;
+    }
+
+    /** Return the records held, oldest first, one per line: the index of
+     *  the character in its message, the symbols in and out, the
+     *  settings of the rotors in slots 1 and up, and a mark under each
+     *  slot whose rotor advanced ('+') or not ('.'). */
+    String dump() {
+        int held = (int) Math.min(_count, _indices.length);
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("trace: last %d of %d characters%n",
+                                    held, _count));
+        int slots = _width - FIELDS;
+        for (int j = 0; j < held; j += 1) {
+            int n = (_next - held + j + _indices.length) % _indices.length,
+                k = n * _width;
+            result.append(String.format("%10d  %c -> %c  ", _indices[n],
+                                        _alphabet.toChar(_records[k]),
+                                        _alphabet.toChar(_records[k + 1])));
+            for (int r = 0; r < slots; r += 1) {
+                result.append(_alphabet.toChar(_records[k + FIELDS + r]));
+            }
+            result.append("  ");
+            for (int r = 0; r < slots; r += 1) {
+                int bit = slots - 1 - r;
+                result.append(bit < Integer.SIZE
+                              && (_records[k + 2] & 1 << bit) != 0
+                              ? '+' : '.');
+            }
+            result.append(System.lineSeparator());
+        }
+        return result.toString();
+    }
+
+    /** Number of ints in a record before the settings: the symbols in
+     *  and out and the advance bits. */
+    private static final int FIELDS = 3;
+
+    /** Alphabet of the symbols recorded. */
+    private final Alphabet _alphabet;
+
+    /** Number of ints in each record. */
+    private final int _width;
+
+    /** The records, _width ints each, in a ring. */
+    private final int[] _records;
+
+    /** _indices[n] is the index in its message of the character of
+     *  record n. */
+    private final long[] _indices;
+
+    /** Index of the next record to be written. */
+    private int _next;
+
+    /** Index in its message of the next character recorded. */
+    private long _index;
+
+    /** Number of characters recorded in all. */
+    private long _count;
+}
@@ -0,0 +1,48 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Trace class.
+ *  @author Yuan Xie.
+ */
+public class TraceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkTrace() {
+        Machine machine = new Machine(UPPER, 5, 3, List.of(
+            new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)),
+            new FixedRotor("Beta", new Permutation(NAVALA.get("Beta"), UPPER)),
+            new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER), "Q"),
+            new MovingRotor("II", new Permutation(NAVALA.get("II"), UPPER),
+                            "E"),
+            new MovingRotor("III", new Permutation(NAVALA.get("III"), UPPER),
+                            "V")));
+        machine.insertRotors(new String[] {"B", "Beta", "I", "II", "III"});
+        Trace trace = new Trace(machine, 3);
+        machine.setTrace(trace);
+        machine.setRotors("AADU");
+        assertEquals("EQIBM", machine.convert("AAAAA"));
+        assertEquals(5, trace.count());
+        String[] lines = trace.dump().split(System.lineSeparator());
+        assertEquals("trace: last 3 of 5 characters", lines[0]);
+        assertEquals("         2  A -> I  ABFX  .+++", lines[1]);
+        assertEquals("         4  A -> M  ABFZ  ...+", lines[3]);
+        machine.setTrace(null);
+        machine.setRotors("AADU");
+        assertEquals("EQIBM", machine.convert("AAAAA"));
+        assertEquals(5, trace.count());
+    }
+}
@@ -0,0 +1,300 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/** Chooses the cipher engine to use with a configuration by measuring
+ *  them.  Each engine that can handle a typical machine built from the
+ *  configuration is first checked against REFERENCE on a random message,
+ *  both without plugboard and rings and with random ones, and then timed
+ *  on it; the fastest one passing the check wins.  Results
+ *  are kept in a file, by configuration and platform, so that the
+ *  measurement is made only once.
+ *  @author Yuan Xie.
+ */
+class Tuner {
+
+    /** Return the fastest engine that gives correct results for
+     *  CONFIG, as recorded in CACHEFILE (if not null) or else measured
+     *  and recorded there.  The rates measured are reported on the
+     *  standard error. */
+    static CipherEngine choose(Config config, Path cacheFile) {
+        return choose(config, cacheFile, CipherEngine.engines());
+    }
+
+    /** Return the fastest of ENGINES that gives correct results for
+     *  CONFIG, as for choose(CONFIG, CACHEFILE). */
+    static CipherEngine choose(Config config, Path cacheFile,
+                               List<CipherEngine> engines) {
+        String key = key(config);
+        Properties known = new Properties();
+        if (cacheFile != null && Files.isReadable(cacheFile)) {
+            try (InputStream in = Files.newInputStream(cacheFile)) {
+                known.load(in);
+            } catch (IOException | IllegalArgumentException excp) {
+                known.clear();
+            }
+            String id = known.getProperty(key);
+            for (CipherEngine engine : engines) {
+                if (engine.id().equals(id)) {
+                    return engine;
+                }
+            }
+        }
+        CipherEngine result = new Tuner(config).fastest(engines);
+        if (cacheFile != null) {
+            known.setProperty(key, result.id());
+            try (OutputStream out = Files.newOutputStream(cacheFile)) {
+                known.store(out, "enigma engines");
+            } catch (IOException excp) {
+                /* The choice is merely not remembered. */
+            }
+        }
+        return result;
+    }
+
+    /** Return the key under which the engine for CONFIG on this
+     *  platform is recorded. */
+    private static String key(Config config) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : SectionCache.fingerprint(config, false)) {
+            result.append(String.format("%02x", b & 0xff));
+        }
+        return result.append('.').append(System.getProperty("os.arch"))
+            .append('.').append(Runtime.getRuntime().availableProcessors())
+            .toString();
+    }
+
+    /** A tuner for machines built from CONFIG, whose rotors are left
+     *  untouched. */
+    private Tuner(Config config) {
+        Config copy = config.copy();
+        _machine = copy.newMachine();
+        Alphabet alphabet = config.alphabet();
+        Random random = new Random(SEED);
+        _message = new char[MESSAGE_LENGTH];
+        _mixed = new char[MESSAGE_LENGTH];
+        for (int k = 0; k < MESSAGE_LENGTH; k += 1) {
+            _message[k] = alphabet.toChar(random.nextInt(alphabet.size()));
+            _mixed[k] = _message[k];
+            if (random.nextInt(MIXED_PERIOD) == 0) {
+                _mixed[k] = ' ';
+            }
+        }
+        _positions = new int[config.numRotors() - 1];
+        for (int r = 0; r < _positions.length; r += 1) {
+            _positions[r] = random.nextInt(alphabet.size());
+        }
+        _strict = CharClass.strict(alphabet);
+        _passThrough = CharClass.passThrough(alphabet);
+        _rotors = rotors(copy);
+        _ringed = _rotors == null ? null : ringed(copy, _rotors, random);
+        _plugboard = plugboard(alphabet, random);
+        _noPlugboard = new Permutation("", alphabet);
+    }
+
+    /** Return the first suitable rotors of CONFIG for each slot: a
+     *  reflector, then non-moving rotors where possible in the slots
+     *  without pawls, then moving rotors.  Return null if CONFIG does
+     *  not have enough distinct rotors for that. */
+    private static Rotor[] rotors(Config config) {
+        int slots = config.numRotors(),
+            firstPawl = slots - config.numPawls();
+        Rotor[] rotors = new Rotor[slots];
+        ArrayList<Rotor> left = new ArrayList<>(config.rotors());
+        for (int r = 0; r < slots; r += 1) {
+            for (int pass = 0; pass < 2 && rotors[r] == null; pass += 1) {
+                for (Rotor rotor : left) {
+                    if (suits(rotor, r == 0, r >= firstPawl, pass == 1)) {
+                        rotors[r] = rotor;
+                        break;
+                    }
+                }
+            }
+            if (rotors[r] == null) {
+                return null;
+            }
+            left.remove(rotors[r]);
+        }
+        return rotors;
+    }
+
+    /** Return ROTORS, from CONFIG, with the rotors after the reflector
+     *  given ring settings other than 0 chosen by RANDOM. */
+    private static Rotor[] ringed(Config config, Rotor[] rotors,
+                                  Random random) {
+        int n = config.alphabet().size();
+        Rotor[] result = rotors.clone();
+        for (int r = 1; r < result.length && n > 1; r += 1) {
+            result[r] = config.rotor(result[r].name(),
+                                     1 + random.nextInt(n - 1));
+        }
+        return result;
+    }
+
+    /** Return a plugboard for ALPHABET swapping up to PLUGS pairs of
+     *  characters chosen by RANDOM. */
+    private static Permutation plugboard(Alphabet alphabet, Random random) {
+        ArrayList<Character> chars = new ArrayList<>();
+        for (int k = 0; k < alphabet.size(); k += 1) {
+            chars.add(alphabet.toChar(k));
+        }
+        Collections.shuffle(chars, random);
+        StringBuilder cycles = new StringBuilder();
+        for (int k = 0; k + 1 < chars.size() && k < 2 * PLUGS; k += 2) {
+            cycles.append('(').append(chars.get(k)).append(chars.get(k + 1))
+                .append(')');
+        }
+        return new Permutation(cycles.toString(), alphabet);
+    }
+
+    /** Set _machine to my rotors and no plugboard or, if SCRAMBLED, to
+     *  my ringed rotors and plugboard. */
+    private void setUp(boolean scrambled) {
+        _machine.insertRotors(scrambled ? _ringed : _rotors);
+        _machine.setPlugboard(scrambled ? _plugboard : _noPlugboard);
+    }
+
+    /** Return true iff ROTOR may go in a slot that holds the reflector
+     *  iff REFLECTOR and has a pawl iff PAWL.  A moving rotor in a slot
+     *  without a pawl is accepted only if ANYWAY. */
+    private static boolean suits(Rotor rotor, boolean reflector,
+                                 boolean pawl, boolean anyway) {
+        if (reflector || rotor.reflecting()) {
+            return reflector && rotor.reflecting();
+        }
+        return pawl ? rotor.rotates() : anyway || !rotor.rotates();
+    }
+
+    /** Return the fastest of ENGINES that passes the check against
+     *  REFERENCE, or KERNEL if none can be measured. */
+    private CipherEngine fastest(List<CipherEngine> engines) {
+        CipherEngine result = CipherEngine.Builtin.KERNEL;
+        if (_rotors == null) {
+            return result;
+        }
+        double best = 0;
+        for (CipherEngine engine : engines) {
+            setUp(false);
+            _machine.setEngine(engine);
+            if (engine.compile(_machine) == null || !agrees(engine)) {
+                continue;
+            }
+            setUp(false);
+            double rate = rate();
+            System.err.printf("engine %s: %.1f Mchar/s%n", engine.id(),
+                              rate * 1e3);
+            if (rate > best) {
+                best = rate;
+                result = engine;
+            }
+        }
+        return result;
+    }
+
+    /** Return true iff ENGINE gives the same results and final positions
+     *  as REFERENCE on my messages, whole and in two pieces, both with
+     *  and without my plugboard and ring settings. */
+    private boolean agrees(CipherEngine engine) {
+        for (boolean scrambled : new boolean[] { false, true }) {
+            setUp(scrambled);
+            for (int split : new int[] { 0, MESSAGE_LENGTH / 3 }) {
+                for (boolean mixed : new boolean[] { false, true }) {
+                    String expected = run(CipherEngine.Builtin.REFERENCE,
+                                          split, mixed);
+                    if (!expected.equals(run(engine, split, mixed))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Return the result of converting my message (_mixed in
+     *  pass-through mode iff MIXED) with ENGINE from my positions, in
+     *  two pieces divided at SPLIT, followed by the final positions. */
+    private String run(CipherEngine engine, int split, boolean mixed) {
+        CharClass classes = mixed ? _passThrough : _strict;
+        char[] msg = (mixed ? _mixed : _message).clone();
+        _machine.setEngine(engine);
+        _machine.setRotors(_positions);
+        int end = _machine.convert(msg, 0, split, classes);
+        System.arraycopy(msg, split, msg, end, msg.length - split);
+        end = _machine.convert(msg, end, end + msg.length - split, classes);
+        return new String(msg, 0, end)
+            + Arrays.toString(_machine.positions());
+    }
+
+    /** Return the best rate of conversion of my message with the engine
+     *  of _machine, in characters per nanosecond, over ROUNDS rounds of
+     *  at least ROUND_TIME each, after one round to warm up. */
+    private double rate() {
+        char[] msg = _message.clone();
+        double best = 0;
+        for (int k = 0; k <= ROUNDS; k += 1) {
+            long count = 0, start = System.nanoTime(), time;
+            do {
+                _machine.convert(msg, 0, msg.length);
+                count += msg.length;
+                time = System.nanoTime() - start;
+            } while (time < ROUND_TIME);
+            if (k > 0) {
+                best = Math.max(best, (double) count / time);
+            }
+        }
+        return best;
+    }
+
+    /** Seed of the random messages and positions, so that the
+     *  measurements are repeatable. */
+    private static final long SEED = 0x656e69676d61L;
+
+    /** Length of the messages converted. */
+    private static final int MESSAGE_LENGTH = 1 << 14;
+
+    /** One in MIXED_PERIOD characters of _mixed is outside the
+     *  alphabet. */
+    private static final int MIXED_PERIOD = 16;
+
+    /** Number of timed rounds per engine. */
+    private static final int ROUNDS = 3;
+
+    /** Minimum duration of a round, in nanoseconds. */
+    private static final long ROUND_TIME = 20_000_000L;
+
+    /** Number of pairs of characters swapped by the plugboard of the
+     *  check. */
+    private static final int PLUGS = 10;
+
+    /** Machine on which engines are checked and timed. */
+    private final Machine _machine;
+
+    /** Rotors for each slot of _machine, or null if there are not
+     *  enough, and the same with ring settings other than 0. */
+    private final Rotor[] _rotors, _ringed;
+
+    /** Plugboard of the check, and the plugboard with no pairs. */
+    private final Permutation _plugboard, _noPlugboard;
+
+    /** Random message in the alphabet. */
+    private final char[] _message;
+
+    /** _message with some characters replaced by blanks. */
+    private final char[] _mixed;
+
+    /** Starting positions of the rotors of _machine. */
+    private final int[] _positions;
+
+    /** Classifications for strict and pass-through conversion. */
+    private final CharClass _strict, _passThrough;
+}
@@ -0,0 +1,150 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+import static enigma.BatchTest.delete;
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Tuner class.
+ *  @author Yuan Xie.
+ */
+public class TunerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return an engine identified by ID that converts correctly on the
+     *  machines satisfying RIGHT, and otherwise gets the first character
+     *  of each run wrong, as an engine that mishandled some part of the
+     *  setup would.  Its converters are as fast as KERNEL's, so that a
+     *  Tuner choosing between it and REFERENCE picks it if it passes the
+     *  check. */
+    static CipherEngine wrongUnless(String id, Predicate<Machine> right) {
+        return new CipherEngine() {
+            @Override
+            public String id() {
+                return id;
+            }
+
+            @Override
+            public Converter compile(Machine M) {
+                boolean ok = right.test(M);
+                Converter kernel = Kernel.of(M);
+                return (msg, from, to, classes) -> {
+                    int end = kernel.convert(msg, from, to, classes);
+                    if (!ok && end > from) {
+                        msg[from] = msg[from] == 'A' ? 'B' : 'A';
+                    }
+                    return end;
+                };
+            }
+        };
+    }
+
+    /** Return true iff M has no plugboard pairs. */
+    static boolean unplugged(Machine M) {
+        int[] plug = M.plug();
+        for (int x = 0; x < plug.length; x += 1) {
+            if (plug[x] != x) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff every rotor of M has ring setting 0. */
+    static boolean unringed(Machine M) {
+        for (Rotor rotor : M.myRotors()) {
+            if (rotor.ring() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkWrongEnginesRejected() {
+        Config config = navalConfig();
+        for (CipherEngine wrong :
+                 new CipherEngine[] {
+                     wrongUnless("tuner-plugs", TunerTest::unplugged),
+                     wrongUnless("tuner-rings", TunerTest::unringed) }) {
+            List<CipherEngine> engines =
+                List.of(CipherEngine.Builtin.REFERENCE, wrong);
+            assertSame(wrong.id(), CipherEngine.Builtin.REFERENCE,
+                       Tuner.choose(config, null, engines));
+        }
+        CipherEngine right = wrongUnless("tuner-right", M -> true);
+        assertSame(right, Tuner.choose(config, null, List.of(
+            CipherEngine.Builtin.REFERENCE, right)));
+    }
+
+    @Test
+    public void checkCachedChoice() throws IOException {
+        Config config = navalConfig();
+        int[] compiles = new int[1];
+        CipherEngine counting = new CipherEngine() {
+            @Override
+            public String id() {
+                return "tuner-counting";
+            }
+
+            @Override
+            public Converter compile(Machine M) {
+                compiles[0] += 1;
+                return Kernel.of(M);
+            }
+        };
+        List<CipherEngine> engines = new ArrayList<>(CipherEngine.engines());
+        engines.add(counting);
+        Path dir = Files.createTempDirectory("enigma-tuner"),
+            cache = dir.resolve("engines");
+        try {
+            CipherEngine chosen = Tuner.choose(config, cache, engines);
+            assertTrue(compiles[0] > 0);
+            Properties known = new Properties();
+            try (InputStream in = Files.newInputStream(cache)) {
+                known.load(in);
+            }
+            assertEquals(1, known.size());
+            String key = known.stringPropertyNames().iterator().next();
+            assertEquals(chosen.id(), known.getProperty(key));
+
+            compiles[0] = 0;
+            known.setProperty(key, "reference");
+            try (OutputStream out = Files.newOutputStream(cache)) {
+                known.store(out, null);
+            }
+            assertSame(CipherEngine.Builtin.REFERENCE,
+                       Tuner.choose(config, cache, engines));
+            assertEquals(0, compiles[0]);
+
+            known.setProperty(key, "no-such-engine");
+            try (OutputStream out = Files.newOutputStream(cache)) {
+                known.store(out, null);
+            }
+            Tuner.choose(config, cache, engines);
+            assertTrue(compiles[0] > 0);
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -11,7 +11,14 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         textui.runClasses(PermutationTest.class,
-                MovingRotorTest.class, MachineTest.class);
+                MovingRotorTest.class, MachineTest.class, ConfigTest.class,
+                CatalogTest.class, PipelineTest.class, BatchTest.class,
+                SectionCacheTest.class, CompressionTest.class,
+                WiringCacheTest.class, ArchiveTest.class, MultiLaneTest.class,
+                SearchTest.class, TunerTest.class,
+                TraceTest.class, CipherProcessorTest.class,
+                ConformanceTest.class, OverlapTest.class,
+                StateCacheTest.class);
     }
 
 }
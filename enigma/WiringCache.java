@@ -0,0 +1,138 @@
+package enigma;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A process-wide cache of compiled rotor wirings.  Configurations that
+ *  describe the same cycles over equal alphabets share one Permutation,
+ *  so that standard wirings loaded by many configurations are built and
+ *  stored once.  Entries are held through soft references and are
+ *  reclaimed when no loaded configuration uses them and memory runs low.
+ *  Permutations returned from here are shared and must not be modified.
+ *  When loaders race on one wiring, the first entry stored wins and is
+ *  returned to all of them.
+ *  @author Yuan Xie.
+ */
+class WiringCache {
+
+    /** Return a Permutation for the cycles in CYCLES[START .. END-1] over
+     *  ALPHABET (see Permutation(CharSequence, int, int, Alphabet)),
+     *  reusing a cached one with the same alphabet and cycles if
+     *  possible. */
+    static Permutation permutation(CharSequence cycles, int start, int end,
+                                   Alphabet alphabet) {
+        purge();
+        Key key = new Key(alphabet, normalize(cycles, start, end));
+        Entry entry = CACHE.get(key);
+        Permutation result = entry == null ? null : entry.get();
+        if (result != null) {
+            HITS.increment();
+            return result;
+        }
+        result = new Permutation(cycles, start, end, alphabet);
+        result.share();
+        Entry fresh = new Entry(key, result);
+        while (true) {
+            entry = CACHE.putIfAbsent(key, fresh);
+            if (entry == null) {
+                return result;
+            }
+            Permutation winner = entry.get();
+            if (winner != null) {
+                return winner;
+            }
+            if (CACHE.replace(key, entry, fresh)) {
+                return result;
+            }
+        }
+    }
+
+    /** Return the number of lookups satisfied from the cache so far. */
+    static long hits() {
+        return HITS.sum();
+    }
+
+    /** Return the number of wirings currently cached. */
+    static int size() {
+        purge();
+        return CACHE.size();
+    }
+
+    /** Return the characters of CYCLES[START .. END-1] with whitespace
+     *  removed, which identifies the permutation they describe as
+     *  written. */
+    private static String normalize(CharSequence cycles, int start, int end) {
+        StringBuilder result = new StringBuilder(end - start);
+        for (int k = start; k < end; k += 1) {
+            char c = cycles.charAt(k);
+            if (!Character.isWhitespace(c)) {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Remove entries whose permutations have been reclaimed. */
+    private static void purge() {
+        Object ref;
+        while ((ref = QUEUE.poll()) != null) {
+            Entry entry = (Entry) ref;
+            CACHE.remove(entry._key, entry);
+        }
+    }
+
+    /** Identifies a wiring: an alphabet and the text of its cycles. */
+    private static final class Key {
+        /** The key for CYCLES over ALPHABET. */
+        Key(Alphabet alphabet, String cycles) {
+            _alphabet = alphabet;
+            _cycles = cycles;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _cycles.equals(other._cycles)
+                && _alphabet.equals(other._alphabet);
+        }
+
+        @Override
+        public int hashCode() {
+            return _cycles.hashCode() * 31 + _alphabet.hashCode();
+        }
+
+        /** My alphabet. */
+        private final Alphabet _alphabet;
+        /** My cycles, without whitespace. */
+        private final String _cycles;
+    }
+
+    /** A cache entry: a soft reference to a Permutation that remembers its
+     *  key so it can be removed once cleared. */
+    private static final class Entry extends SoftReference<Permutation> {
+        /** An entry for PERM under KEY. */
+        Entry(Key key, Permutation perm) {
+            super(perm, QUEUE);
+            _key = key;
+        }
+
+        /** The key under which I am stored. */
+        private final Key _key;
+    }
+
+    /** The cached wirings. */
+    private static final ConcurrentHashMap<Key, Entry> CACHE =
+        new ConcurrentHashMap<>();
+
+    /** Queue on which cleared entries appear. */
+    private static final ReferenceQueue<Permutation> QUEUE =
+        new ReferenceQueue<>();
+
+    /** Number of cache hits. */
+    private static final LongAdder HITS = new LongAdder();
+}
@@ -0,0 +1,68 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the WiringCache class.
+ *  @author Yuan Xie.
+ */
+public class WiringCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkShared() {
+        String cycles = NAVALA.get("I");
+        Permutation perm = WiringCache.permutation(
+            cycles, 0, cycles.length(), new CharacterRange('A', 'Z'));
+        String spaced = "  " + cycles.replace(" ", "   ") + " ";
+        assertSame(perm, WiringCache.permutation(
+            spaced, 0, spaced.length(), new CharacterRange('A', 'Z')));
+        assertNotSame(perm, WiringCache.permutation(
+            cycles, 0, cycles.length(), new GeneralAlphabet(UPPER_STRING)));
+        try {
+            perm.addCycle("(KM)");
+            fail("shared permutation modified");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        assertEquals('E', perm.permute('A'));
+    }
+
+    @Test
+    public void checkRacingLoaders() throws Exception {
+        String cycles = "(AZYXWVUTSRQPONMLKJIHGFEDCB)";
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Permutation>> loads = new ArrayList<>();
+            for (int k = 0; k < 64; k += 1) {
+                loads.add(() -> WiringCache.permutation(
+                    cycles, 0, cycles.length(), new CharacterRange('A', 'Z')));
+            }
+            List<Future<Permutation>> results = pool.invokeAll(loads);
+            Permutation first = results.get(0).get();
+            for (Future<Permutation> result : results) {
+                assertSame(first, result.get());
+            }
+            assertSame(first, WiringCache.permutation(
+                cycles, 0, cycles.length(), new CharacterRange('A', 'Z')));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}